@@ -0,0 +1,171 @@
+package com.jetbeepsdk.plugin;
+
+import com.jetbeep.connection.locker.Lockers;
+import com.jetbeep.connection.locker.Token;
+import com.jetbeep.connection.locker.TokenResult;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Tokens of one applyTokens call. Tokens of one device are applied one after another in
+ * the order of the call, different devices run in parallel as far as TokenApplyQueue allows.
+ * Only one job per device is in the queue at a time, so a long batch does not fill it.
+ */
+class ApplyBatch {
+
+    interface Listener {
+        /**
+         * result is null when the apply failed with error
+         */
+        void onTokenResult(int index, Token token, String jobId, TokenResult result, String error);
+
+        void onFinished(int succeeded, int failed);
+    }
+
+    static final String ERROR_QUEUE_FULL = "Apply queue is full or requestId is already used";
+    static final String ERROR_CANCELLED = "Apply cancelled";
+
+    final String id;
+    private final TokenApplyQueue queue;
+    private final Lockers lockers;
+    private final List<Token> tokens;
+    private final long timeoutMs;
+    private final Listener listener;
+
+    // indexes of tokens which are not submitted yet, by deviceId in the order of the call
+    private final Map<Integer, ArrayDeque<Integer>> waiting = new LinkedHashMap<>();
+    private final Set<String> submitted = new HashSet<>();
+    private int remaining;
+    private int succeeded = 0;
+    private int failed = 0;
+
+    /**
+     * @param id        batch id, job ids of the tokens are id + ":" + index
+     * @param timeoutMs timeout of every token from its submit, see TokenApplyQueue.submit
+     */
+    ApplyBatch(String id, TokenApplyQueue queue, Lockers lockers, List<Token> tokens,
+               long timeoutMs, Listener listener) {
+        this.id = id;
+        this.queue = queue;
+        this.lockers = lockers;
+        this.tokens = tokens;
+        this.timeoutMs = timeoutMs;
+        this.listener = listener;
+        this.remaining = tokens.size();
+        for (int i = 0; i < tokens.size(); i++) {
+            int deviceId = tokens.get(i).getDeviceId();
+            ArrayDeque<Integer> indexes = waiting.get(deviceId);
+            if (indexes == null) {
+                indexes = new ArrayDeque<>();
+                waiting.put(deviceId, indexes);
+            }
+            indexes.add(i);
+        }
+    }
+
+    void start() {
+        List<Integer> devices;
+        synchronized (this) {
+            devices = new ArrayList<>(waiting.keySet());
+        }
+        for (int deviceId : devices) {
+            next(deviceId);
+        }
+    }
+
+    /**
+     * Fails tokens which are not applied yet with "Apply cancelled".
+     */
+    void cancel() {
+        List<Integer> notSubmitted = new ArrayList<>();
+        List<String> running;
+        synchronized (this) {
+            for (ArrayDeque<Integer> indexes : waiting.values()) {
+                notSubmitted.addAll(indexes);
+                indexes.clear();
+            }
+            running = new ArrayList<>(submitted);
+        }
+        for (int index : notSubmitted) {
+            finish(index, null, ERROR_CANCELLED);
+        }
+        for (String jobId : running) {
+            queue.cancel(jobId);
+        }
+    }
+
+    /*
+        Submits the next token of the device. A token which fails before it is queued (open
+        circuit, full queue) is finished here and the loop goes on with the following one,
+        so a long batch against such a device does not recurse. Queued tokens go on from
+        their callback.
+     */
+    private void next(int deviceId) {
+        while (true) {
+            int index;
+            String jobId;
+            synchronized (this) {
+                ArrayDeque<Integer> indexes = waiting.get(deviceId);
+                Integer next = indexes != null ? indexes.poll() : null;
+                if (next == null) return;
+                index = next;
+                jobId = id + ":" + index;
+                submitted.add(jobId);
+            }
+            TokenApplyQueue.SubmitStatus status = queue.submit(lockers, tokens.get(index), jobId,
+                    timeoutMs, new TokenApplyQueue.ApplyCallback() {
+                        @Override
+                        public void onResult(TokenResult result) {
+                            completed(deviceId, index, jobId, result, null);
+                        }
+
+                        @Override
+                        public void onError(String message) {
+                            completed(deviceId, index, jobId, null, message);
+                        }
+                    });
+            if (status == TokenApplyQueue.SubmitStatus.queued) return;
+            synchronized (this) {
+                submitted.remove(jobId);
+            }
+            finish(index, null, status == TokenApplyQueue.SubmitStatus.circuitOpen
+                    ? TokenApplyQueue.ERROR_CIRCUIT_OPEN : ERROR_QUEUE_FULL);
+        }
+    }
+
+    private void completed(int deviceId, int index, String jobId, TokenResult result,
+                           String error) {
+        synchronized (this) {
+            submitted.remove(jobId);
+        }
+        finish(index, result, error);
+        next(deviceId);
+    }
+
+    private void finish(int index, TokenResult result, String error) {
+        listener.onTokenResult(index, tokens.get(index), id + ":" + index, result, error);
+        boolean last;
+        int succeededCount;
+        int failedCount;
+        synchronized (this) {
+            if (result != null) {
+                succeeded++;
+            } else {
+                failed++;
+            }
+            last = --remaining == 0;
+            succeededCount = succeeded;
+            failedCount = failed;
+        }
+        // every other token has returned from its listener call before it was counted
+        if (last) {
+            listener.onFinished(succeededCount, failedCount);
+        }
+    }
+}
@@ -0,0 +1,63 @@
+package com.jetbeepsdk.plugin;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+
+/**
+ * Latest event of every device or shop while the app is in background.
+ * Events in between are dropped, on resume js gets one event per key and only when
+ * the key has changed: enter followed by exit of a shop js did not know gives nothing.
+ */
+class BackgroundChanges<K, V> {
+
+    static class Change<V> {
+        // js had the key before the app went to background
+        final boolean presentBefore;
+        // the key is present after the last event
+        final boolean present;
+        // the last event of the key
+        final V latest;
+
+        Change(boolean presentBefore, boolean present, V latest) {
+            this.presentBefore = presentBefore;
+            this.present = present;
+            this.latest = latest;
+        }
+    }
+
+    private final LinkedHashMap<K, Change<V>> changes = new LinkedHashMap<>();
+
+    /**
+     * appeared: the event adds the key (detected, entered), present: the key is present
+     * after the event (false for lost and exit)
+     */
+    synchronized void put(K key, V event, boolean appeared, boolean present) {
+        Change<V> previous = changes.remove(key);
+        boolean presentBefore = previous != null ? previous.presentBefore : !appeared;
+        changes.put(key, new Change<>(presentBefore, present, event));
+    }
+
+    /**
+     * returns: changes in the order of their last events, keys which are absent
+     * before and after are skipped
+     */
+    synchronized List<Change<V>> drain() {
+        List<Change<V>> result = new ArrayList<>(changes.size());
+        for (Change<V> change : changes.values()) {
+            if (change.presentBefore || change.present) {
+                result.add(change);
+            }
+        }
+        changes.clear();
+        return result;
+    }
+
+    synchronized void clear() {
+        changes.clear();
+    }
+
+    synchronized int size() {
+        return changes.size();
+    }
+}
@@ -0,0 +1,141 @@
+package com.jetbeepsdk.plugin;
+
+import com.jetbeep.background.LockStatus;
+import com.jetbeep.background.UserData;
+import com.jetbeep.connection.locker.LockerDevice;
+import com.jetbeep.model.entities.Device;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+/**
+ * Binary device frame, sent to js as ArrayBuffer and decoded by decodeCompactDevices
+ * in www/JetBeepSDKPlugin.js. All numbers are big endian.
+ *
+ * frame:
+ *   uint8  version
+ *   uint8  lock status name count, then per name: uint8 length + ascii bytes
+ *   uint16 device count, a frame carries at most 65535 devices, the rest are not sent
+ * device:
+ *   int32  deviceId
+ *   uint8  status, index in STATUSES
+ *   uint8  flags, bit 0 - isConnectable
+ *   uint16 deviceName length + utf8 bytes
+ *   uint16 userData length + raw bytes
+ *   uint8  lock count, then ceil(count / 2) bytes of 4 bit lock status indexes,
+ *          first lock in the high bits, so LockStatus can have at most 16 values,
+ *          see isSupported
+ */
+class CompactDeviceCodec {
+
+    static final int VERSION = 1;
+
+    // keep in sync with COMPACT_STATUSES in www/JetBeepSDKPlugin.js
+    static final String[] STATUSES = {"None", "DeviceDetected", "DeviceStateChanged",
+            "DeviceLost", "DeviceLockStateChanged"};
+
+    static final int MAX_DEVICES = 0xFFFF;
+    static final String ERROR_UNSUPPORTED =
+            "Compact format is not supported, the sdk has more than 16 lock statuses";
+
+    private static final byte[] HEADER = header();
+
+    static class Event {
+        final LockerDevice device;
+        String status;
+
+        Event(LockerDevice device, String status) {
+            this.device = device;
+            this.status = status;
+        }
+    }
+
+    static final DeviceEventBatcher.Merger<Event> MERGER = (previous, latest) -> {
+        if (DeviceEventBatcher.isStillDetected(previous.status, latest.status)) {
+            latest.status = DeviceEventBatcher.DEVICE_DETECTED;
+        }
+        return latest;
+    };
+
+    /**
+     * returns: false when a new sdk lock status would be aliased by the 4 bit indexes,
+     * the frame must not be used then
+     */
+    static boolean isSupported() {
+        return LockStatus.values().length <= 16;
+    }
+
+    static byte[] encode(List<Event> events) {
+        int count = Math.min(events.size(), MAX_DEVICES);
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(HEADER.length + 2 + count * 32);
+        DataOutputStream out = new DataOutputStream(bytes);
+        try {
+            out.write(HEADER);
+            out.writeShort(count);
+            for (int i = 0; i < count; i++) {
+                Event event = events.get(i);
+                writeDevice(out, event.device.getDevice(), statusIndex(event.status));
+            }
+        } catch (IOException e) {
+            // ByteArrayOutputStream does not throw
+            e.printStackTrace();
+        }
+        return bytes.toByteArray();
+    }
+
+    private static void writeDevice(DataOutputStream out, Device device, int status)
+            throws IOException {
+        out.writeInt(device.getDeviceId());
+        out.writeByte(status);
+        out.writeByte(device.isConnectable() ? 1 : 0);
+        writeString(out, device.getShopName());
+        UserData userData = device.getUserData();
+        writeBytes(out, userData != null ? userData.getData() : null);
+
+        List<LockStatus> lockStatuses = device.getLockStatus();
+        int count = lockStatuses != null ? Math.min(lockStatuses.size(), 255) : 0;
+        out.writeByte(count);
+        for (int i = 0; i < count; i += 2) {
+            int high = lockStatuses.get(i).ordinal() & 0x0F;
+            int low = i + 1 < count ? lockStatuses.get(i + 1).ordinal() & 0x0F : 0;
+            out.writeByte((high << 4) | low);
+        }
+    }
+
+    private static void writeString(DataOutputStream out, String value) throws IOException {
+        writeBytes(out, value != null ? value.getBytes(StandardCharsets.UTF_8) : null);
+    }
+
+    private static void writeBytes(DataOutputStream out, byte[] value) throws IOException {
+        if (value == null) {
+            out.writeShort(0);
+            return;
+        }
+        int length = Math.min(value.length, 0xFFFF);
+        out.writeShort(length);
+        out.write(value, 0, length);
+    }
+
+    private static int statusIndex(String status) {
+        for (int i = 0; i < STATUSES.length; i++) {
+            if (STATUSES[i].equals(status)) return i;
+        }
+        return 0;
+    }
+
+    private static byte[] header() {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        LockStatus[] values = LockStatus.values();
+        bytes.write(VERSION);
+        bytes.write(Math.min(values.length, 255));
+        for (LockStatus value : values) {
+            byte[] name = value.name().getBytes(StandardCharsets.US_ASCII);
+            bytes.write(name.length);
+            bytes.write(name, 0, name.length);
+        }
+        return bytes.toByteArray();
+    }
+}
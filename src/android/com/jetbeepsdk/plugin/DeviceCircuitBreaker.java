@@ -0,0 +1,164 @@
+package com.jetbeepsdk.plugin;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Consecutive apply failures per device. After threshold failures the device is open and
+ * applies fail fast until the cool-down has passed, then one apply is let through as a trial:
+ * its success closes the device, its failure opens it for another cool-down.
+ */
+class DeviceCircuitBreaker {
+
+    interface Listener {
+        void onStateChanged(JSONObject state);
+    }
+
+    enum State {
+        closed,
+        open,
+        halfOpen
+    }
+
+    static final int DEFAULT_THRESHOLD = 3;
+    static final long DEFAULT_COOL_DOWN_MS = 30 * 1000L;
+
+    private static class Device {
+        State state = State.closed;
+        int failures = 0;
+        long openUntilMs = 0;
+    }
+
+    private final Map<Integer, Device> devices = new HashMap<>();
+    private Listener listener = null;
+    private int threshold = DEFAULT_THRESHOLD;
+    private long coolDownMs = DEFAULT_COOL_DOWN_MS;
+
+    synchronized void setListener(Listener listener) {
+        this.listener = listener;
+    }
+
+    /**
+     * threshold: failures which open a device, 0 disables the breaker
+     */
+    synchronized void configure(int threshold, long coolDownMs) {
+        if (threshold >= 0) this.threshold = threshold;
+        if (coolDownMs > 0) this.coolDownMs = coolDownMs;
+    }
+
+    /**
+     * returns: false when an apply on the device has to fail fast
+     */
+    boolean allow(int deviceId) {
+        JSONObject changed;
+        synchronized (this) {
+            Device device = devices.get(deviceId);
+            if (device == null || device.state == State.closed) return true;
+            if (device.state == State.halfOpen || now() < device.openUntilMs) return false;
+            device.state = State.halfOpen;
+            changed = toJson(deviceId, device);
+        }
+        notifyListener(changed);
+        return true;
+    }
+
+    /**
+     * returns: true when the device is open or waits for its trial, a retry is not useful
+     */
+    synchronized boolean isOpen(int deviceId) {
+        Device device = devices.get(deviceId);
+        return device != null && device.state != State.closed;
+    }
+
+    void onSuccess(int deviceId) {
+        JSONObject changed = null;
+        synchronized (this) {
+            Device device = devices.remove(deviceId);
+            if (device != null && device.state != State.closed) {
+                changed = toJson(deviceId, new Device());
+            }
+        }
+        notifyListener(changed);
+    }
+
+    void onFailure(int deviceId) {
+        JSONObject changed = null;
+        synchronized (this) {
+            if (threshold == 0) return;
+            Device device = devices.get(deviceId);
+            if (device == null) {
+                device = new Device();
+                devices.put(deviceId, device);
+            }
+            device.failures++;
+            if (device.state == State.halfOpen
+                    || (device.state == State.closed && device.failures >= threshold)) {
+                device.state = State.open;
+                device.openUntilMs = now() + coolDownMs;
+                changed = toJson(deviceId, device);
+            }
+        }
+        notifyListener(changed);
+    }
+
+    /**
+     * The apply let through by allow ended without a result, e.g. it was cancelled.
+     * The next apply becomes the trial.
+     */
+    synchronized void onAbandoned(int deviceId) {
+        Device device = devices.get(deviceId);
+        if (device != null && device.state == State.halfOpen) {
+            device.state = State.open;
+            device.openUntilMs = now();
+        }
+    }
+
+    /*
+        [{
+            "deviceId": int,
+            "state": "closed" | "open" | "halfOpen",
+            "failures": int, // consecutive failures
+            "retryAfterMs": long // time until an apply is let through, 0 when it is
+        }]
+        Devices without failures are not listed.
+     */
+    synchronized JSONArray toJson() {
+        JSONArray result = new JSONArray();
+        for (Map.Entry<Integer, Device> entry : devices.entrySet()) {
+            result.put(toJson(entry.getKey(), entry.getValue()));
+        }
+        return result;
+    }
+
+    private JSONObject toJson(int deviceId, Device device) {
+        JSONObject result = new JSONObject();
+        try {
+            result.put("deviceId", deviceId);
+            result.put("state", device.state.name());
+            result.put("failures", device.failures);
+            result.put("retryAfterMs", device.state == State.open
+                    ? Math.max(0, device.openUntilMs - now()) : 0);
+        } catch (JSONException e) {
+            e.printStackTrace();
+        }
+        return result;
+    }
+
+    private void notifyListener(JSONObject changed) {
+        Listener target;
+        synchronized (this) {
+            target = listener;
+        }
+        if (changed != null && target != null) {
+            target.onStateChanged(changed);
+        }
+    }
+
+    private static long now() {
+        return System.nanoTime() / 1000000L;
+    }
+}
@@ -0,0 +1,146 @@
+package com.jetbeepsdk.plugin;
+
+import com.jetbeep.background.LockStatus;
+import com.jetbeep.background.UserData;
+import com.jetbeep.connection.locker.LockerDevice;
+import com.jetbeep.model.entities.Device;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+
+/*
+    Delta device event:
+    {
+        "deviceId": String,
+        "seq": long, // grows by one for every event sent in the stream
+        "status": String,
+        "full": true, // only present when all fields are sent
+        "deviceName": String, // fields below are present only when changed
+        "isConnectable": String,
+        "userData": String,
+        "lockStatuses": String[]
+    }
+ */
+class DeviceDeltaEncoder {
+
+    private static final String STATUS_LOST = "DeviceLost";
+    private static final String STATUS_DETECTED = "DeviceDetected";
+
+    private static class SentState {
+        String deviceName;
+        boolean isConnectable;
+        UserData userDataRef;
+        String userData;
+        List<LockStatus> lockStatuses;
+    }
+
+    private final Map<Integer, SentState> lastSent = new HashMap<>();
+    private long seq = 0;
+
+    /**
+     * returns: delta json or null when nothing has changed since the last sent event
+     */
+    synchronized JSONObject encode(LockerDevice lockerDevice, String status) {
+        Device device = lockerDevice.getDevice();
+        int deviceId = device.getDeviceId();
+
+        if (STATUS_LOST.equals(status)) {
+            lastSent.remove(deviceId);
+            return header(deviceId, status);
+        }
+
+        SentState previous = lastSent.get(deviceId);
+        boolean full = previous == null;
+        SentState current = new SentState();
+        current.deviceName = device.getShopName();
+        current.isConnectable = device.isConnectable();
+        current.userDataRef = device.getUserData();
+        if (!full && current.userDataRef == previous.userDataRef) {
+            current.userData = previous.userData;
+        } else {
+            current.userData = current.userDataRef != null ? current.userDataRef.utf8() : "";
+        }
+        List<LockStatus> lockStatuses = device.getLockStatus();
+        current.lockStatuses = lockStatuses != null ? new ArrayList<>(lockStatuses) : new ArrayList<>();
+
+        JSONObject result = header(deviceId, status);
+        boolean changed = full;
+        try {
+            if (full) {
+                result.put("full", true);
+            }
+            if (full || !Objects.equals(previous.deviceName, current.deviceName)) {
+                result.put("deviceName", current.deviceName);
+                changed = true;
+            }
+            if (full || previous.isConnectable != current.isConnectable) {
+                result.put("isConnectable", String.valueOf(current.isConnectable));
+                changed = true;
+            }
+            if (full || !current.userData.equals(previous.userData)) {
+                result.put("userData", current.userData);
+                changed = true;
+            }
+            if (full || !current.lockStatuses.equals(previous.lockStatuses)) {
+                JSONArray statuses = new JSONArray();
+                for (LockStatus lockStatus : current.lockStatuses) {
+                    statuses.put(lockStatus.name());
+                }
+                result.put("lockStatuses", statuses);
+                changed = true;
+            }
+        } catch (JSONException e) {
+            e.printStackTrace();
+        }
+        lastSent.put(deviceId, current);
+
+        if (!changed && !STATUS_DETECTED.equals(status)) {
+            return null;
+        }
+        assignSeq(result);
+        return result;
+    }
+
+    /**
+     * Forgets what was sent for the device, its next event will be a full snapshot.
+     */
+    synchronized void forget(int deviceId) {
+        lastSent.remove(deviceId);
+    }
+
+    /**
+     * Forgets everything sent, the next event of every device will be a full snapshot.
+     */
+    synchronized void reset() {
+        lastSent.clear();
+    }
+
+    private JSONObject header(int deviceId, String status) {
+        JSONObject result = new JSONObject();
+        try {
+            result.put("deviceId", String.valueOf(deviceId));
+            result.put("status", status);
+            if (STATUS_LOST.equals(status)) {
+                assignSeq(result);
+            }
+        } catch (JSONException e) {
+            e.printStackTrace();
+        }
+        return result;
+    }
+
+    private void assignSeq(JSONObject result) {
+        try {
+            result.put("seq", ++seq);
+        } catch (JSONException e) {
+            e.printStackTrace();
+        }
+    }
+}
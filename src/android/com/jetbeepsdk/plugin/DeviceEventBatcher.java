@@ -0,0 +1,122 @@
+package com.jetbeepsdk.plugin;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Collects locker device events during a time window and delivers them as one batch.
+ * Several events for the same deviceId inside one window are merged into the latest state.
+ */
+class DeviceEventBatcher<T> {
+
+    interface BatchListener<T> {
+        void onBatch(List<T> batch);
+    }
+
+    interface Merger<T> {
+        T merge(T previous, T latest);
+    }
+
+    static final long MIN_WINDOW_MS = 10;
+    static final long MAX_WINDOW_MS = 1000;
+
+    static final String DEVICE_DETECTED = "DeviceDetected";
+    static final String DEVICE_LOST = "DeviceLost";
+
+    private static final String STATUS = "status";
+
+    /*
+        Delta events carry only changed fields, so fields of the earlier event
+        which were not changed again are kept.
+     */
+    static final Merger<JSONObject> JSON_MERGER = (previous, latest) -> {
+        Iterator<String> keys = previous.keys();
+        try {
+            while (keys.hasNext()) {
+                String key = keys.next();
+                if (!latest.has(key)) {
+                    latest.put(key, previous.get(key));
+                }
+            }
+            if (isStillDetected(previous.optString(STATUS, null),
+                    latest.optString(STATUS, null))) {
+                latest.put(STATUS, DEVICE_DETECTED);
+            }
+        } catch (JSONException e) {
+            e.printStackTrace();
+        }
+        return latest;
+    };
+
+    private final ScheduledExecutorService scheduler;
+    private final long windowMs;
+    private final Merger<T> merger;
+    private final BatchListener<T> listener;
+
+    private final Map<String, T> pending = new LinkedHashMap<>();
+    private ScheduledFuture<?> scheduledFlush = null;
+    private boolean closed = false;
+
+    DeviceEventBatcher(ScheduledExecutorService scheduler, long windowMs, Merger<T> merger,
+                       BatchListener<T> listener) {
+        this.scheduler = scheduler;
+        this.windowMs = Math.max(MIN_WINDOW_MS, Math.min(MAX_WINDOW_MS, windowMs));
+        this.merger = merger;
+        this.listener = listener;
+    }
+
+    long getWindowMs() {
+        return windowMs;
+    }
+
+    synchronized void add(String deviceId, T event) {
+        if (closed) return;
+
+        T previous = pending.remove(deviceId);
+        pending.put(deviceId, previous != null ? merger.merge(previous, event) : event);
+
+        if (scheduledFlush == null) {
+            scheduledFlush = scheduler.schedule(this::flush, windowMs, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    void flush() {
+        List<T> batch;
+        synchronized (this) {
+            scheduledFlush = null;
+            if (closed || pending.isEmpty()) return;
+            batch = new ArrayList<>(pending.values());
+            pending.clear();
+        }
+        listener.onBatch(batch);
+    }
+
+    /**
+     * Drops pending events, nothing will be delivered after this call.
+     */
+    synchronized void close() {
+        closed = true;
+        pending.clear();
+        if (scheduledFlush != null) {
+            scheduledFlush.cancel(false);
+            scheduledFlush = null;
+        }
+    }
+
+    /*
+        A device that was detected inside the window is still "DeviceDetected" for js
+        even if its state changed afterwards, unless it was lost again.
+     */
+    static boolean isStillDetected(String previousStatus, String latestStatus) {
+        return DEVICE_DETECTED.equals(previousStatus) && !DEVICE_LOST.equals(latestStatus);
+    }
+}
@@ -0,0 +1,111 @@
+package com.jetbeepsdk.plugin;
+
+import com.jetbeep.background.LockStatus;
+import com.jetbeep.connection.locker.LockerDevice;
+import com.jetbeep.model.entities.Device;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.function.Function;
+
+/*
+    Query:
+    {
+        "connectableOnly": boolean,
+        "lockStatus": String, // at least one lock has this status
+        "deviceIdPrefix": String,
+        "hasUserData": boolean,
+        "pageSize": int,
+        "cursor": String // "nextCursor" of the previous page
+    }
+
+    Page:
+    {
+        "devices": [...], // same objects as getNearbyDevices
+        "nextCursor": String // missing on the last page
+    }
+ */
+class DeviceQuery {
+
+    static final int DEFAULT_PAGE_SIZE = 20;
+    static final int MAX_PAGE_SIZE = 500;
+
+    private final boolean connectableOnly;
+    private final String lockStatus;
+    private final String deviceIdPrefix;
+    private final boolean hasUserData;
+    private final int pageSize;
+    private final long cursor;
+
+    DeviceQuery(JSONObject query) {
+        connectableOnly = query.optBoolean("connectableOnly", false);
+        lockStatus = emptyToNull(query.optString("lockStatus", null));
+        deviceIdPrefix = emptyToNull(query.optString("deviceIdPrefix", null));
+        hasUserData = query.optBoolean("hasUserData", false);
+        int size = query.optInt("pageSize", DEFAULT_PAGE_SIZE);
+        pageSize = size > 0 ? Math.min(size, MAX_PAGE_SIZE) : DEFAULT_PAGE_SIZE;
+        String cursorString = emptyToNull(query.optString("cursor", null));
+        cursor = cursorString != null ? Long.parseLong(cursorString) : Long.MIN_VALUE;
+    }
+
+    /**
+     * Devices are ordered by deviceId, only devices of the requested page are serialized.
+     */
+    JSONObject page(List<LockerDevice> visibleDevices, Function<LockerDevice, JSONObject> toJson) {
+        List<LockerDevice> devices = new ArrayList<>(visibleDevices);
+        Collections.sort(devices, Comparator.comparingLong(d -> d.getDevice().getDeviceId()));
+
+        JSONArray page = new JSONArray();
+        String nextCursor = null;
+        long lastId = cursor;
+        for (LockerDevice lockerDevice : devices) {
+            long deviceId = lockerDevice.getDevice().getDeviceId();
+            if (deviceId <= cursor || !matches(lockerDevice.getDevice())) continue;
+            if (page.length() == pageSize) {
+                nextCursor = String.valueOf(lastId);
+                break;
+            }
+            page.put(toJson.apply(lockerDevice));
+            lastId = deviceId;
+        }
+
+        JSONObject result = new JSONObject();
+        try {
+            result.put("devices", page);
+            if (nextCursor != null) {
+                result.put("nextCursor", nextCursor);
+            }
+        } catch (JSONException e) {
+            e.printStackTrace();
+        }
+        return result;
+    }
+
+    private boolean matches(Device device) {
+        if (connectableOnly && !device.isConnectable()) return false;
+        if (hasUserData && device.getUserData() == null) return false;
+        if (deviceIdPrefix != null
+                && !String.valueOf(device.getDeviceId()).startsWith(deviceIdPrefix)) {
+            return false;
+        }
+        if (lockStatus != null) {
+            List<LockStatus> statuses = device.getLockStatus();
+            if (statuses == null) return false;
+            for (LockStatus status : statuses) {
+                if (status.name().equals(lockStatus)) return true;
+            }
+            return false;
+        }
+        return true;
+    }
+
+    private static String emptyToNull(String value) {
+        return value == null || value.isEmpty() ? null : value;
+    }
+}
@@ -0,0 +1,86 @@
+package com.jetbeepsdk.plugin;
+
+import com.jetbeep.background.LockStatus;
+import com.jetbeep.connection.locker.LockerDevice;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Function;
+
+/**
+ * Devices reported by the sdk during a search, keyed by deviceId.
+ * Used to drop notifications which do not change anything and to answer getDevice.
+ */
+class DeviceRegistry {
+
+    static class Entry {
+        final long lastSeen;
+        final String serialized;
+        final List<LockStatus> lockStatuses;
+
+        Entry(long lastSeen, String serialized, List<LockStatus> lockStatuses) {
+            this.lastSeen = lastSeen;
+            this.serialized = serialized;
+            this.lockStatuses = lockStatuses;
+        }
+    }
+
+    private final ConcurrentHashMap<Integer, Entry> devices = new ConcurrentHashMap<>();
+    private final Function<LockerDevice, JSONObject> serializer;
+
+    DeviceRegistry(Function<LockerDevice, JSONObject> serializer) {
+        this.serializer = serializer;
+    }
+
+    /**
+     * returns: true when the device is new or its state differs from the last update
+     */
+    boolean update(LockerDevice lockerDevice) {
+        int deviceId = lockerDevice.getDevice().getDeviceId();
+        List<LockStatus> statuses = lockerDevice.getDevice().getLockStatus();
+        List<LockStatus> lockStatuses = statuses != null
+                ? new ArrayList<>(statuses) : Collections.emptyList();
+        long now = System.currentTimeMillis();
+
+        Entry previous = devices.get(deviceId);
+        String serialized = serializer.apply(lockerDevice).toString();
+        boolean changed = previous == null || !previous.lockStatuses.equals(lockStatuses)
+                || !previous.serialized.equals(serialized);
+
+        devices.put(deviceId, new Entry(now, serialized, lockStatuses));
+        return changed;
+    }
+
+    void remove(LockerDevice lockerDevice) {
+        devices.remove(lockerDevice.getDevice().getDeviceId());
+    }
+
+    void clear() {
+        devices.clear();
+    }
+
+    int size() {
+        return devices.size();
+    }
+
+    /**
+     * returns: last serialized device with "lastSeen" (ms since epoch) or null when unknown
+     */
+    JSONObject get(int deviceId) {
+        Entry entry = devices.get(deviceId);
+        if (entry == null) return null;
+        try {
+            JSONObject result = new JSONObject(entry.serialized);
+            result.put("lastSeen", entry.lastSeen);
+            return result;
+        } catch (JSONException e) {
+            e.printStackTrace();
+            return null;
+        }
+    }
+}
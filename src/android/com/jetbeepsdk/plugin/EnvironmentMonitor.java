@@ -0,0 +1,214 @@
+package com.jetbeepsdk.plugin;
+
+import android.Manifest;
+import android.bluetooth.BluetoothAdapter;
+import android.bluetooth.BluetoothManager;
+import android.content.BroadcastReceiver;
+import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
+import android.content.pm.PackageManager;
+import android.location.LocationManager;
+import android.os.Build;
+
+import androidx.core.app.ActivityCompat;
+import androidx.core.content.ContextCompat;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+/**
+ * Cached bluetooth, gps and permission state. One receiver updates bluetooth and gps from
+ * broadcasts, permissions are read again by refreshPermissions when the app is resumed.
+ * The listener is called only when the state has changed.
+ */
+class EnvironmentMonitor {
+
+    interface Listener {
+        void onStateChanged(State previous, State current);
+    }
+
+    static class State {
+        final boolean bluetooth;
+        final boolean gps;
+        final boolean locationPermission;
+        final boolean blePermission;
+
+        State(boolean bluetooth, boolean gps, boolean locationPermission, boolean blePermission) {
+            this.bluetooth = bluetooth;
+            this.gps = gps;
+            this.locationPermission = locationPermission;
+            this.blePermission = blePermission;
+        }
+
+        boolean sameAs(State other) {
+            return bluetooth == other.bluetooth && gps == other.gps
+                    && locationPermission == other.locationPermission
+                    && blePermission == other.blePermission;
+        }
+
+        /* Environment state
+            {
+                "bluetooth": "enabled" | "disabled",
+                "isGpsEnabled": "enabled" | "disabled",
+                "isBtReady": boolean, // bluetooth permissions
+                "isLocationGranted": boolean,
+                "changed": String[] // names of the changed fields, only in events
+            }
+         */
+        JSONObject toJson(State previous) {
+            JSONObject result = new JSONObject();
+            try {
+                result.put("bluetooth", bluetooth ? "enabled" : "disabled");
+                result.put("isGpsEnabled", gps ? "enabled" : "disabled");
+                result.put("isBtReady", blePermission);
+                result.put("isLocationGranted", locationPermission);
+                if (previous != null) {
+                    JSONArray changed = new JSONArray();
+                    if (previous.bluetooth != bluetooth) changed.put("bluetooth");
+                    if (previous.gps != gps) changed.put("isGpsEnabled");
+                    if (previous.blePermission != blePermission) changed.put("isBtReady");
+                    if (previous.locationPermission != locationPermission) {
+                        changed.put("isLocationGranted");
+                    }
+                    result.put("changed", changed);
+                }
+            } catch (JSONException e) {
+                e.printStackTrace();
+            }
+            return result;
+        }
+    }
+
+    private final Context context;
+    private final Listener listener;
+    private State state = null;
+
+    private final BroadcastReceiver receiver = new BroadcastReceiver() {
+        @Override
+        public void onReceive(Context context, Intent intent) {
+            if (BluetoothAdapter.ACTION_STATE_CHANGED.equals(intent.getAction())) {
+                int bluetoothState = intent.getIntExtra(BluetoothAdapter.EXTRA_STATE,
+                        BluetoothAdapter.ERROR);
+                // turning on and off are not reported
+                if (bluetoothState == BluetoothAdapter.STATE_ON) {
+                    updateBluetooth(true);
+                } else if (bluetoothState == BluetoothAdapter.STATE_OFF) {
+                    updateBluetooth(false);
+                }
+            } else if (LocationManager.PROVIDERS_CHANGED_ACTION.equals(intent.getAction())) {
+                updateGps(isGpsEnabled(context));
+            }
+        }
+    };
+
+    EnvironmentMonitor(Context context, Listener listener) {
+        this.context = context;
+        this.listener = listener;
+    }
+
+    /**
+     * Registers the receiver with the first call, the state is read from system services once.
+     */
+    State getState() {
+        synchronized (this) {
+            if (state != null) return state;
+            state = new State(isBluetoothEnabled(context), isGpsEnabled(context),
+                    isLocationPermissionsGranted(context), isBluetoothPermissionsGranted(context));
+        }
+        IntentFilter filter = new IntentFilter(BluetoothAdapter.ACTION_STATE_CHANGED);
+        filter.addAction(LocationManager.PROVIDERS_CHANGED_ACTION);
+        context.registerReceiver(receiver, filter);
+        synchronized (this) {
+            return state;
+        }
+    }
+
+    void refreshPermissions() {
+        State current = getState();
+        update(new State(current.bluetooth, current.gps, isLocationPermissionsGranted(context),
+                isBluetoothPermissionsGranted(context)));
+    }
+
+    synchronized void stop() {
+        if (state == null) return;
+        state = null;
+        try {
+            context.unregisterReceiver(receiver);
+        } catch (Exception e) {
+            e.printStackTrace();
+        }
+    }
+
+    private void updateBluetooth(boolean enabled) {
+        State current = getState();
+        update(new State(enabled, current.gps, current.locationPermission, current.blePermission));
+    }
+
+    private void updateGps(boolean enabled) {
+        State current = getState();
+        update(new State(current.bluetooth, enabled, current.locationPermission,
+                current.blePermission));
+    }
+
+    private void update(State next) {
+        State previous;
+        synchronized (this) {
+            previous = state;
+            if (previous == null || previous.sameAs(next)) return;
+            state = next;
+        }
+        listener.onStateChanged(previous, next);
+    }
+
+    private static boolean isBluetoothEnabled(Context context) {
+        BluetoothManager bluetoothManager =
+                (BluetoothManager) context.getSystemService(Context.BLUETOOTH_SERVICE);
+        if (bluetoothManager == null) return false;
+        BluetoothAdapter adapter = bluetoothManager.getAdapter();
+        return adapter != null && adapter.isEnabled();
+    }
+
+    private static boolean isGpsEnabled(Context context) {
+        LocationManager locationManager = ContextCompat.getSystemService(context,
+                LocationManager.class);
+        return locationManager != null
+                && locationManager.isProviderEnabled(LocationManager.GPS_PROVIDER);
+    }
+
+    private static boolean isLocationPermissionsGranted(Context context) {
+        int permissionStateCoarse = ActivityCompat.checkSelfPermission(
+                context,
+                Manifest.permission.ACCESS_COARSE_LOCATION
+        );
+        int permissionStateFine = ActivityCompat.checkSelfPermission(
+                context,
+                Manifest.permission.ACCESS_FINE_LOCATION
+        );
+        return permissionStateFine == PackageManager.PERMISSION_GRANTED
+                || permissionStateCoarse == PackageManager.PERMISSION_GRANTED;
+    }
+
+    private static boolean isBluetoothPermissionsGranted(Context context) {
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.S) {
+            int permissionBtScan = ActivityCompat.checkSelfPermission(
+                    context,
+                    Manifest.permission.BLUETOOTH_SCAN
+            );
+            int permissionBtAdvertise = ActivityCompat.checkSelfPermission(
+                    context,
+                    Manifest.permission.BLUETOOTH_ADVERTISE
+            );
+            int permissionBtConnect = ActivityCompat.checkSelfPermission(
+                    context,
+                    Manifest.permission.BLUETOOTH_CONNECT
+            );
+            return permissionBtScan == PackageManager.PERMISSION_GRANTED
+                    && permissionBtAdvertise == PackageManager.PERMISSION_GRANTED
+                    && permissionBtConnect == PackageManager.PERMISSION_GRANTED;
+        } else {
+            return true;
+        }
+    }
+}
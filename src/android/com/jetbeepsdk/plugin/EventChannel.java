@@ -0,0 +1,267 @@
+package com.jetbeepsdk.plugin;
+
+import org.apache.cordova.CallbackContext;
+import org.apache.cordova.PluginResult;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Keep alive js callbacks of one event stream, keyed by subscription id.
+ * Subscribers can be added and removed from any thread, every event is created once
+ * and the same PluginResult is delivered to all of them.
+ *
+ * A subscriber with "credits" in its options is flow controlled: every delivered event takes
+ * one credit and js returns them with ackEvents. Without credits events wait in a bounded
+ * queue of the subscriber and the overflow policy decides which of them are dropped.
+ */
+class EventChannel {
+
+    // used when js does not pass "subscriptionId", a new default subscriber replaces the old one
+    static final String DEFAULT_SUBSCRIPTION = "default";
+
+    static final int DEFAULT_MAX_QUEUED = 64;
+    static final int MAX_QUEUED_LIMIT = 1024;
+
+    /**
+     * Keeps the state js builds from the stream consistent when queued events are replaced
+     * or dropped, e.g. for delta patches which carry only changed fields.
+     */
+    interface OverflowHandler {
+        /**
+         * returns: one event with the changes of both events of the key, null when
+         * the previous event is just replaced
+         */
+        PluginResult merge(String key, PluginResult previous, PluginResult latest);
+
+        void onDropped(PluginResult dropped);
+    }
+
+    enum Overflow {
+        // one queued event per key (deviceId), events without a key are handled as dropOldest
+        latest,
+        dropOldest,
+        // only every sampleEvery-th event is queued, the queue drops the oldest when full
+        sample
+    }
+
+    private static class Subscriber {
+        final CallbackContext callbackContext;
+        final boolean flowControlled;
+        final Overflow overflow;
+        final int maxQueued;
+        final int sampleEvery;
+
+        long credits;
+        long overflowed = 0;
+        long dropped = 0;
+        long queuedSeq = 0;
+        // keyed events use their key, the others a unique key from queuedSeq
+        final LinkedHashMap<String, PluginResult> queue = new LinkedHashMap<>();
+
+        Subscriber(CallbackContext callbackContext, JSONObject options) {
+            this.callbackContext = callbackContext;
+            flowControlled = options != null && options.has("credits");
+            credits = flowControlled ? Math.max(0, options.optLong("credits", 0)) : 0;
+            overflow = parseOverflow(options != null ? options.optString("overflow", "") : "");
+            int max = options != null ? options.optInt("maxQueued", DEFAULT_MAX_QUEUED)
+                    : DEFAULT_MAX_QUEUED;
+            maxQueued = Math.max(1, Math.min(MAX_QUEUED_LIMIT, max));
+            sampleEvery = Math.max(1, options != null ? options.optInt("sampleEvery", 10) : 10);
+        }
+    }
+
+    private final String name;
+    private final PluginMetrics metrics;
+    private final ConcurrentHashMap<String, Subscriber> subscribers = new ConcurrentHashMap<>();
+    private volatile OverflowHandler overflowHandler = null;
+
+    EventChannel(String name, PluginMetrics metrics) {
+        this.name = name;
+        this.metrics = metrics;
+    }
+
+    void setOverflowHandler(OverflowHandler overflowHandler) {
+        this.overflowHandler = overflowHandler;
+    }
+
+    /**
+     * returns: replaced subscriber with the same id or null
+     */
+    CallbackContext subscribe(String id, CallbackContext callbackContext) {
+        return subscribe(id, callbackContext, null);
+    }
+
+    /*
+        options (optional):
+        {
+            "credits": int, // events js can take before the next ackEvents, no flow control
+                            // when omitted
+            "overflow": "latest" | "dropOldest" | "sample", // default "latest"
+            "maxQueued": int, // events kept while there are no credits, default 64
+            "sampleEvery": int // for "sample", default 10
+        }
+     */
+    CallbackContext subscribe(String id, CallbackContext callbackContext, JSONObject options) {
+        Subscriber replaced = subscribers.put(id, new Subscriber(callbackContext, options));
+        return replaced != null ? replaced.callbackContext : null;
+    }
+
+    /**
+     * returns: removed subscriber or null when there was no subscriber with this id
+     */
+    CallbackContext unsubscribe(String id) {
+        Subscriber removed = subscribers.remove(id);
+        if (removed == null) return null;
+        synchronized (removed) {
+            removed.queue.clear();
+        }
+        return removed.callbackContext;
+    }
+
+    boolean isEmpty() {
+        return subscribers.isEmpty();
+    }
+
+    int size() {
+        return subscribers.size();
+    }
+
+    /**
+     * Sends the result to every subscriber, the callback is kept for the next events.
+     */
+    void send(PluginResult result) {
+        send(null, result);
+    }
+
+    /**
+     * key: deviceId or another id of the state the event describes, used by the "latest"
+     * overflow policy, null for events which can't replace each other
+     */
+    void send(String key, PluginResult result) {
+        if (subscribers.isEmpty()) return;
+        result.setKeepCallback(true);
+        String message = result.getMessage();
+        int payloadChars = message != null ? message.length() : 0;
+        for (Subscriber subscriber : subscribers.values()) {
+            offer(subscriber, key, result, payloadChars);
+        }
+    }
+
+    /**
+     * Sends the result only to the subscriber with this id, see send.
+     */
+    void sendTo(String id, String key, PluginResult result) {
+        Subscriber subscriber = subscribers.get(id);
+        if (subscriber == null) return;
+        result.setKeepCallback(true);
+        String message = result.getMessage();
+        offer(subscriber, key, result, message != null ? message.length() : 0);
+    }
+
+    private void offer(Subscriber subscriber, String key, PluginResult result, int payloadChars) {
+        synchronized (subscriber) {
+            if (!subscriber.flowControlled) {
+                deliver(subscriber, result, payloadChars);
+            } else if (subscriber.credits > 0 && subscriber.queue.isEmpty()) {
+                subscriber.credits--;
+                deliver(subscriber, result, payloadChars);
+            } else {
+                enqueue(subscriber, key, result);
+            }
+        }
+    }
+
+    /**
+     * Returns credits of a flow controlled subscriber and delivers queued events with them.
+     *
+     * returns: { "credits": long, "queued": int, "dropped": long } or null when there is
+     * no subscriber with this id. "dropped" counts events lost since the subscription started,
+     * a delta stream has to request a snapshot when it grows.
+     */
+    JSONObject ack(String id, long credits) {
+        Subscriber subscriber = subscribers.get(id);
+        if (subscriber == null) return null;
+        JSONObject result = new JSONObject();
+        synchronized (subscriber) {
+            if (subscriber.flowControlled) {
+                subscriber.credits += Math.max(0, credits);
+                drain(subscriber);
+            }
+            try {
+                result.put("credits", subscriber.credits);
+                result.put("queued", subscriber.queue.size());
+                result.put("dropped", subscriber.dropped);
+            } catch (JSONException e) {
+                e.printStackTrace();
+            }
+        }
+        return result;
+    }
+
+    private void drain(Subscriber subscriber) {
+        Iterator<PluginResult> queued = subscriber.queue.values().iterator();
+        while (subscriber.credits > 0 && queued.hasNext()) {
+            PluginResult result = queued.next();
+            queued.remove();
+            subscriber.credits--;
+            String message = result.getMessage();
+            deliver(subscriber, result, message != null ? message.length() : 0);
+        }
+    }
+
+    private void enqueue(Subscriber subscriber, String key, PluginResult result) {
+        subscriber.overflowed++;
+        if (subscriber.overflow == Overflow.sample
+                && (subscriber.overflowed - 1) % subscriber.sampleEvery != 0) {
+            drop(subscriber, result);
+            return;
+        }
+        if (subscriber.overflow == Overflow.latest && key != null) {
+            // the newer state of the same device goes to the end of the queue
+            PluginResult previous = subscriber.queue.remove(key);
+            OverflowHandler handler = overflowHandler;
+            PluginResult merged = previous != null && handler != null
+                    ? handler.merge(key, previous, result) : null;
+            if (merged != null) {
+                merged.setKeepCallback(true);
+                result = merged;
+            } else if (previous != null) {
+                drop(subscriber, previous);
+            }
+        } else {
+            key = "#" + (++subscriber.queuedSeq);
+        }
+        if (subscriber.queue.size() >= subscriber.maxQueued) {
+            Iterator<PluginResult> oldest = subscriber.queue.values().iterator();
+            PluginResult dropped = oldest.next();
+            oldest.remove();
+            drop(subscriber, dropped);
+        }
+        subscriber.queue.put(key, result);
+    }
+
+    private void drop(Subscriber subscriber, PluginResult dropped) {
+        subscriber.dropped++;
+        metrics.increment(name + "DroppedEvents");
+        OverflowHandler handler = overflowHandler;
+        if (handler != null) {
+            handler.onDropped(dropped);
+        }
+    }
+
+    private void deliver(Subscriber subscriber, PluginResult result, int payloadChars) {
+        metrics.recordResult(name, payloadChars);
+        subscriber.callbackContext.sendPluginResult(result);
+    }
+
+    private static Overflow parseOverflow(String value) {
+        for (Overflow overflow : Overflow.values()) {
+            if (overflow.name().equals(value)) return overflow;
+        }
+        return Overflow.latest;
+    }
+}
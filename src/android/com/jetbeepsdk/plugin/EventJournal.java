@@ -0,0 +1,445 @@
+package com.jetbeepsdk.plugin;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Append-only journal of apply results and shop transitions, so js can catch up with
+ * readJournal after the webview was reloaded or the process was killed.
+ *
+ * One json object per line:
+ * {
+ *     "seq": long, // grows by one for every entry, also across restarts
+ *     "time": long, // ms since epoch, never smaller than the time of the previous entry
+ *     "type": "apply" | "shopEntered" | "shopExit",
+ *     ... // fields of the entry, see JetBeepSDKPlugin
+ * }
+ * Lines are written in batches with one fsync per batch. The file is rewritten with the newest
+ * entries when it grows over maxBytes, and periodically to remove entries older than a day.
+ * A rewritten file starts with { "seq": long, "time": long } of the newest entry, so seq keeps
+ * growing after all entries were removed.
+ */
+class EventJournal {
+
+    static final String FILE_NAME = "jetbeep_journal.jsonl";
+    static final long DEFAULT_MAX_BYTES = 256 * 1024L;
+    static final int DEFAULT_READ_LIMIT = 200;
+
+    private static final long SYNC_DELAY_MS = 500;
+    private static final int SYNC_BATCH = 32;
+    private static final long COMPACT_INTERVAL_MS = 10 * 60 * 1000L;
+    private static final long MAX_AGE_MS = 24 * 60 * 60 * 1000L;
+
+    private static class Entry {
+        final long seq;
+        final long time;
+        final String line;
+        // utf8 bytes of the line with its new line
+        final int size;
+
+        Entry(long seq, long time, String line) {
+            this.seq = seq;
+            this.time = time;
+            this.line = line;
+            this.size = line.getBytes(StandardCharsets.UTF_8).length + 1;
+        }
+    }
+
+    private static class Waiting {
+        final String type;
+        final JSONObject fields;
+        final long time;
+
+        Waiting(String type, JSONObject fields, long time) {
+            this.type = type;
+            this.fields = fields;
+            this.time = time;
+        }
+    }
+
+    private static class Loaded {
+        final ArrayDeque<Entry> entries = new ArrayDeque<>();
+        long bytes = 0;
+        long seq = 0;
+        long lastTime = 0;
+        boolean broken = false;
+        // the file could not be read to its end
+        boolean failed = false;
+    }
+
+    private final File file;
+    private final ScheduledExecutorService scheduler;
+    private final long maxBytes;
+    // file io is serialized by this lock, entries and counters by the journal itself
+    private final Object fileLock = new Object();
+
+    private final ArrayDeque<Entry> entries = new ArrayDeque<>();
+    private List<String> pending = new ArrayList<>();
+    // appended before the file was loaded
+    private final List<Waiting> beforeOpen = new ArrayList<>();
+    private boolean loading = false;
+    private boolean opened = false;
+    private boolean closed = false;
+    private long bytes = 0;
+    private long seq = 0;
+    private long lastTime = 0;
+    private FileChannel channel = null;
+    private ScheduledFuture<?> scheduledSync = null;
+    private ScheduledFuture<?> compactTask = null;
+
+    EventJournal(File dir, ScheduledExecutorService scheduler, long maxBytes) {
+        this.file = new File(dir, FILE_NAME);
+        this.scheduler = scheduler;
+        this.maxBytes = maxBytes;
+    }
+
+    /**
+     * Loads entries of the previous runs, meant to be called on the scheduler. Entries
+     * appended before are written after the loaded ones, read opens the journal when it
+     * was not opened yet.
+     */
+    void open() {
+        synchronized (this) {
+            if (opened || loading) return;
+            loading = true;
+        }
+        // file io without the journal lock, append does not wait for it
+        Loaded loaded = load();
+        synchronized (this) {
+            entries.addAll(loaded.entries);
+            bytes = loaded.bytes;
+            seq = loaded.seq;
+            lastTime = loaded.lastTime;
+            opened = true;
+            for (Waiting waiting : beforeOpen) {
+                add(waiting.type, waiting.fields, waiting.time);
+            }
+            beforeOpen.clear();
+            if (!closed) {
+                compactTask = scheduler.scheduleWithFixedDelay(this::compactExpired,
+                        COMPACT_INTERVAL_MS, COMPACT_INTERVAL_MS, TimeUnit.MILLISECONDS);
+            }
+        }
+        if (loaded.broken && !loaded.failed) {
+            // the last line was cut by a killed process, the next one must not be appended to it
+            compact();
+        }
+    }
+
+    /**
+     * Does no file io on the calling thread, before open the entry waits for it.
+     *
+     * returns: seq of the entry, 0 when the journal is not open yet
+     */
+    long append(String type, JSONObject fields) {
+        long now = System.currentTimeMillis();
+        synchronized (this) {
+            if (opened) return add(type, fields, now);
+            beforeOpen.add(new Waiting(type, fields, now));
+            if (!loading && beforeOpen.size() == 1) {
+                scheduler.execute(this::open);
+            }
+            return 0;
+        }
+    }
+
+    // called with the journal lock
+    private long add(String type, JSONObject fields, long now) {
+        long time = Math.max(lastTime, now);
+        JSONObject json = new JSONObject();
+        try {
+            json.put("seq", seq + 1);
+            json.put("time", time);
+            json.put("type", type);
+            Iterator<String> keys = fields.keys();
+            while (keys.hasNext()) {
+                String key = keys.next();
+                json.put(key, fields.get(key));
+            }
+        } catch (JSONException e) {
+            e.printStackTrace();
+            return seq;
+        }
+        seq++;
+        lastTime = time;
+        String line = json.toString();
+        Entry entry = new Entry(seq, time, line);
+        entries.addLast(entry);
+        pending.add(line);
+        bytes += entry.size;
+
+        if (!closed) {
+            scheduleSync();
+        }
+        return seq;
+    }
+
+    private void scheduleSync() {
+        if (pending.size() >= SYNC_BATCH) {
+            if (scheduledSync != null) {
+                scheduledSync.cancel(false);
+                scheduledSync = null;
+            }
+            scheduler.execute(this::sync);
+        } else if (scheduledSync == null) {
+            scheduledSync = scheduler.schedule(this::sync, SYNC_DELAY_MS, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /*
+        returns:
+        {
+            "entries": [...], // entries with seq > sinceSeq, oldest first
+            "firstSeq": long, // oldest kept entry, older entries were compacted
+            "lastSeq": long,
+            "hasMore": boolean // limit was reached, read again from the last returned seq
+        }
+     */
+    JSONObject read(long sinceSeq, int limit) {
+        open();
+        List<String> lines = new ArrayList<>();
+        boolean hasMore = false;
+        long firstSeq;
+        long lastSeq;
+        synchronized (this) {
+            firstSeq = entries.isEmpty() ? seq + 1 : entries.peekFirst().seq;
+            lastSeq = seq;
+            for (Entry entry : entries) {
+                if (entry.seq <= sinceSeq) continue;
+                if (lines.size() >= limit) {
+                    hasMore = true;
+                    break;
+                }
+                lines.add(entry.line);
+            }
+        }
+        JSONObject result = new JSONObject();
+        try {
+            JSONArray array = new JSONArray();
+            for (String line : lines) {
+                array.put(new JSONObject(line));
+            }
+            result.put("entries", array);
+            result.put("firstSeq", firstSeq);
+            result.put("lastSeq", lastSeq);
+            result.put("hasMore", hasMore);
+        } catch (JSONException e) {
+            e.printStackTrace();
+        }
+        return result;
+    }
+
+    /**
+     * Writes waiting lines and syncs them to the disk.
+     */
+    void sync() {
+        boolean overSize;
+        synchronized (fileLock) {
+            List<String> lines;
+            synchronized (this) {
+                scheduledSync = null;
+                if (pending.isEmpty()) return;
+                lines = pending;
+                pending = new ArrayList<>();
+            }
+            StringBuilder content = new StringBuilder();
+            for (String line : lines) {
+                content.append(line).append('\n');
+            }
+            try {
+                if (channel == null) {
+                    channel = new FileOutputStream(file, true).getChannel();
+                }
+                ByteBuffer buffer =
+                        ByteBuffer.wrap(content.toString().getBytes(StandardCharsets.UTF_8));
+                while (buffer.hasRemaining()) {
+                    channel.write(buffer);
+                }
+                channel.force(false);
+            } catch (IOException e) {
+                e.printStackTrace();
+                closeChannel();
+            }
+            synchronized (this) {
+                overSize = bytes > maxBytes;
+            }
+        }
+        if (overSize) {
+            compact();
+        }
+    }
+
+    void close() {
+        boolean waiting;
+        synchronized (this) {
+            waiting = !opened && !beforeOpen.isEmpty();
+        }
+        if (waiting) {
+            // entries appended before open are written by the sync below
+            open();
+        }
+        synchronized (this) {
+            closed = true;
+            if (scheduledSync != null) {
+                scheduledSync.cancel(false);
+                scheduledSync = null;
+            }
+            if (compactTask != null) {
+                compactTask.cancel(false);
+                compactTask = null;
+            }
+        }
+        sync();
+        synchronized (fileLock) {
+            closeChannel();
+        }
+    }
+
+    synchronized int size() {
+        return entries.size();
+    }
+
+    void compactExpired() {
+        synchronized (this) {
+            Entry oldest = entries.peekFirst();
+            if (oldest == null || oldest.time >= System.currentTimeMillis() - MAX_AGE_MS) return;
+        }
+        compact();
+    }
+
+    /*
+        Keeps entries of the last day which fit into half of maxBytes and rewrites the file
+        with them, a temporary file is renamed so a killed process leaves the old or the new one.
+     */
+    private void compact() {
+        synchronized (fileLock) {
+            StringBuilder content = new StringBuilder();
+            int writtenPending;
+            synchronized (this) {
+                content.append(markLine()).append('\n');
+                long expiredBefore = System.currentTimeMillis() - MAX_AGE_MS;
+                long keptBytes = 0;
+                Iterator<Entry> newest = entries.descendingIterator();
+                while (newest.hasNext()) {
+                    Entry entry = newest.next();
+                    if (entry.time < expiredBefore || keptBytes + entry.size > maxBytes / 2) {
+                        break;
+                    }
+                    keptBytes += entry.size;
+                }
+                while (bytes > keptBytes) {
+                    bytes -= entries.removeFirst().size;
+                }
+                for (Entry entry : entries) {
+                    content.append(entry.line).append('\n');
+                }
+                // waiting lines are written with the kept entries, sync writes them otherwise
+                writtenPending = pending.size();
+            }
+            closeChannel();
+            File tmp = new File(file.getPath() + ".tmp");
+            try (FileOutputStream output = new FileOutputStream(tmp)) {
+                output.write(content.toString().getBytes(StandardCharsets.UTF_8));
+                output.getFD().sync();
+            } catch (IOException e) {
+                e.printStackTrace();
+                tmp.delete();
+                return;
+            }
+            if (!tmp.renameTo(file)) {
+                tmp.delete();
+                return;
+            }
+            synchronized (this) {
+                pending = new ArrayList<>(pending.subList(writtenPending, pending.size()));
+            }
+        }
+    }
+
+    // called with the journal lock
+    private String markLine() {
+        JSONObject mark = new JSONObject();
+        try {
+            mark.put("seq", seq);
+            mark.put("time", lastTime);
+        } catch (JSONException e) {
+            e.printStackTrace();
+        }
+        return mark.toString();
+    }
+
+    /**
+     * returns: entries of the file, broken when it has a broken line
+     */
+    private Loaded load() {
+        Loaded loaded = new Loaded();
+        if (!file.exists()) return loaded;
+        try (BufferedReader reader = new BufferedReader(
+                new InputStreamReader(new FileInputStream(file), StandardCharsets.UTF_8))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                try {
+                    JSONObject json = new JSONObject(line);
+                    if (!json.has("type")) {
+                        // seq mark of a rewritten file
+                        loaded.seq = Math.max(loaded.seq, json.getLong("seq"));
+                        loaded.lastTime = Math.max(loaded.lastTime, json.getLong("time"));
+                        continue;
+                    }
+                    Entry entry = new Entry(json.getLong("seq"), json.getLong("time"), line);
+                    loaded.entries.addLast(entry);
+                    loaded.bytes += entry.size;
+                    loaded.seq = Math.max(loaded.seq, entry.seq);
+                    loaded.lastTime = Math.max(loaded.lastTime, entry.time);
+                } catch (JSONException e) {
+                    loaded.broken = true;
+                }
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+            loaded.failed = true;
+        }
+        loaded.broken |= !endsWithNewLine();
+        return loaded;
+    }
+
+    private boolean endsWithNewLine() {
+        try (RandomAccessFile input = new RandomAccessFile(file, "r")) {
+            if (input.length() == 0) return true;
+            input.seek(input.length() - 1);
+            return input.read() == '\n';
+        } catch (IOException e) {
+            e.printStackTrace();
+            return false;
+        }
+    }
+
+    private void closeChannel() {
+        if (channel == null) return;
+        try {
+            channel.close();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        channel = null;
+    }
+}
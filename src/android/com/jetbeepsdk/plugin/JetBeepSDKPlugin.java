@@ -3,16 +3,10 @@ package com.jetbeepsdk.plugin;
 import android.Manifest;
 import android.app.Application;
 import android.bluetooth.BluetoothAdapter;
-import android.bluetooth.BluetoothManager;
-import android.content.BroadcastReceiver;
-import android.content.Context;
 import android.content.Intent;
-import android.content.IntentFilter;
 import android.content.pm.PackageManager;
-import android.location.LocationManager;
 import android.os.Build;
-import android.os.Handler;
-import android.os.Looper;
+import android.util.Base64;
 import android.util.Log;
 
 import com.jetbeep.JetBeepRegistrationType;
@@ -41,37 +35,164 @@ import org.json.JSONException;
 import org.json.JSONObject;
 
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
 
 import androidx.annotation.NonNull;
 import androidx.core.app.ActivityCompat;
-import androidx.core.content.ContextCompat;
-import kotlin.coroutines.Continuation;
-import kotlin.coroutines.CoroutineContext;
-import kotlinx.coroutines.GlobalScope;
 
 public class JetBeepSDKPlugin extends CordovaPlugin {
 
     private static final String TAG = "JetBeepSDKPlugin";
     private static final int REQUEST_ENABLE_BT = 748;
+    private static final int APPLY_THREADS = 2;
+    private static final long JOURNAL_CLOSE_TIMEOUT_MS = 2 * 1000L;
     private Lockers lockers = null;
-    private CallbackContext devicesCallback = null;
-    private CallbackContext jsLocationsCallback = null;
-    private CallbackContext bluetoothStateCallback = null;
-    private CallbackContext loggerCallBack = null;
-
-    private CallbackContext gpsCallback = null;
 
     private CallbackContext requestPermissionCallback = null;
 
-    private IntentFilter filter = new IntentFilter(BluetoothAdapter.ACTION_STATE_CHANGED);
-    private IntentFilter gpsFilter = new IntentFilter(LocationManager.PROVIDERS_CHANGED_ACTION);
 
     private JBLog.Logger L = null;
 
-    private Handler handler = new Handler(Looper.myLooper());
+    /*
+        Serial worker for sdk queries, json serialization and event delivery.
+        Ui thread is used only for calls which need the activity or sdk init.
+     */
+    private final ScheduledExecutorService worker =
+            Executors.newSingleThreadScheduledExecutor(r -> new Thread(r, TAG + "-worker"));
+    private final ExecutorService applyExecutor =
+            Executors.newFixedThreadPool(APPLY_THREADS, r -> new Thread(r, TAG + "-apply"));
+    private final ScannerLeaseManager scannerLeases =
+            new ScannerLeaseManager(new ScannerLeaseManager.Scanner() {
+                @Override
+                public void start() {
+                    runInUiThread(() -> {
+                        BleScanner scanner = JetBeepSDK.INSTANCE.getBleScanner();
+                        if (!scanner.isForegroundScannerStarted()) {
+                            scanner.startForegroundScanner();
+                        }
+                    });
+                }
+
+                @Override
+                public void stop() {
+                    runInUiThread(() -> JetBeepSDK.INSTANCE.getBleScanner().stopForegroundScanner());
+                }
+            }, worker);
+    private final PluginMetrics metrics = new PluginMetrics();
+    private final ThreadLocal<ActionDispatch> actionDispatch = new ThreadLocal<>();
+    private volatile long searchStartedAtNanos = 0;
+    private CallbackContext metricsCallback = null;
+    private ScheduledFuture<?> metricsTask = null;
+
+    private WarmStateStore warmState = null;
+    private EventJournal journal = null;
+    private OfflineConfigStore offlineConfigs = null;
+    // last parsed offline config, reused when the webview is reloaded, accessed only on the worker
+    private String offlineConfigVersion = null;
+    private OfflineConfig offlineConfig = null;
+    private volatile boolean repositorySyncing = false;
+
+    private final LogBuffer logBuffer = new LogBuffer(LogBuffer.DEFAULT_CAPACITY, worker);
+    // set on the ui thread by the sdk init
+    private boolean sdkLogsRecorded = false;
+    private final TokenCache tokenCache = new TokenCache(TokenCache.DEFAULT_MAX_ENTRIES);
+    private final DeviceCircuitBreaker applyBreaker = new DeviceCircuitBreaker();
+    private final TokenApplyQueue applyQueue =
+            new TokenApplyQueue(applyExecutor, APPLY_THREADS, worker, applyBreaker);
+    private final ConcurrentHashMap<String, ApplyBatch> applyBatches = new ConcurrentHashMap<>();
+    private final AtomicLong applyBatchIds = new AtomicLong();
+    private volatile DeviceEventBatcher<JSONObject> deviceEventBatcher = null;
+    private volatile DeviceEventBatcher<CompactDeviceCodec.Event> compactEventBatcher = null;
+    private volatile boolean compactDeviceEvents = false;
+    private volatile DeviceDeltaEncoder deviceDeltaEncoder = null;
+    // encoding of the running devices stream, see deviceStreamFormat
+    private String deviceStreamFormat = "json";
+    private final DeviceRegistry deviceRegistry =
+            new DeviceRegistry(device -> lockerDeviceToJson(device, DeviceStatus.None));
+    private volatile LocationDebouncer locationDebouncer = null;
+    private ScheduledFuture<?> locationSnapshotTask = null;
+    private volatile boolean locationSnapshotChanged = false;
+    private volatile boolean locationSnapshots = false;
+    private final MerchantIndex merchantIndex = new MerchantIndex();
+    private final SearchSessions searchSessions = new SearchSessions();
+    /*
+        A boosted device holds a HIGH scanner lease, which keeps the scanner at HIGH while
+        a search runs with "BALANCED" or "LOW" scanIntensity. A search with the default HIGH
+        intensity is not changed by it. The sdk connects only inside Lockers.apply, nothing
+        is connected ahead of the apply.
+     */
+    private final ScannerBoost scannerBoost =
+            new ScannerBoost(new ScannerBoost.Booster() {
+                @Override
+                public void start(int deviceId) {
+                    metrics.increment("scannerBoosts");
+                    scannerLeases.acquire(LEASE_BOOST_PREFIX + deviceId,
+                            ScannerLeaseManager.Intensity.HIGH, 0);
+                }
+
+                @Override
+                public void stop(int deviceId) {
+                    scannerLeases.release(LEASE_BOOST_PREFIX + deviceId);
+                }
+            }, worker);
+    /*
+        True from onPause until the worker runs the catch-up of onResume. Device and location
+        events wait in the background buffers, logs in logBuffer and metrics are not sent.
+     */
+    private volatile boolean backgrounded = false;
+    private final BackgroundChanges<Integer, CompactDeviceCodec.Event> backgroundDevices =
+            new BackgroundChanges<>();
+    private final BackgroundChanges<String, String> backgroundLocations = new BackgroundChanges<>();
+    // environment changes are delivered on the ui thread, these fields are used only there
+    private boolean environmentPaused = false;
+    private EnvironmentMonitor.State environmentBeforePause = null;
+
+    private static final String LEASE_SEARCH = "searchDevices";
+    private static final String LEASE_LOCATIONS = "locations";
+    private static final String LEASE_JS_PREFIX = "js:";
+    private static final String LEASE_BOOST_PREFIX = "boost:";
+
+    private static final String CHANNEL_DEVICES = "devices";
+    private static final String CHANNEL_LOCATIONS = "locations";
+    private static final String CHANNEL_LOGS = "logs";
+    private static final String CHANNEL_BLUETOOTH = "bluetooth";
+    private static final String CHANNEL_GPS = "gps";
+    private static final String CHANNEL_ENVIRONMENT = "environment";
+    private static final String CHANNEL_METRICS = "metrics";
+    private static final String CHANNEL_BREAKERS = "breakers";
+
+    private final EventChannel devicesChannel = new EventChannel(CHANNEL_DEVICES, metrics);
+    private final EventChannel locationsChannel = new EventChannel(CHANNEL_LOCATIONS, metrics);
+    private final EventChannel logsChannel = new EventChannel(CHANNEL_LOGS, metrics);
+    private final EventChannel bluetoothChannel = new EventChannel(CHANNEL_BLUETOOTH, metrics);
+    private final EventChannel gpsChannel = new EventChannel(CHANNEL_GPS, metrics);
+    private final EventChannel environmentChannel = new EventChannel(CHANNEL_ENVIRONMENT, metrics);
+    private final EventChannel breakersChannel = new EventChannel(CHANNEL_BREAKERS, metrics);
+    private EnvironmentMonitor environment = null;
+
+    // action executed on the bridge thread right now, see runInWorker and runInUiThread
+    private static class ActionDispatch {
+        final String action;
+        boolean dispatched = false;
+
+        ActionDispatch(String action) {
+            this.action = action;
+        }
+    }
 
-    private enum DeviceStatus {
+    enum DeviceStatus {
         DeviceDetected,
         DeviceStateChanged,
         DeviceLost,
@@ -84,30 +205,141 @@ public class JetBeepSDKPlugin extends CordovaPlugin {
         onShopExit,
         onMerchantEntered,
         onMerchantExit,
+        onShopsSnapshot,
+    }
+
+    @Override
+    protected void pluginInitialize() {
+        super.pluginInitialize();
+        warmState = new WarmStateStore(cordova.getContext().getFilesDir(), worker);
+        offlineConfigs = new OfflineConfigStore(cordova.getContext().getFilesDir());
+        journal = new EventJournal(cordova.getContext().getFilesDir(), worker,
+                EventJournal.DEFAULT_MAX_BYTES);
+        environment = new EnvironmentMonitor(cordova.getContext(), this::onEnvironmentChanged);
+        runInWorker(warmState::load);
+        runInWorker(journal::open);
+        devicesChannel.setOverflowHandler(deltaOverflowHandler);
+        applyBreaker.setListener(state -> breakersChannel.send(
+                String.valueOf(state.optInt("deviceId")),
+                new PluginResult(PluginResult.Status.OK, state)));
     }
 
     @Override
     public boolean execute(String action, JSONArray args, CallbackContext callbackContext) throws JSONException {
         log("execute action -> " + action);
+        long startedAt = System.nanoTime();
+        ActionDispatch dispatch = new ActionDispatch(action);
+        actionDispatch.set(dispatch);
+        try {
+            return executeAction(action, args, callbackContext);
+        } finally {
+            actionDispatch.remove();
+            if (!dispatch.dispatched) {
+                metrics.recordAction(action, 0, System.nanoTime() - startedAt);
+            }
+        }
+    }
+
+    private boolean executeAction(String action, JSONArray args, CallbackContext callbackContext)
+            throws JSONException {
         switch (action) {
             case "initSDK": {
-                initSDK(args.getString(0), callbackContext);
+                initSDK(args.getString(0), args.optJSONObject(1), callbackContext);
                 return true;
             }
             case "initWithOfflineConfig": {
-                initWithOfflineConfig(args.getString(0), callbackContext);
+                initWithOfflineConfig(args.getString(0), args.optJSONObject(1), callbackContext);
+                return true;
+            }
+            case "getOfflineConfigVersion": {
+                getOfflineConfigVersion(callbackContext);
                 return true;
             }
             case "searchDevices": {
-                searchDevices(args.getString(0), callbackContext);
+                searchDevices(args.getString(0), args.optJSONObject(1), callbackContext);
+                return true;
+            }
+            case "requestDeviceSnapshot": {
+                requestDeviceSnapshot(callbackContext);
                 return true;
             }
             case "stopSearching": {
-                stopSearching(args.getString(0), callbackContext);
+                stopSearching(args.getString(0), args.optJSONObject(1), callbackContext);
                 return true;
             }
             case "applyToken": {
-                applyToken(args.getString(0), callbackContext);
+                applyToken(args.getString(0), args.optJSONObject(1), callbackContext);
+                return true;
+            }
+            case "applyTokens": {
+                applyTokens(args.optJSONArray(0), args.optJSONObject(1), callbackContext);
+                return true;
+            }
+            case "cancelApply": {
+                cancelApply(args.getString(0), callbackContext);
+                return true;
+            }
+            case "readJournal": {
+                readJournal(args.optLong(0, 0), args.optJSONObject(1), callbackContext);
+                return true;
+            }
+            case "configureScannerBoost": {
+                configureScannerBoost(args.optJSONObject(0), callbackContext);
+                return true;
+            }
+            case "getDeviceBreakers": {
+                callbackContext.success(applyBreaker.toJson());
+                return true;
+            }
+            case "subscribeBreakerEvents": {
+                breakersChannel.subscribe(subscriptionId(args.optJSONObject(1)), callbackContext,
+                        args.optJSONObject(1));
+                return true;
+            }
+            case "unsubscribeBreakerEvents": {
+                breakersChannel.unsubscribe(subscriptionId(args.optJSONObject(1)));
+                callbackContext.success();
+                return true;
+            }
+            case "configureApplyQueue": {
+                configureApplyQueue(args.optJSONObject(0), callbackContext);
+                return true;
+            }
+            case "invalidateTokenCache": {
+                invalidateTokenCache(args.optString(0), callbackContext);
+                return true;
+            }
+            case "getTokenCacheStats": {
+                callbackContext.success(tokenCache.statsToJson());
+                return true;
+            }
+            case "acquireScannerLease": {
+                acquireScannerLease(args.optJSONObject(0), callbackContext);
+                return true;
+            }
+            case "releaseScannerLease": {
+                scannerLeases.release(LEASE_JS_PREFIX + args.getString(0));
+                callbackContext.success();
+                return true;
+            }
+            case "getScannerState": {
+                callbackContext.success(scannerLeases.stateToJson());
+                return true;
+            }
+            case "ackEvents": {
+                ackEvents(args.getString(0), args.optJSONObject(1), callbackContext);
+                return true;
+            }
+            case "getMetrics": {
+                callbackContext.success(metrics.toJson());
+                return true;
+            }
+            case "subscribeMetrics": {
+                subscribeMetrics(args.optLong(0, 0), callbackContext);
+                return true;
+            }
+            case "unsubscribeMetrics": {
+                unsubscribeMetrics(callbackContext);
                 return true;
             }
             case "isPermissionGranted": {
@@ -123,11 +355,11 @@ public class JetBeepSDKPlugin extends CordovaPlugin {
                 return true;
             }
             case "subscribeToLocations": {
-                subscribeToLocations(callbackContext);
+                subscribeToLocations(args.optJSONObject(1), callbackContext);
                 return true;
             }
             case "unsubscribeFromLocations": {
-                unsubscribeFromLocations(callbackContext);
+                unsubscribeFromLocations(args.optJSONObject(1), callbackContext);
                 return true;
             }
             case "getEnteredShops": {
@@ -135,7 +367,15 @@ public class JetBeepSDKPlugin extends CordovaPlugin {
                 return true;
             }
             case "getNearbyDevices": {
-                getNearbyDevices(callbackContext);
+                getNearbyDevices(args.optJSONObject(0), callbackContext);
+                return true;
+            }
+            case "getDevice": {
+                getDevice(args.getString(0), callbackContext);
+                return true;
+            }
+            case "queryNearbyDevices": {
+                queryNearbyDevices(args.optJSONObject(0), callbackContext);
                 return true;
             }
             case "bluetoothState": {
@@ -143,11 +383,11 @@ public class JetBeepSDKPlugin extends CordovaPlugin {
                 return true;
             }
             case "subscribeBluetoothEvents": {
-                subscribeBluetoothEvents(callbackContext);
+                subscribeBluetoothEvents(args.optJSONObject(1), callbackContext);
                 return true;
             }
             case "unsubscribeBluetoothEvents": {
-                unsubscribeBluetoothEvents(callbackContext);
+                unsubscribeBluetoothEvents(args.optJSONObject(1), callbackContext);
                 return true;
             }
             case "enableBluetooth": {
@@ -155,11 +395,32 @@ public class JetBeepSDKPlugin extends CordovaPlugin {
                 return true;
             }
             case "subscribeLogEvents": {
-                subscribeLogEvents(callbackContext);
+                subscribeLogEvents(args.optJSONObject(1), callbackContext);
+                return true;
+            }
+            case "getRecentLogs": {
+                callbackContext.success(logBuffer.recent(args.optInt(0, LogBuffer.DEFAULT_CAPACITY)));
+                return true;
+            }
+            case "setRemoteLogging": {
+                setRemoteLogging(args.optBoolean(0, false), callbackContext);
                 return true;
             }
             case "unsubscribeLogEvents": {
-                unsubscribeLogEvents(callbackContext);
+                unsubscribeLogEvents(args.optJSONObject(1), callbackContext);
+                return true;
+            }
+            case "getEnvironmentState": {
+                callbackContext.success(environment.getState().toJson(null));
+                return true;
+            }
+            case "subscribeEnvironmentEvents": {
+                subscribeEnvironmentEvents(args.optJSONObject(1), callbackContext);
+                return true;
+            }
+            case "unsubscribeEnvironmentEvents": {
+                environmentChannel.unsubscribe(subscriptionId(args.optJSONObject(1)));
+                callbackContext.success();
                 return true;
             }
             case "gpsState": {
@@ -167,11 +428,11 @@ public class JetBeepSDKPlugin extends CordovaPlugin {
                 return true;
             }
             case "subscribeGpsEvents": {
-                subscribeGpsEvents(callbackContext);
+                subscribeGpsEvents(args.optJSONObject(1), callbackContext);
                 return true;
             }
             case "unsubscribeGpsEvents": {
-                unsubscribeGpsEvents(callbackContext);
+                unsubscribeGpsEvents(args.optJSONObject(1), callbackContext);
                 return true;
             }
         }
@@ -183,29 +444,49 @@ public class JetBeepSDKPlugin extends CordovaPlugin {
         @Override
         public void onLockerDeviceLockStateChanged(LockerDevice lockerDevice) {
             log("onLockerDeviceLockStateChanged = " + lockerDevice);
-            sendLockerDeviceEvent(lockerDevice, DeviceStatus.DeviceLockStateChanged);
+            runInWorker(() -> sendChangedDeviceEvent(lockerDevice,
+                    DeviceStatus.DeviceLockStateChanged));
         }
 
         @Override
         public void onLockerDeviceStatusChanged(List<LockerDevice> list) {
             log("onLockerDeviceStatusChanged = " + list);
-            if (devicesCallback != null) {
-                for (LockerDevice d : list) {
-                    sendLockerDeviceEvent(d, DeviceStatus.DeviceStateChanged);
-                }
+            if (!devicesChannel.isEmpty()) {
+                runInWorker(() -> {
+                    for (LockerDevice d : list) {
+                        offerScannerBoost(d);
+                        sendChangedDeviceEvent(d, DeviceStatus.DeviceStateChanged);
+                    }
+                });
             }
         }
 
         @Override
         public void onLockerDeviceLost(LockerDevice lockerDevice) {
             log("onLockerDeviceLost = " + lockerDevice);
-            sendLockerDeviceEvent(lockerDevice, DeviceStatus.DeviceLost);
+            runInWorker(() -> {
+                deviceRegistry.remove(lockerDevice);
+                scannerBoost.remove(lockerDevice.getDevice().getDeviceId());
+                sendLockerDeviceEvent(lockerDevice, DeviceStatus.DeviceLost);
+            });
         }
 
         @Override
         public void onLockerDeviceDetected(LockerDevice lockerDevice) {
             log("onLockerDeviceDetected = " + lockerDevice);
-            sendLockerDeviceEvent(lockerDevice, DeviceStatus.DeviceDetected);
+            runInWorker(() -> {
+                deviceRegistry.update(lockerDevice);
+                offerScannerBoost(lockerDevice);
+                sendLockerDeviceEvent(lockerDevice, DeviceStatus.DeviceDetected);
+            });
+        }
+
+        private void sendChangedDeviceEvent(LockerDevice lockerDevice, DeviceStatus status) {
+            if (deviceRegistry.update(lockerDevice)) {
+                sendLockerDeviceEvent(lockerDevice, status);
+            } else {
+                metrics.increment("suppressedDeviceEvents");
+            }
         }
 
     };
@@ -215,154 +496,242 @@ public class JetBeepSDKPlugin extends CordovaPlugin {
         @Override
         public void onShopExit(@NonNull Shop shop) {
             log("onShopExit: " + shop);
-            if (jsLocationsCallback != null) {
-                PluginResult pluginResult = new PluginResult(PluginResult.Status.OK,
-                        onEvent(LocationsEvents.onShopExit, shop));
-                pluginResult.setKeepCallback(true);
-                jsLocationsCallback.sendPluginResult(pluginResult);
-            }
+            runInWorker(() -> {
+                LocationDebouncer debouncer = locationDebouncer;
+                if (debouncer != null) {
+                    debouncer.exit(shop);
+                } else {
+                    reportShopExit(shop);
+                }
+            });
         }
 
         @Override
         public void onShopEntered(@NonNull Shop shop) {
             log("onShopEntered " + shop);
-            if (jsLocationsCallback != null) {
-                PluginResult pluginResult = new PluginResult(PluginResult.Status.OK,
-                        onEvent(LocationsEvents.onShopEntered, shop));
-                pluginResult.setKeepCallback(true);
-                jsLocationsCallback.sendPluginResult(pluginResult);
-            }
+            runInWorker(() -> {
+                LocationDebouncer debouncer = locationDebouncer;
+                if (debouncer != null) {
+                    debouncer.enter(shop);
+                } else {
+                    reportShopEntered(shop);
+                }
+            });
         }
 
+        /*
+            Merchant enter and exit are sent from shop transitions, see MerchantIndex.
+            Sdk merchant callbacks only provide merchant details.
+         */
         @Override
         public void onMerchantExit(@NonNull Merchant merchant) {
-            /*if (jsLocationsCallback != null) {
-                jsLocationsCallback.sendPluginResult(new PluginResult(PluginResult.Status.OK,
-                        onEvent(LocationsEvents.onMerchantExit, merchant)));
-            }*/
+            runInWorker(() -> merchantIndex.putMerchant(merchant));
         }
 
         @Override
         public void onMerchantEntered(@NonNull Merchant merchant, @NonNull Shop shop) {
-            /*if (jsLocationsCallback != null) {
-                jsLocationsCallback.sendPluginResult(new PluginResult(PluginResult.Status.OK,
-                        onEvent(LocationsEvents.onMerchantEntered, merchant)));
-            }*/
-        }
-
-        /* Example of Shop object:
-            {
-                "event" : String // onShopEntered, onShopExit, onMerchantEntered, onMerchantExit,
-                "shop" : {
-                    "shopId" : int,
-                    "shopName" : String
+            log("onMerchantEntered " + merchant);
+            runInWorker(() -> {
+                if (merchantIndex.putMerchant(merchant) && !locationSnapshots) {
+                    sendLocationEvent(LocationsEvents.onMerchantEntered,
+                            merchantIndex.toJson(merchant.getId()));
                 }
-            }
-        */
-        private String onEvent(LocationsEvents events, Object obj) {
-            JSONObject result = new JSONObject();
-            try {
-                result.put("event", events.toString());
-                if (obj instanceof Shop) {
-                    result.put("shop", shopToJson((Shop) obj));
-                } else if (obj instanceof Merchant) {
-                    result.put("merchant", merchantToJson((Merchant) obj));
-                }
-            } catch (JSONException e) {
-                e.printStackTrace();
-            }
-            return result.toString();
+            });
+        }
+    };
+
+    private void offerScannerBoost(LockerDevice lockerDevice) {
+        int deviceId = lockerDevice.getDevice().getDeviceId();
+        if (!lockerDevice.getDevice().isConnectable()) {
+            scannerBoost.remove(deviceId);
+        } else if (searchSessions.hasToken(deviceId)) {
+            scannerBoost.offer(deviceId);
+        }
+    }
+
+    private void reportShopEntered(Shop shop) {
+        journalShop(shop, true);
+        sendLocationEvent(LocationsEvents.onShopEntered, shop);
+        Integer merchantId = merchantIndex.shopEntered(shop);
+        if (merchantId != null) {
+            sendLocationEvent(LocationsEvents.onMerchantEntered, merchantIndex.toJson(merchantId));
+        }
+    }
+
+    private void reportShopExit(Shop shop) {
+        journalShop(shop, false);
+        sendLocationEvent(LocationsEvents.onShopExit, shop);
+        Integer merchantId = merchantIndex.shopExit(shop);
+        if (merchantId != null) {
+            sendLocationEvent(LocationsEvents.onMerchantExit, merchantIndex.toJson(merchantId));
+        }
+    }
+
+    /*
+        Journal entry: { "type": "shopEntered" | "shopExit", "shopId": int, "shopName": String,
+        "merchantId": int }
+     */
+    private void journalShop(Shop shop, boolean entered) {
+        journal.append(entered ? "shopEntered" : "shopExit", shopToJson(shop));
+    }
+
+    private void sendLocationEvent(LocationsEvents event, Object obj) {
+        if (locationsChannel.isEmpty()) return;
+        if (backgrounded) {
+            String key = obj instanceof Shop ? "shop:" + ((Shop) obj).getId()
+                    : "merchant:" + ((JSONObject) obj).optInt("merchantId");
+            boolean entered = event == LocationsEvents.onShopEntered
+                    || event == LocationsEvents.onMerchantEntered;
+            backgroundLocations.put(key, onEvent(event, obj), entered, entered);
+            metrics.increment("backgroundEvents");
+            return;
         }
+        locationsChannel.send(new PluginResult(PluginResult.Status.OK, onEvent(event, obj)));
+    }
 
-        /* Merchant object
-            {
-                "merchantId" : int,
-                "merchantName" : String,
-                "merchantImage" : String
+    /* Example of Shop object:
+        {
+            "event" : String // onShopEntered, onShopExit, onMerchantEntered, onMerchantExit,
+            "shop" : {
+                "shopId" : int,
+                "shopName" : String,
+                "merchantId" : int
             }
-        */
-        private JSONObject merchantToJson(Merchant merchant) {
-            JSONObject result = new JSONObject();
-            try {
-                result.put("merchantId", merchant.getId());
-                result.put("merchantName", merchant.getName());
-                result.put("merchantImage", merchant.getImage());
-            } catch (JSONException e) {
-                e.printStackTrace();
+        }
+        Merchant events have "merchant" instead of "shop", see MerchantIndex.toJson
+    */
+    private String onEvent(LocationsEvents events, Object obj) {
+        JSONObject result = new JSONObject();
+        try {
+            result.put("event", events.toString());
+            if (obj instanceof Shop) {
+                result.put("shop", shopToJson((Shop) obj));
+            } else if (obj instanceof JSONObject) {
+                result.put("merchant", obj);
             }
-            return result;
+        } catch (JSONException e) {
+            e.printStackTrace();
         }
-    };
+        return result.toString();
+    }
 
     private LogCallback jetbeepLoggerListener = new LogCallback() {
         @Override
         public void onLogLine(@NonNull LogLine logLine) {
-            String message = logLine.getTag() + ": " + logLine.getMessage();
-            PluginResult result = new PluginResult(PluginResult.Status.OK, message);
-            result.setKeepCallback(true);
-            loggerCallBack.sendPluginResult(result);
+            logBuffer.add(System.currentTimeMillis(), String.valueOf(logLine.getLevel()),
+                    logLine.getTag(), logLine.getMessage());
         }
     };
 
     private void bluetoothState(CallbackContext callbackContext) {
-        runInUiThread(() -> {
-            boolean result = false;
-            BluetoothManager bluetoothManager =
-                    (BluetoothManager) cordova.getContext().getSystemService(Context.BLUETOOTH_SERVICE);
-            if (bluetoothManager != null) {
-                BluetoothAdapter adapter = bluetoothManager.getAdapter();
-                result = adapter != null && adapter.isEnabled();
-            }
-            log("Bluetooth state: " + result);
-            sendBluetoothState(callbackContext, false, result);
-        });
+        sendBluetoothState(callbackContext, environment.getState().bluetooth);
     }
 
-    private void subscribeBluetoothEvents(CallbackContext callbackContext) {
-        runInUiThread(() -> {
-            bluetoothStateCallback = callbackContext;
-            cordova.getActivity().registerReceiver(bluetoothStateChangeReceiver, filter);
-        });
+    /*
+        options (optional), the same for all subscribe and unsubscribe actions of event streams:
+        {
+            "subscriptionId": String // several subscribers with different ids share one stream,
+                                     // without id a new subscriber replaces the previous one
+        }
+        The sdk listener is registered for the first subscriber and removed with the last one.
+        Bluetooth and gps streams are fed by EnvironmentMonitor, which runs from the first
+        query or subscription until the plugin is destroyed.
+     */
+    private void subscribeBluetoothEvents(JSONObject options, CallbackContext callbackContext) {
+        environment.getState();
+        bluetoothChannel.subscribe(subscriptionId(options), callbackContext);
     }
 
-    private void unsubscribeBluetoothEvents(CallbackContext callbackContext) {
-        runInUiThread(() -> {
-            bluetoothStateCallback = null;
-            try {
-                cordova.getActivity().unregisterReceiver(bluetoothStateChangeReceiver);
-                callbackContext.success();
-            } catch (Exception e) {
-                e.printStackTrace();
-                callbackContext.error(e.getMessage());
+    private void unsubscribeBluetoothEvents(JSONObject options, CallbackContext callbackContext) {
+        bluetoothChannel.unsubscribe(subscriptionId(options));
+        callbackContext.success();
+    }
+
+    /*
+        Sends EnvironmentMonitor.State with "changed" every time bluetooth, gps or
+        permissions change, the current state can be read with getEnvironmentState.
+     */
+    private void subscribeEnvironmentEvents(JSONObject options, CallbackContext callbackContext) {
+        environment.getState();
+        environmentChannel.subscribe(subscriptionId(options), callbackContext, options);
+    }
+
+    private void onEnvironmentChanged(EnvironmentMonitor.State previous,
+                                      EnvironmentMonitor.State current) {
+        if (environmentPaused) {
+            if (environmentBeforePause == null) {
+                environmentBeforePause = previous;
             }
-        });
+            return;
+        }
+        log("environment changed, bluetooth = " + current.bluetooth + ", gps = " + current.gps
+                + ", bt permissions = " + current.blePermission
+                + ", location permissions = " + current.locationPermission);
+        environmentChannel.send(new PluginResult(PluginResult.Status.OK, current.toJson(previous)));
+        if (previous.bluetooth != current.bluetooth) {
+            bluetoothChannel.send(new PluginResult(PluginResult.Status.OK,
+                    btStateToJson(current.bluetooth)));
+        }
+        if (previous.gps != current.gps) {
+            gpsChannel.send(new PluginResult(PluginResult.Status.OK,
+                    gpsStateToJson(current.gps)));
+        }
     }
 
-    private void subscribeToLocations(CallbackContext callbackContext) {
+    /*
+        options (optional), the first subscriber defines them for the shared stream:
+        {
+            "dwellMs": int, // shop enter is sent when the shop was not left for this time
+            "graceMs": int, // shop exit is sent when the shop was not entered again for this time
+            "snapshotIntervalMs": int, // > 0 sends current shops instead of transitions, at most
+                                       // once per interval and only when they have changed:
+                                       // { "event": "onShopsSnapshot", "shops": [Shop] }
+            "subscriptionId": String // see subscribeBluetoothEvents
+        }
+        Enter and exit of the same shop inside dwellMs or graceMs cancel each other.
+     */
+    private void subscribeToLocations(JSONObject options, CallbackContext callbackContext) {
         if (!isSdkInitialized(callbackContext)) return;
 
         log("subscribeToLocations");
 
-        JetBeepSDK.INSTANCE.getLocations().subscribe(locationCallbacks);
+        boolean first = locationsChannel.isEmpty();
+        locationsChannel.subscribe(subscriptionId(options), callbackContext);
+        if (!first) {
+            runInWorker(merchantIndex::resetSentImages);
+            return;
+        }
 
-        jsLocationsCallback = callbackContext;
+        startLocationDebouncer(options);
+        runInWorker(this::seedEnteredShops);
+        JetBeepSDK.INSTANCE.getLocations().subscribe(locationCallbacks);
 
-        startForegroundScanner();
+        scannerLeases.acquire(LEASE_LOCATIONS, ScannerLeaseManager.Intensity.HIGH,
+                ScannerLeaseManager.DEFAULT_LINGER_MS);
 
         /*PluginResult result = new PluginResult(PluginResult.Status.OK);
         result.setKeepCallback(true);
         callbackContext.sendPluginResult(result);*/
     }
 
-    private void unsubscribeFromLocations(CallbackContext callbackContext) {
+    private void unsubscribeFromLocations(JSONObject options, CallbackContext callbackContext) {
         if (!isSdkInitialized(callbackContext)) return;
 
         log("unsubscribeFromLocations");
-        JetBeepSDK.INSTANCE.getLocations().unsubscribe(locationCallbacks);
+        if (locationsChannel.unsubscribe(subscriptionId(options)) == null
+                || !locationsChannel.isEmpty()) {
+            callbackContext.success();
+            return;
+        }
 
-        jsLocationsCallback = null;
+        JetBeepSDK.INSTANCE.getLocations().unsubscribe(locationCallbacks);
+        stopLocationDebouncer();
+        runInWorker(() -> {
+            merchantIndex.clear();
+            backgroundLocations.clear();
+        });
 
-        stopForegroundScanner();
+        scannerLeases.release(LEASE_LOCATIONS);
 
         /*PluginResult result = new PluginResult(PluginResult.Status.OK);
         result.setKeepCallback(false);
@@ -370,23 +739,122 @@ public class JetBeepSDKPlugin extends CordovaPlugin {
         callbackContext.success();
     }
 
+    /*
+        Shops entered before the subscription produce no events, but their exit has to
+        be filtered and has to leave their merchant.
+     */
+    private void seedEnteredShops() {
+        LocationDebouncer debouncer = locationDebouncer;
+        for (Shop shop : JetBeepSDK.INSTANCE.getLocations().getEnteredShops()) {
+            merchantIndex.seed(shop);
+            if (debouncer != null) {
+                debouncer.seed(shop);
+            }
+        }
+    }
+
+    private void startLocationDebouncer(JSONObject options) {
+        stopLocationDebouncer();
+        long dwellMs = options != null ? options.optLong("dwellMs", 0) : 0;
+        long graceMs = options != null ? options.optLong("graceMs", 0) : 0;
+        long snapshotIntervalMs = options != null ? options.optLong("snapshotIntervalMs", 0) : 0;
+        if (dwellMs <= 0 && graceMs <= 0 && snapshotIntervalMs <= 0) return;
+
+        boolean snapshots = snapshotIntervalMs > 0;
+        locationSnapshots = snapshots;
+        locationDebouncer = new LocationDebouncer(worker, dwellMs, graceMs,
+                new LocationDebouncer.Listener() {
+                    @Override
+                    public void onShopEntered(Shop shop) {
+                        if (snapshots) {
+                            journalShop(shop, true);
+                            locationSnapshotChanged = true;
+                        } else {
+                            reportShopEntered(shop);
+                        }
+                    }
+
+                    @Override
+                    public void onShopExit(Shop shop) {
+                        if (snapshots) {
+                            journalShop(shop, false);
+                            locationSnapshotChanged = true;
+                        } else {
+                            reportShopExit(shop);
+                        }
+                    }
+
+                    @Override
+                    public void onCoalesced(Shop shop) {
+                        metrics.increment("coalescedLocationEvents");
+                    }
+                });
+        if (snapshots) {
+            locationSnapshotTask = worker.scheduleAtFixedRate(this::sendLocationSnapshot,
+                    snapshotIntervalMs, snapshotIntervalMs, TimeUnit.MILLISECONDS);
+        }
+        log("location events, dwell = " + dwellMs + ", grace = " + graceMs
+                + ", snapshot interval = " + snapshotIntervalMs);
+    }
+
+    private void stopLocationDebouncer() {
+        LocationDebouncer debouncer = locationDebouncer;
+        if (debouncer != null) {
+            debouncer.close();
+            locationDebouncer = null;
+        }
+        if (locationSnapshotTask != null) {
+            locationSnapshotTask.cancel(false);
+            locationSnapshotTask = null;
+        }
+        locationSnapshotChanged = false;
+        locationSnapshots = false;
+    }
+
+    private void sendLocationSnapshot() {
+        LocationDebouncer debouncer = locationDebouncer;
+        if (debouncer == null || !locationSnapshotChanged || backgrounded) return;
+        locationSnapshotChanged = false;
+
+        JSONArray shops = new JSONArray();
+        for (Shop shop : debouncer.currentShops()) {
+            shops.put(shopToJson(shop));
+        }
+        JSONObject result = new JSONObject();
+        try {
+            result.put("event", LocationsEvents.onShopsSnapshot.toString());
+            result.put("shops", shops);
+        } catch (JSONException e) {
+            e.printStackTrace();
+        }
+        locationsChannel.send(new PluginResult(PluginResult.Status.OK, result.toString()));
+    }
+
     /**
      * returns: json array of Shops
      * [{
      * "shopId" : int,
      * "shopName" : String
      * }]
+     * While the repository syncs on cold start the shops of the previous run are returned,
+     * marked with "stale": true and "savedAt", see WarmStateStore.
      */
     private void getEnteredShops(CallbackContext callbackContext) {
         if (!isSdkInitialized(callbackContext)) return;
 
-        runInUiThread(() -> {
+        runInWorker(() -> {
             try {
                 List<Shop> shops = JetBeepSDK.INSTANCE.getLocations().getEnteredShops();
                 JSONArray jsonShopList = new JSONArray();
                 for (Shop s : shops) {
                     jsonShopList.put(shopToJson(s));
                 }
+                if (jsonShopList.length() == 0 && repositorySyncing
+                        && warmState.getShops() != null) {
+                    callbackContext.success(warmState.getShops());
+                    return;
+                }
+                warmState.updateShops(jsonShopList);
                 callbackContext.success(jsonShopList);
             } catch (Exception e) {
                 e.printStackTrace();
@@ -395,18 +863,42 @@ public class JetBeepSDKPlugin extends CordovaPlugin {
         });
     }
 
-    private void getNearbyDevices(CallbackContext callbackContext) {
+    /*
+        options (optional):
+        {
+            "format": "compact" // ArrayBuffer frame, see CompactDeviceCodec
+        }
+        While the repository syncs on cold start the json devices of the previous run are
+        returned, marked with "stale": true and "savedAt", see WarmStateStore.
+     */
+    private void getNearbyDevices(JSONObject options, CallbackContext callbackContext) {
         if (!isSdkInitialized(callbackContext)) return;
+        if (!isFormatSupported(options, callbackContext)) return;
 
-        runInUiThread(() -> {
+        runInWorker(() -> {
             try {
                 List<LockerDevice> devices =
                         JetBeepSDK.INSTANCE.getConnections().getLockers().getVisibleDevices();
                 log("NearbyDevices: " + devices);
+                if (isCompactFormat(options)) {
+                    List<CompactDeviceCodec.Event> events = new ArrayList<>(devices.size());
+                    for (LockerDevice device : devices) {
+                        events.add(new CompactDeviceCodec.Event(device,
+                                DeviceStatus.None.toString()));
+                    }
+                    callbackContext.success(CompactDeviceCodec.encode(events));
+                    return;
+                }
                 JSONArray result = new JSONArray();
                 for (LockerDevice device : devices) {
                     result.put(lockerDeviceToJson(device, DeviceStatus.None));
                 }
+                if (result.length() == 0 && repositorySyncing
+                        && warmState.getDevices() != null) {
+                    callbackContext.success(warmState.getDevices());
+                    return;
+                }
+                warmState.updateDevices(result);
                 callbackContext.success(result);
             } catch (Exception e) {
                 e.printStackTrace();
@@ -415,31 +907,291 @@ public class JetBeepSDKPlugin extends CordovaPlugin {
         });
     }
 
+    /**
+     * returns: last known state of a device seen by the active search, with "lastSeen"
+     */
+    private void getDevice(String deviceId, CallbackContext callbackContext) {
+        try {
+            JSONObject device = deviceRegistry.get(Integer.parseInt(deviceId));
+            if (device != null) {
+                callbackContext.success(device);
+            } else {
+                callbackContext.error("Device not found");
+            }
+        } catch (NumberFormatException e) {
+            callbackContext.error("Wrong deviceId: " + deviceId);
+        }
+    }
+
+    /**
+     * returns: one page of visible devices matching the query, see DeviceQuery
+     */
+    private void queryNearbyDevices(JSONObject query, CallbackContext callbackContext) {
+        if (!isSdkInitialized(callbackContext)) return;
+
+        runInWorker(() -> {
+            try {
+                DeviceQuery deviceQuery = new DeviceQuery(query != null ? query : new JSONObject());
+                List<LockerDevice> devices =
+                        JetBeepSDK.INSTANCE.getConnections().getLockers().getVisibleDevices();
+                callbackContext.success(deviceQuery.page(devices,
+                        device -> lockerDeviceToJson(device, DeviceStatus.None)));
+            } catch (Exception e) {
+                e.printStackTrace();
+                callbackContext.error(e.getMessage());
+            }
+        });
+    }
+
     private void sendLockerDeviceEvent(LockerDevice lockerDevice, DeviceStatus deviceStatus) {
-        if (devicesCallback != null) {
-            PluginResult result = new PluginResult(PluginResult.Status.OK,
-                    lockerDeviceToJson(lockerDevice, deviceStatus));
-            result.setKeepCallback(true);
-            devicesCallback.sendPluginResult(result);
+        if (!devicesChannel.isEmpty()) {
+            if (backgrounded) {
+                backgroundDevices.put(lockerDevice.getDevice().getDeviceId(),
+                        new CompactDeviceCodec.Event(lockerDevice, deviceStatus.toString()),
+                        deviceStatus == DeviceStatus.DeviceDetected,
+                        deviceStatus != DeviceStatus.DeviceLost);
+                metrics.increment("backgroundEvents");
+                return;
+            }
+            if (compactDeviceEvents) {
+                sendCompactDeviceEvent(lockerDevice, deviceStatus);
+                return;
+            }
+            DeviceDeltaEncoder encoder = deviceDeltaEncoder;
+            JSONObject event = encoder != null
+                    ? encoder.encode(lockerDevice, deviceStatus.toString())
+                    : lockerDeviceToJson(lockerDevice, deviceStatus);
+            if (event == null) return;
+            recordTimeToFirstDevice(deviceStatus);
+            DeviceEventBatcher<JSONObject> batcher = deviceEventBatcher;
+            if (batcher != null) {
+                batcher.add(String.valueOf(lockerDevice.getDevice().getDeviceId()), event);
+                return;
+            }
+            sendDeviceResult(lockerDevice.getDevice().getDeviceId(),
+                    new PluginResult(PluginResult.Status.OK, event));
         }
     }
 
     /*
-        Response: async callback with device status json:
-        {
-            "deviceId": String,
-            "deviceName": String,
-            "isConnectable": String, //"true", "false"
-            "status": String, // "DeviceDetected", "DeviceStateChanged", "DeviceLost",
-            "userData": String,
-            "lockStatuses": String[]
+        The same result goes to every session which takes the device, higher priority first.
+     */
+    private void sendDeviceResult(int deviceId, PluginResult result) {
+        String key = String.valueOf(deviceId);
+        for (SearchSessions.Session session : searchSessions.list()) {
+            if (session.matches(deviceId)) {
+                devicesChannel.sendTo(session.id, key, result);
+            }
         }
-        */
-    private JSONObject lockerDeviceToJson(LockerDevice lockerDevice, DeviceStatus status) {
-        JSONObject result = new JSONObject();
-        try {
-            result.put("deviceId", String.valueOf(lockerDevice.getDevice().getDeviceId()));
-            result.put("deviceName", lockerDevice.getDevice().getShopName());
+    }
+
+    /*
+        Batched mode response: json array of device status objects, one entry per deviceId
+        [{ "deviceId": String, ... }]
+     */
+    private void sendLockerDeviceBatch(List<JSONObject> batch) {
+        PluginResult shared = null;
+        for (SearchSessions.Session session : searchSessions.list()) {
+            List<JSONObject> own = session.filter(batch, JSON_DEVICE_ID);
+            if (own.isEmpty()) continue;
+            if (own != batch) {
+                devicesChannel.sendTo(session.id, null,
+                        new PluginResult(PluginResult.Status.OK, new JSONArray(own)));
+                continue;
+            }
+            if (shared == null) {
+                shared = new PluginResult(PluginResult.Status.OK, new JSONArray(batch));
+            }
+            devicesChannel.sendTo(session.id, null, shared);
+        }
+    }
+
+    /*
+        Delta patches carry only changed fields: a queued patch replaced by a newer one of
+        the same device is merged into it, and a device whose patch was dropped gets a full
+        event next, so js state does not miss fields.
+     */
+    private final EventChannel.OverflowHandler deltaOverflowHandler =
+            new EventChannel.OverflowHandler() {
+                @Override
+                public PluginResult merge(String key, PluginResult previous,
+                                          PluginResult latest) {
+                    if (deviceDeltaEncoder == null) return null;
+                    try {
+                        return new PluginResult(PluginResult.Status.OK,
+                                DeviceEventBatcher.JSON_MERGER.merge(
+                                        new JSONObject(previous.getMessage()),
+                                        new JSONObject(latest.getMessage())));
+                    } catch (JSONException e) {
+                        return null;
+                    }
+                }
+
+                @Override
+                public void onDropped(PluginResult dropped) {
+                    DeviceDeltaEncoder encoder = deviceDeltaEncoder;
+                    if (encoder == null) return;
+                    String message = dropped.getMessage();
+                    try {
+                        JSONArray events = message.startsWith("[")
+                                ? new JSONArray(message)
+                                : new JSONArray().put(new JSONObject(message));
+                        for (int i = 0; i < events.length(); i++) {
+                            encoder.forget(JSON_DEVICE_ID.deviceId(events.getJSONObject(i)));
+                        }
+                    } catch (JSONException e) {
+                        e.printStackTrace();
+                    }
+                }
+            };
+
+    private static final SearchSessions.DeviceIdOf<JSONObject> JSON_DEVICE_ID =
+            event -> Integer.parseInt(event.optString("deviceId", "0"));
+
+    private static final SearchSessions.DeviceIdOf<CompactDeviceCodec.Event> COMPACT_DEVICE_ID =
+            event -> event.device.getDevice().getDeviceId();
+
+    private void sendCompactDeviceEvent(LockerDevice lockerDevice, DeviceStatus deviceStatus) {
+        recordTimeToFirstDevice(deviceStatus);
+        CompactDeviceCodec.Event event =
+                new CompactDeviceCodec.Event(lockerDevice, deviceStatus.toString());
+        DeviceEventBatcher<CompactDeviceCodec.Event> batcher = compactEventBatcher;
+        if (batcher != null) {
+            batcher.add(String.valueOf(lockerDevice.getDevice().getDeviceId()), event);
+        } else {
+            sendCompactDeviceBatch(Collections.singletonList(event));
+        }
+    }
+
+    private void sendCompactDeviceBatch(List<CompactDeviceCodec.Event> batch) {
+        PluginResult shared = null;
+        for (SearchSessions.Session session : searchSessions.list()) {
+            List<CompactDeviceCodec.Event> own = session.filter(batch, COMPACT_DEVICE_ID);
+            if (own.isEmpty()) continue;
+            String key = own.size() == 1
+                    ? String.valueOf(COMPACT_DEVICE_ID.deviceId(own.get(0))) : null;
+            if (own != batch) {
+                devicesChannel.sendTo(session.id, key, new PluginResult(PluginResult.Status.OK,
+                        CompactDeviceCodec.encode(own)));
+                continue;
+            }
+            if (shared == null) {
+                shared = new PluginResult(PluginResult.Status.OK, CompactDeviceCodec.encode(batch));
+            }
+            devicesChannel.sendTo(session.id, key, shared);
+        }
+    }
+
+    /*
+        Visible devices of the session as "DeviceDetected" for a subscriber which joined
+        a running search, in the format of the stream. Delta streams get full objects without
+        "seq", the following patches of the stream apply on top of them.
+     */
+    private void replayVisibleDevices(CallbackContext callbackContext,
+                                      SearchSessions.Session session) {
+        List<LockerDevice> devices = new ArrayList<>();
+        for (LockerDevice device :
+                JetBeepSDK.INSTANCE.getConnections().getLockers().getVisibleDevices()) {
+            if (session.matches(device.getDevice().getDeviceId())) {
+                devices.add(device);
+            }
+        }
+        if (devices.isEmpty()) return;
+
+        List<PluginResult> results = new ArrayList<>();
+        if (compactDeviceEvents) {
+            List<CompactDeviceCodec.Event> events = new ArrayList<>(devices.size());
+            for (LockerDevice device : devices) {
+                events.add(new CompactDeviceCodec.Event(device,
+                        DeviceStatus.DeviceDetected.toString()));
+            }
+            results.add(new PluginResult(PluginResult.Status.OK, CompactDeviceCodec.encode(events)));
+        } else {
+            boolean delta = deviceDeltaEncoder != null;
+            JSONArray batch = new JSONArray();
+            for (LockerDevice device : devices) {
+                JSONObject event = lockerDeviceToJson(device, DeviceStatus.DeviceDetected);
+                if (delta) {
+                    try {
+                        event.put("full", true);
+                    } catch (JSONException e) {
+                        e.printStackTrace();
+                    }
+                }
+                if (deviceEventBatcher != null) {
+                    batch.put(event);
+                } else {
+                    results.add(new PluginResult(PluginResult.Status.OK, event));
+                }
+            }
+            if (batch.length() > 0) {
+                results.add(new PluginResult(PluginResult.Status.OK, batch));
+            }
+        }
+        for (PluginResult result : results) {
+            result.setKeepCallback(true);
+            sendResult(CHANNEL_DEVICES, callbackContext, result);
+        }
+    }
+
+    private void recordTimeToFirstDevice(DeviceStatus deviceStatus) {
+        long searchStartedAt = searchStartedAtNanos;
+        if (searchStartedAt != 0 && deviceStatus == DeviceStatus.DeviceDetected) {
+            searchStartedAtNanos = 0;
+            metrics.recordTimeToFirstDevice(System.nanoTime() - searchStartedAt);
+        }
+    }
+
+    private boolean isCompactFormat(JSONObject options) {
+        return options != null && "compact".equals(options.optString("format"));
+    }
+
+    private boolean isFormatSupported(JSONObject options, CallbackContext callbackContext) {
+        if (isCompactFormat(options) && !CompactDeviceCodec.isSupported()) {
+            callbackContext.error(CompactDeviceCodec.ERROR_UNSUPPORTED);
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * returns: encoding of device events with these searchDevices options, e.g. "json,delta"
+     */
+    private String deviceStreamFormat(JSONObject options) {
+        boolean compact = isCompactFormat(options);
+        boolean batched = options != null && options.optLong("batchWindowMs", 0) > 0;
+        boolean delta = !compact && options != null && options.optBoolean("delta", false);
+        return (compact ? "compact" : "json") + (batched ? ",batched" : "")
+                + (delta ? ",delta" : "");
+    }
+
+    private void closeDeviceEventBatcher() {
+        if (deviceEventBatcher != null) {
+            deviceEventBatcher.close();
+            deviceEventBatcher = null;
+        }
+        if (compactEventBatcher != null) {
+            compactEventBatcher.close();
+            compactEventBatcher = null;
+        }
+    }
+
+    /*
+        Response: async callback with device status json:
+        {
+            "deviceId": String,
+            "deviceName": String,
+            "isConnectable": String, //"true", "false"
+            "status": String, // "DeviceDetected", "DeviceStateChanged", "DeviceLost",
+            "userData": String,
+            "lockStatuses": String[]
+        }
+        */
+    static JSONObject lockerDeviceToJson(LockerDevice lockerDevice, DeviceStatus status) {
+        JSONObject result = new JSONObject();
+        try {
+            result.put("deviceId", String.valueOf(lockerDevice.getDevice().getDeviceId()));
+            result.put("deviceName", lockerDevice.getDevice().getShopName());
             result.put("isConnectable",
                     String.valueOf(lockerDevice.getDevice().isConnectable()));
             if (status != DeviceStatus.None) {
@@ -474,7 +1226,7 @@ public class JetBeepSDKPlugin extends CordovaPlugin {
         try {
             result.put("shopId", shop.getId());
             result.put("shopName", shop.getName());
-//                result.put("merchantId", shop.getMerchantId());
+            result.put("merchantId", shop.getMerchantId());
         } catch (JSONException e) {
             e.printStackTrace();
         }
@@ -482,10 +1234,9 @@ public class JetBeepSDKPlugin extends CordovaPlugin {
     }
 
     private void isPermissionGranted(CallbackContext callbackContext) {
-        boolean bt = isBluetoothPermissionsGranted(cordova.getContext());
-        boolean location = isLocationPermissionsGranted(cordova.getContext());
-
-        log("isPermissionGranted, bt = " + bt + ", location = " + location);
+        EnvironmentMonitor.State state = environment.getState();
+        boolean bt = state.blePermission;
+        boolean location = state.locationPermission;
 
         JSONObject result = new JSONObject();
         try {
@@ -513,8 +1264,8 @@ public class JetBeepSDKPlugin extends CordovaPlugin {
             /*sdk.getRepository().getShops().getAllAsLiveData().observeForever(shops -> {
                 log("$$$SHOPS: " + shops);
             });*/
-            if (isBluetoothPermissionsGranted(cordova.getContext())
-                /*&& isLocationPermissionsGranted(cordova.getContext())*/) {
+            if (environment.getState().blePermission
+                /*&& environment.getState().locationPermission*/) {
                 if (sdk.isInitialized()) {
                     try {
                         if (!sdk.getBackgroundActive()) {
@@ -551,7 +1302,18 @@ public class JetBeepSDKPlugin extends CordovaPlugin {
         });
     }
 
-    private void initSDK(String msg, CallbackContext callbackContext) {
+    /*
+        options (optional):
+        {
+            "staged": boolean
+        }
+        Staged init sends progress objects to success callback instead of one string:
+        { "state": "ready" } // sdk core is initialized, repository sync is running
+        { "state": "synced" } or { "state": "syncFailed", "error": String }
+        While the sync is running getEnteredShops and getNearbyDevices answer with the
+        last known state when the sdk has nothing yet.
+     */
+    private void initSDK(String msg, JSONObject options, CallbackContext callbackContext) {
         if (msg == null || msg.length() == 0) {
             callbackContext.error("Empty message!");
             log("init sdk error: Empty message!");
@@ -572,12 +1334,11 @@ public class JetBeepSDKPlugin extends CordovaPlugin {
                     Application app = (Application) webView.getContext().getApplicationContext();
                     sdk.init(app, serviceUUID, appName, appToken,
                             JetBeepRegistrationType.ANONYMOUS, false);
-                    sdk.getRepository().trySync();
 
                     L = sdk.getLogger(TAG);
+                    recordSdkLogs();
 
-                    callbackContext.success("SDK initialized successfully");
-                    log("Sdk was initialized");
+                    syncRepository(callbackContext, isStagedInit(options));
                 });
 
                 //callbackContext.success("SDK initialized successfully");
@@ -589,7 +1350,18 @@ public class JetBeepSDKPlugin extends CordovaPlugin {
         }
     }
 
-    private void initWithOfflineConfig(String msg, CallbackContext callbackContext) {
+    /*
+        options (optional):
+        {
+            "staged": boolean, // see initSDK
+            "configVersion": String // version from getOfflineConfigVersion, the config
+                                    // can be omitted from msg then
+        }
+        The config is stored on the device, init with an unknown version fails with
+        "Unknown offline config version" and js has to pass the whole config again.
+     */
+    private void initWithOfflineConfig(String msg, JSONObject options,
+                                       CallbackContext callbackContext) {
         if (msg == null || msg.length() == 0) {
             callbackContext.error("Empty message!");
             log("init sdk error: Empty message!");
@@ -597,30 +1369,55 @@ public class JetBeepSDKPlugin extends CordovaPlugin {
             try {
                 JSONArray params = new JSONArray(msg);
                 String serviceUUID = (String) params.get(0);
-                String jsonConfig = (String) params.get(1);
-
-                //initInUi(serviceUUID, jsonConfig, callbackContext);
-                runInUiThread(() -> {
-                    log("java, init sdk: serviceUUID = " + serviceUUID + ", jsonConfig = " + jsonConfig);
-
-                    JetBeepSDK sdk = JetBeepSDK.INSTANCE;
-                    Application app = (Application) webView.getContext().getApplicationContext();
+                String jsonConfig = params.optString(1, "");
+                String configVersion = options != null ? options.optString("configVersion", "") : "";
+                if (jsonConfig.isEmpty() && configVersion.isEmpty()) {
+                    callbackContext.error("Empty config!");
+                    return;
+                }
 
+                runInWorker(() -> {
+                    String version = jsonConfig.isEmpty()
+                            ? configVersion : OfflineConfigStore.version(jsonConfig);
+                    OfflineConfig config;
                     try {
-                        OfflineConfig config = OfflineConfig.Companion.fromJson(jsonConfig);
-                        sdk.init(app, serviceUUID, config);
-                        L = sdk.getLogger(TAG);
-//                        sdk.getLogger().setRemoteLogging(true);
-                        sdk.getRepository().trySync();
+                        config = parseOfflineConfig(version, jsonConfig);
                     } catch (Exception e) {
                         e.printStackTrace();
                         callbackContext.error("Failed to init sdk, " + e.getMessage());
                         log("Failed to init sdk");
                         return;
                     }
+                    if (config == null) {
+                        callbackContext.error("Unknown offline config version");
+                        return;
+                    }
 
-                    callbackContext.success("SDK initialized successfully");
-                    log("Sdk was initialized");
+                    runInUiThread(() -> {
+                        log("java, init sdk: serviceUUID = " + serviceUUID
+                                + ", config version = " + version);
+
+                        JetBeepSDK sdk = JetBeepSDK.INSTANCE;
+                        Application app = (Application) webView.getContext().getApplicationContext();
+
+                        try {
+                            sdk.init(app, serviceUUID, config);
+                            L = sdk.getLogger(TAG);
+                            recordSdkLogs();
+//                            sdk.getLogger().setRemoteLogging(true);
+                        } catch (Exception e) {
+                            e.printStackTrace();
+                            callbackContext.error("Failed to init sdk, " + e.getMessage());
+                            log("Failed to init sdk");
+                            return;
+                        }
+
+                        syncRepository(callbackContext, isStagedInit(options));
+                    });
+
+                    if (!jsonConfig.isEmpty()) {
+                        offlineConfigs.save(version, jsonConfig);
+                    }
                 });
 
                 //callbackContext.success("SDK initialized successfully");
@@ -632,30 +1429,133 @@ public class JetBeepSDKPlugin extends CordovaPlugin {
         }
     }
 
-    private void searchDevices(String msg, CallbackContext callbackContext) {
+    /**
+     * returns: parsed config or null when jsonConfig is empty and this version is not stored
+     */
+    private OfflineConfig parseOfflineConfig(String version, String jsonConfig) {
+        if (version.equals(offlineConfigVersion)) {
+            return offlineConfig;
+        }
+        String json = jsonConfig.isEmpty() ? offlineConfigs.load(version) : jsonConfig;
+        if (json == null) return null;
+        OfflineConfig config = OfflineConfig.Companion.fromJson(json);
+        offlineConfigVersion = version;
+        offlineConfig = config;
+        return config;
+    }
+
+    /**
+     * returns: version of the stored offline config for initWithOfflineConfig "configVersion"
+     */
+    private void getOfflineConfigVersion(CallbackContext callbackContext) {
+        runInWorker(() -> {
+            String version = offlineConfigs.currentVersion();
+            if (version != null) {
+                callbackContext.success(version);
+            } else {
+                callbackContext.error("No stored offline config");
+            }
+        });
+    }
+
+    private boolean isStagedInit(JSONObject options) {
+        return options != null && options.optBoolean("staged", false);
+    }
+
+    /*
+        Repository sync runs on the cordova thread pool, so the worker keeps answering
+        queries while it is in progress.
+     */
+    private void syncRepository(CallbackContext callbackContext, boolean staged) {
+        repositorySyncing = true;
+        if (staged) {
+            sendInitState(callbackContext, "ready", null, true);
+            log("Sdk core was initialized, sync started");
+        }
+        cordova.getThreadPool().execute(() -> {
+            try {
+                JetBeepSDK.INSTANCE.getRepository().trySync();
+                repositorySyncing = false;
+                if (staged) {
+                    sendInitState(callbackContext, "synced", null, false);
+                } else {
+                    callbackContext.success("SDK initialized successfully");
+                }
+                log("Sdk was initialized");
+            } catch (Exception e) {
+                e.printStackTrace();
+                repositorySyncing = false;
+                if (staged) {
+                    sendInitState(callbackContext, "syncFailed", e.getMessage(), false);
+                } else {
+                    callbackContext.error("Failed to init sdk, " + e.getMessage());
+                }
+                log("Failed to sync repository: " + e);
+            }
+        });
+    }
+
+    private void sendInitState(CallbackContext callbackContext, String state, String error,
+                               boolean keepCallback) {
+        JSONObject result = new JSONObject();
+        try {
+            result.put("state", state);
+            if (error != null) {
+                result.put("error", error);
+            }
+        } catch (JSONException e) {
+            e.printStackTrace();
+        }
+        PluginResult pluginResult = new PluginResult(PluginResult.Status.OK, result);
+        pluginResult.setKeepCallback(keepCallback);
+        callbackContext.sendPluginResult(pluginResult);
+    }
+
+    /*
+        options (optional):
+        {
+            "batchWindowMs": int, // > 0 enables batched delivery, events are sent as json array
+            "delta": boolean, // send only changed device fields, see DeviceDeltaEncoder
+            "scanIntensity": String, // "HIGH" (default), "BALANCED", "LOW"
+            "scanLingerMs": int, // scanning continues after stopSearching, default 30000
+            "format": "compact" // events are sent as ArrayBuffer frames, see CompactDeviceCodec,
+                                // "delta" is ignored in this format
+            "subscriptionId": String, // id of the search session, see below
+            "priority": int, // default 0, see below
+            "credits": int, "overflow": String, ... // flow control of this subscriber,
+                                                    // see EventChannel.subscribe and ackEvents
+        }
+        Every subscriptionId is a search session with its own tokens, the sdk runs one search
+        with the tokens of all sessions. A session gets only devices of its tokens, a session
+        without tokens gets every device the search finds. Sessions with higher priority get
+        events first and the scanner uses "scanIntensity" and "scanLingerMs" of the top one.
+        A session joins a running search: it gets its visible devices and then the events of
+        the running stream. The sdk search is restarted only when the session has tokens
+        the search does not have yet. The stream is started again with the options of
+        the session when there are no other sessions. Events of the stream are encoded once
+        for all sessions, so a session whose "format", "delta" or batching ("batchWindowMs" > 0)
+        differs from the running stream fails with error.
+     */
+    private void searchDevices(String msg, JSONObject options, CallbackContext callbackContext) {
         if (!isSdkInitialized(callbackContext)) return;
+        if (!isFormatSupported(options, callbackContext)) return;
+
+        long searchRequestedAt = System.nanoTime();
 
         if (msg == null || msg.length() == 0) {
             callbackContext.error("Empty message!");
             log("searchDevices error: Empty message!");
         } else {
-            runInUiThread(() -> {
+            runInWorker(() -> {
                 try {
                     JSONArray tokensForSearch = new JSONArray(msg);
-                    List<Token> tokens = null;
-                    if (tokensForSearch.length() > 0) {
-                        for (int i = 0; i < tokensForSearch.length(); i++) {
-                            String tokenString = (String) tokensForSearch.get(i);
-                            if (tokenString.isEmpty()) {
-                                continue;
-                            }
-                            log("create token from: " + tokenString);
-                            Token token = Token.Companion.createToken(tokenString);
-                            if (tokens == null) {
-                                tokens = new ArrayList<>();
-                            }
-                            tokens.add(token);
+                    Map<String, Token> tokens = new LinkedHashMap<>();
+                    for (int i = 0; i < tokensForSearch.length(); i++) {
+                        String tokenString = (String) tokensForSearch.get(i);
+                        if (tokenString.isEmpty()) {
+                            continue;
                         }
+                        tokens.put(tokenString, tokenCache.get(tokenString));
                     }
 
                     if (lockers == null) {
@@ -663,20 +1563,71 @@ public class JetBeepSDKPlugin extends CordovaPlugin {
                         return;
                     }
 
+                    String subscriptionId = subscriptionId(options);
+                    SearchSessions.Session session = new SearchSessions.Session(subscriptionId,
+                            options != null ? options.optInt("priority", 0) : 0, options, tokens);
+                    boolean covered = searchSessions.isCovered(session);
+                    boolean searching = searchSessions.isSearching();
+                    boolean others = false;
+                    for (SearchSessions.Session existing : searchSessions.list()) {
+                        others |= !existing.id.equals(subscriptionId);
+                    }
+                    boolean sameFormat = deviceStreamFormat(options).equals(deviceStreamFormat);
+                    if (searching && others && !sameFormat) {
+                        callbackContext.error("Format options differ from the running search: "
+                                + deviceStreamFormat);
+                        return;
+                    }
+                    searchSessions.open(session);
+                    if (searching && (others || (covered && sameFormat))) {
+                        devicesChannel.subscribe(subscriptionId, callbackContext, options);
+                        acquireSearchLease(searchSessions.top().options);
+                        replayVisibleDevices(callbackContext, session);
+                        if (!covered) {
+                            lockers.startSearch(searchSessions.mergedTokens());
+                            searchSessions.searchStarted();
+                            log("search tokens added, sessions = " + devicesChannel.size());
+                        } else {
+                            log("search joined, sessions = " + devicesChannel.size());
+                        }
+                        return;
+                    }
+
+                    searchStartedAtNanos = searchRequestedAt;
                     lockers.subscribe(lockersListener);
 
-                    startForegroundScanner();
+                    acquireSearchLease(options);
+
+                    closeDeviceEventBatcher();
+                    compactDeviceEvents = isCompactFormat(options);
+                    long batchWindowMs = options != null ? options.optLong("batchWindowMs", 0) : 0;
+                    if (batchWindowMs > 0 && compactDeviceEvents) {
+                        compactEventBatcher = new DeviceEventBatcher<>(worker, batchWindowMs,
+                                CompactDeviceCodec.MERGER, this::sendCompactDeviceBatch);
+                    } else if (batchWindowMs > 0) {
+                        deviceEventBatcher = new DeviceEventBatcher<>(worker, batchWindowMs,
+                                DeviceEventBatcher.JSON_MERGER, this::sendLockerDeviceBatch);
+                    }
+                    log("device events, batch window = " + batchWindowMs
+                            + ", compact = " + compactDeviceEvents);
+
+                    deviceDeltaEncoder = options != null && options.optBoolean("delta", false)
+                            ? new DeviceDeltaEncoder() : null;
+                    deviceStreamFormat = deviceStreamFormat(options);
 
-                    devicesCallback = callbackContext;
+                    devicesChannel.subscribe(subscriptionId, callbackContext, options);
 
                     // send existing result
                     List<LockerDevice> devices =
                             JetBeepSDK.INSTANCE.getConnections().getLockers().getVisibleDevices();
+                    deviceRegistry.clear();
                     for (LockerDevice device : devices) {
+                        deviceRegistry.update(device);
                         sendLockerDeviceEvent(device, DeviceStatus.DeviceDetected);
                     }
 
-                    lockers.startSearch(tokens);
+                    lockers.startSearch(searchSessions.mergedTokens());
+                    searchSessions.searchStarted();
                     log("search started");
 
                 } catch (JSONException e) {
@@ -687,85 +1638,360 @@ public class JetBeepSDKPlugin extends CordovaPlugin {
         }
     }
 
-    private void stopSearching(String msg, CallbackContext callbackContext) {
+    /**
+     * Resends full state of all visible devices to the searchDevices callback.
+     * In delta mode the per device cache is reset, so js can rebuild its state from
+     * the snapshot and apply the following patches by "seq".
+     */
+    private void requestDeviceSnapshot(CallbackContext callbackContext) {
         if (!isSdkInitialized(callbackContext)) return;
 
-        runInUiThread(() -> {
-            if (lockers != null) {
-                lockers.stopSearch();
-                lockers.unsubscribe(lockersListener);
+        runInWorker(() -> {
+            if (devicesChannel.isEmpty()) {
+                callbackContext.error("No active search");
+                return;
+            }
+            DeviceDeltaEncoder encoder = deviceDeltaEncoder;
+            if (encoder != null) {
+                encoder.reset();
             }
+            List<LockerDevice> devices =
+                    JetBeepSDK.INSTANCE.getConnections().getLockers().getVisibleDevices();
+            for (LockerDevice device : devices) {
+                sendLockerDeviceEvent(device, DeviceStatus.DeviceDetected);
+            }
+            callbackContext.success();
+        });
+    }
+
+    /*
+        options (optional): { "subscriptionId": String }
+        Closes the search session, the sdk search is stopped with the last one. Tokens of
+        the closed session stay in the sdk search until it is restarted.
+     */
+    private void stopSearching(String msg, JSONObject options, CallbackContext callbackContext) {
+        if (!isSdkInitialized(callbackContext)) return;
 
-            // TODO need to check this
-            if (devicesCallback != null) {
+        runInWorker(() -> {
+            searchSessions.close(subscriptionId(options));
+            CallbackContext subscriber = devicesChannel.unsubscribe(subscriptionId(options));
+            if (subscriber != null) {
                 // TODO status NO_RESULT
                 PluginResult result = new PluginResult(PluginResult.Status.NO_RESULT);
                 result.setKeepCallback(false);
-                devicesCallback.sendPluginResult(result);
+                subscriber.sendPluginResult(result);
+            }
+            if (!searchSessions.isEmpty()) {
+                acquireSearchLease(searchSessions.top().options);
+                log("search left, sessions = " + devicesChannel.size());
+                callbackContext.success(msg);
+                return;
+            }
+
+            searchSessions.searchStopped();
+            if (lockers != null) {
+                lockers.stopSearch();
+                lockers.unsubscribe(lockersListener);
             }
-            // TODO end
 
-            devicesCallback = null;
+            closeDeviceEventBatcher();
+            deviceDeltaEncoder = null;
+            deviceRegistry.clear();
+            backgroundDevices.clear();
+            scannerBoost.clear();
 
-            stopForegroundScanner();
+            scannerLeases.release(LEASE_SEARCH);
 
             callbackContext.success(msg);
         });
     }
 
-    private void applyToken(String msg, CallbackContext callbackContext) {
+    /*
+        options (optional):
+        {
+            "requestId": String, // id for cancelApply
+            "timeoutMs": int // time from the call until the apply fails with "Apply timeout"
+        }
+     */
+    private void applyToken(String msg, JSONObject options, CallbackContext callbackContext) {
         if (!isSdkInitialized(callbackContext)) return;
 
         if (msg == null || msg.length() == 0) {
             callbackContext.error("Empty message!");
-        } else {
-            new Thread(() -> {
-                try {
-                    if (lockers != null) {
-                        Token token = Token.Companion.createToken(msg);
-
-                        log("###waiting for apply...");
-
-                        TokenResult result = (TokenResult) lockers.apply(token,
-                                new Continuation<TokenResult>() {
-                                    @NonNull
-                                    @Override
-                                    public CoroutineContext getContext() {
-                                        return GlobalScope.INSTANCE.getCoroutineContext();
-                                    }
-
-                                    @Override
-                                    public void resumeWith(@NonNull Object o) {
-                                        log("resumeWith: " + o);
-                                    }
-                                });
+        } else if (lockers != null) {
+            try {
+                Token token = tokenCache.get(msg);
+                scannerBoost.touch(token.getDeviceId());
+                String requestId = options != null ? options.optString("requestId", null) : null;
+                long timeoutMs = options != null ? options.optLong("timeoutMs", 0) : 0;
+
+                log("###waiting for apply...");
+
+                long applyStartedAt = System.nanoTime();
+                TokenApplyQueue.ApplyCallback callback = new TokenApplyQueue.ApplyCallback() {
+                    @Override
+                    public void onResult(TokenResult result) {
+                        metrics.recordApply(true, System.nanoTime() - applyStartedAt);
                         log("Apply result: " + result);
+                        journalApply(token, requestId, result.getResult(), null);
                         callbackContext.success(result.getResult());
                     }
-                } catch (Exception e) {
-                    e.printStackTrace();
-                    log("Error to apply: " + e);
-                    callbackContext.error(e.toString());
+
+                    @Override
+                    public void onError(String message) {
+                        metrics.recordApply(false, System.nanoTime() - applyStartedAt);
+                        log("Error to apply: " + message);
+                        journalApply(token, requestId, null, message);
+                        callbackContext.error(message);
+                    }
+                };
+                TokenApplyQueue.SubmitStatus status =
+                        applyQueue.submit(lockers, token, requestId, timeoutMs, callback);
+                if (status == TokenApplyQueue.SubmitStatus.circuitOpen) {
+                    callback.onError(TokenApplyQueue.ERROR_CIRCUIT_OPEN);
+                } else if (status == TokenApplyQueue.SubmitStatus.rejected) {
+                    callbackContext.error("Apply queue is full or requestId is already used");
                 }
-            }).start();
+            } catch (Exception e) {
+                e.printStackTrace();
+                log("Error to apply: " + e);
+                callbackContext.error(e.toString());
+            }
         }
     }
 
-    private void startForegroundScanner() {
-        handler.removeCallbacksAndMessages(null);
-        runInUiThread(() -> {
-            BleScanner scanner = JetBeepSDK.INSTANCE.getBleScanner();
-            if (!scanner.isForegroundScannerStarted()) {
-                scanner.startForegroundScanner();
+    /*
+        Journal entry:
+        {
+            "type": "apply",
+            "deviceId": int,
+            "requestId": String, // only when applyToken had it
+            "result": String, // base64 result of a successful apply
+            "error": String // message of a failed apply
+        }
+     */
+    private void journalApply(Token token, String requestId, byte[] result, String error) {
+        JSONObject entry = new JSONObject();
+        try {
+            entry.put("deviceId", token.getDeviceId());
+            if (requestId != null) {
+                entry.put("requestId", requestId);
+            }
+            if (result != null) {
+                entry.put("result", Base64.encodeToString(result, Base64.NO_WRAP));
+            } else {
+                entry.put("error", error);
+            }
+        } catch (JSONException e) {
+            e.printStackTrace();
+        }
+        journal.append("apply", entry);
+    }
+
+    /*
+        options (optional): { "limit": int } // entries in one response, default 200
+        returns: entries after sinceSeq, see EventJournal.read
+     */
+    private void readJournal(long sinceSeq, JSONObject options, CallbackContext callbackContext) {
+        int limit = options != null
+                ? Math.max(1, options.optInt("limit", EventJournal.DEFAULT_READ_LIMIT))
+                : EventJournal.DEFAULT_READ_LIMIT;
+        runInWorker(() -> callbackContext.success(journal.read(sinceSeq, limit)));
+    }
+
+    /**
+     * Removes one token from the parsed tokens cache, or all tokens when tokenString is empty.
+     */
+    private void invalidateTokenCache(String tokenString, CallbackContext callbackContext) {
+        if (tokenString == null || tokenString.isEmpty()) {
+            tokenCache.clear();
+        } else {
+            tokenCache.invalidate(tokenString);
+        }
+        callbackContext.success();
+    }
+
+    /*
+        tokens: json array of token strings, options (optional):
+        {
+            "requestId": String, // id for cancelApply of all tokens which are not applied yet
+            "timeoutMs": int // time from the start of the token apply until it fails
+        }
+        Tokens of one device are applied in the order of the array, devices in parallel.
+        Every token result is sent as soon as it is known, the callback is kept until the last:
+        { "index": int, "deviceId": int, "requestId": String, "result": String } // base64
+        { "index": int, "deviceId": int, "requestId": String, "error": String }
+        "requestId" of a token is requestId:index, it can be cancelled alone with cancelApply.
+        The last result is { "done": true, "succeeded": int, "failed": int }.
+     */
+    private void applyTokens(JSONArray tokensJson, JSONObject options,
+                             CallbackContext callbackContext) {
+        if (!isSdkInitialized(callbackContext)) return;
+
+        if (tokensJson == null || tokensJson.length() == 0) {
+            callbackContext.error("Empty tokens!");
+            return;
+        }
+        if (lockers == null) {
+            callbackContext.error("Lockers is null!");
+            return;
+        }
+        List<Token> tokens = new ArrayList<>(tokensJson.length());
+        for (int i = 0; i < tokensJson.length(); i++) {
+            try {
+                tokens.add(tokenCache.get(tokensJson.getString(i)));
+            } catch (Exception e) {
+                callbackContext.error("Wrong token at " + i + ": " + e.getMessage());
+                return;
+            }
+        }
+        for (Token token : tokens) {
+            scannerBoost.touch(token.getDeviceId());
+        }
+        String requestId = options != null ? options.optString("requestId", null) : null;
+        String id = requestId != null ? requestId
+                : "applyTokens-" + applyBatchIds.incrementAndGet();
+        long timeoutMs = options != null ? options.optLong("timeoutMs", 0) : 0;
+
+        ApplyBatch batch = new ApplyBatch(id, applyQueue, lockers, tokens, timeoutMs,
+                new ApplyBatch.Listener() {
+                    @Override
+                    public void onTokenResult(int index, Token token, String jobId,
+                                             TokenResult result, String error) {
+                        byte[] bytes = result != null ? result.getResult() : null;
+                        journalApply(token, jobId, bytes, error);
+                        JSONObject json = new JSONObject();
+                        try {
+                            json.put("index", index);
+                            json.put("deviceId", token.getDeviceId());
+                            json.put("requestId", jobId);
+                            if (bytes != null) {
+                                json.put("result", Base64.encodeToString(bytes, Base64.NO_WRAP));
+                            } else {
+                                json.put("error", error);
+                            }
+                        } catch (JSONException e) {
+                            e.printStackTrace();
+                        }
+                        PluginResult pluginResult = new PluginResult(PluginResult.Status.OK, json);
+                        pluginResult.setKeepCallback(true);
+                        callbackContext.sendPluginResult(pluginResult);
+                    }
+
+                    @Override
+                    public void onFinished(int succeeded, int failed) {
+                        applyBatches.remove(id);
+                        log("applyTokens " + id + " done, succeeded = " + succeeded
+                                + ", failed = " + failed);
+                        JSONObject json = new JSONObject();
+                        try {
+                            json.put("done", true);
+                            json.put("succeeded", succeeded);
+                            json.put("failed", failed);
+                        } catch (JSONException e) {
+                            e.printStackTrace();
+                        }
+                        callbackContext.success(json);
+                    }
+                });
+        if (applyBatches.putIfAbsent(id, batch) != null) {
+            callbackContext.error("requestId is already used");
+            return;
+        }
+        batch.start();
+    }
+
+    private void cancelApply(String requestId, CallbackContext callbackContext) {
+        ApplyBatch batch = applyBatches.get(requestId);
+        if (batch != null) {
+            batch.cancel();
+            callbackContext.success();
+        } else if (applyQueue.cancel(requestId)) {
+            callbackContext.success();
+        } else {
+            callbackContext.error("No apply with requestId " + requestId);
+        }
+    }
+
+    /*
+        config:
+        {
+            "maxConcurrent": int, // applies running at the same time
+            "maxPerDevice": int, // applies running at the same time for one device
+            "maxQueued": int, // waiting applies, more are rejected
+            "timeoutMs": int, // default apply timeout, retries have to fit into it
+            "retries": int, // attempts after a failed one, default 0
+            "retryBaseMs": int, // backoff before the first retry, doubled for every next one
+            "retryMaxMs": int, // backoff limit
+            "breakerThreshold": int, // consecutive failures which open a device, 0 disables
+            "breakerCoolDownMs": int // time an open device fails fast
+        }
+        Breaker state changes are sent to subscribeBreakerEvents, see DeviceCircuitBreaker.
+     */
+    private void configureApplyQueue(JSONObject config, CallbackContext callbackContext) {
+        if (config == null) {
+            callbackContext.error("Empty config!");
+            return;
+        }
+        applyQueue.configure(config.optInt("maxConcurrent", 0), config.optInt("maxQueued", 0),
+                config.optInt("maxPerDevice", 0), config.optLong("timeoutMs", 0));
+        applyQueue.configureRetries(config.optInt("retries", -1), config.optLong("retryBaseMs", 0),
+                config.optLong("retryMaxMs", 0));
+        applyBreaker.configure(config.optInt("breakerThreshold", -1),
+                config.optLong("breakerCoolDownMs", 0));
+        callbackContext.success();
+    }
+
+    /*
+        config: see ScannerBoost.configure, {} only reads the state
+        returns: ScannerBoost.toJson
+        The boost is off by default, visible connectable devices of the searched tokens are
+        boosted right after it is enabled. It keeps the scanner at HIGH intensity while
+        a boosted device is near, see scannerBoost, and has no effect on a HIGH search.
+     */
+    private void configureScannerBoost(JSONObject config, CallbackContext callbackContext) {
+        scannerBoost.configure(config != null ? config : new JSONObject());
+        runInWorker(() -> {
+            if (lockers != null && searchSessions.isSearching()) {
+                for (LockerDevice device : lockers.getVisibleDevices()) {
+                    offerScannerBoost(device);
+                }
             }
+            callbackContext.success(scannerBoost.toJson());
         });
     }
 
-    private void stopForegroundScanner() {
-        if (devicesCallback == null && jsLocationsCallback == null) {
-            handler.postDelayed(() -> JetBeepSDK.INSTANCE.getBleScanner().stopForegroundScanner()
-                    , 30 * 1000L);
+    private void acquireSearchLease(JSONObject options) {
+        String intensity = options != null ? options.optString("scanIntensity", null) : null;
+        long lingerMs = options != null
+                ? options.optLong("scanLingerMs", ScannerLeaseManager.DEFAULT_LINGER_MS)
+                : ScannerLeaseManager.DEFAULT_LINGER_MS;
+        scannerLeases.acquire(LEASE_SEARCH,
+                ScannerLeaseManager.Intensity.fromString(intensity,
+                        ScannerLeaseManager.Intensity.HIGH), lingerMs);
+    }
+
+    /*
+        lease:
+        {
+            "id": String, // released by releaseScannerLease(id)
+            "intensity": String, // "HIGH", "BALANCED" (default), "LOW"
+            "lingerMs": int
+        }
+     */
+    private void acquireScannerLease(JSONObject lease, CallbackContext callbackContext) {
+        if (!isSdkInitialized(callbackContext)) return;
+
+        String id = lease != null ? lease.optString("id", "") : "";
+        if (id.isEmpty()) {
+            callbackContext.error("Empty lease id!");
+            return;
         }
+        scannerLeases.acquire(LEASE_JS_PREFIX + id,
+                ScannerLeaseManager.Intensity.fromString(lease.optString("intensity", null),
+                        ScannerLeaseManager.Intensity.BALANCED),
+                lease.optLong("lingerMs", ScannerLeaseManager.DEFAULT_LINGER_MS));
+        callbackContext.success();
     }
 
     private boolean isSdkInitialized(CallbackContext callbackContext) {
@@ -777,7 +2003,106 @@ public class JetBeepSDKPlugin extends CordovaPlugin {
     }
 
     private void runInUiThread(Runnable runnable) {
-        cordova.getActivity().runOnUiThread(runnable);
+        cordova.getActivity().runOnUiThread(measured(runnable));
+    }
+
+    private void runInWorker(Runnable runnable) {
+        if (worker.isShutdown()) return;
+        Runnable task = measured(runnable);
+        worker.execute(() -> {
+            try {
+                task.run();
+            } catch (Exception e) {
+                e.printStackTrace();
+                log("Worker task failed: " + e);
+            }
+        });
+    }
+
+    /*
+        Tasks posted while an action is executed are measured as that action:
+        queue wait is the time until the task starts, execution is the task itself.
+     */
+    private Runnable measured(Runnable runnable) {
+        ActionDispatch dispatch = actionDispatch.get();
+        if (dispatch == null) return runnable;
+        dispatch.dispatched = true;
+        long postedAt = System.nanoTime();
+        return () -> {
+            long startedAt = System.nanoTime();
+            try {
+                runnable.run();
+            } finally {
+                metrics.recordAction(dispatch.action, startedAt - postedAt,
+                        System.nanoTime() - startedAt);
+            }
+        };
+    }
+
+    /*
+        options: { "subscriptionId": String, "count": int } // count of handled events
+        Returns credits to a subscriber of "devices" or "logs" which subscribed with
+        "credits" (see EventChannel.subscribe) and answers with
+        { "credits": long, "queued": int, "dropped": long }
+     */
+    private void ackEvents(String channel, JSONObject options, CallbackContext callbackContext) {
+        EventChannel eventChannel = CHANNEL_DEVICES.equals(channel) ? devicesChannel
+                : CHANNEL_LOGS.equals(channel) ? logsChannel : null;
+        if (eventChannel == null) {
+            callbackContext.error("Unknown channel " + channel);
+            return;
+        }
+        long count = options != null ? options.optLong("count", 1) : 1;
+        JSONObject state = eventChannel.ack(subscriptionId(options), count);
+        if (state != null) {
+            callbackContext.success(state);
+        } else {
+            callbackContext.error("No subscription");
+        }
+    }
+
+    private static String subscriptionId(JSONObject options) {
+        String id = options != null ? options.optString("subscriptionId", "") : "";
+        return id.isEmpty() ? EventChannel.DEFAULT_SUBSCRIPTION : id;
+    }
+
+    private void sendResult(String channel, CallbackContext callbackContext, PluginResult result) {
+        String message = result.getMessage();
+        metrics.recordResult(channel, message != null ? message.length() : 0);
+        callbackContext.sendPluginResult(result);
+    }
+
+    private void subscribeMetrics(long intervalMs, CallbackContext callbackContext) {
+        if (intervalMs <= 0) {
+            callbackContext.error("Interval must be positive");
+            return;
+        }
+        runInWorker(() -> {
+            if (metricsTask != null) {
+                metricsTask.cancel(false);
+            }
+            metricsCallback = callbackContext;
+            metricsTask = worker.scheduleAtFixedRate(() -> {
+                CallbackContext metricsCallbackContext = metricsCallback;
+                if (metricsCallbackContext != null && !backgrounded) {
+                    PluginResult result = new PluginResult(PluginResult.Status.OK,
+                            metrics.toJson());
+                    result.setKeepCallback(true);
+                    sendResult(CHANNEL_METRICS, metricsCallbackContext, result);
+                }
+            }, intervalMs, intervalMs, TimeUnit.MILLISECONDS);
+        });
+    }
+
+    private void unsubscribeMetrics(CallbackContext callbackContext) {
+        runInWorker(() -> {
+            if (metricsTask != null) {
+                metricsTask.cancel(false);
+                metricsTask = null;
+            }
+            metricsCallback = null;
+            callbackContext.success();
+        });
     }
 
     private void log(String message) {
@@ -788,84 +2113,103 @@ public class JetBeepSDKPlugin extends CordovaPlugin {
         }
     }
 
-    private boolean isLocationPermissionsGranted(Context context) {
-        int permissionStateCoarse = ActivityCompat.checkSelfPermission(
-                context,
-                Manifest.permission.ACCESS_COARSE_LOCATION
-        );
-        int permissionStateFine = ActivityCompat.checkSelfPermission(
-                context,
-                Manifest.permission.ACCESS_FINE_LOCATION
-        );
-        return permissionStateFine == PackageManager.PERMISSION_GRANTED
-                || permissionStateCoarse == PackageManager.PERMISSION_GRANTED;
-    }
-
-    private boolean isBluetoothPermissionsGranted(Context context) {
-        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.S) {
-            int permissionBtScan = ActivityCompat.checkSelfPermission(
-                    context,
-                    Manifest.permission.BLUETOOTH_SCAN
-            );
-            int permissionBtAdvertise = ActivityCompat.checkSelfPermission(
-                    context,
-                    Manifest.permission.BLUETOOTH_ADVERTISE
-            );
-            int permissionBtConnect = ActivityCompat.checkSelfPermission(
-                    context,
-                    Manifest.permission.BLUETOOTH_CONNECT
-            );
-            return permissionBtScan == PackageManager.PERMISSION_GRANTED && permissionBtAdvertise == PackageManager.PERMISSION_GRANTED && permissionBtConnect == PackageManager.PERMISSION_GRANTED;
+    /*
+        Without options every line is sent as "tag: message" string.
+        With options (see LogBuffer.start) lines are sent in batches:
+        {
+            "lines": [{ "time": long, "level": String, "tag": String, "message": String }],
+            "dropped": long // lines lost because js was not fast enough
+        }
+        "remoteLogging": true in options enables sdk remote logging as well.
+        "credits" in options enables flow control of the subscriber, see ackEvents.
+        All subscribers share the stream, the options of the first one define its format.
+     */
+    private void subscribeLogEvents(JSONObject options, CallbackContext callbackContext) {
+        if (!isSdkInitialized(callbackContext)) return;
+
+        logsChannel.subscribe(subscriptionId(options), callbackContext, options);
+        JBLog logger = JetBeepSDK.INSTANCE.getLogger();
+        if (options != null && options.optBoolean("remoteLogging", false)) {
+            logger.setRemoteLogging(true);
+        }
+        if (logsChannel.size() > 1) return;
+
+        if (options != null) {
+            logBuffer.start(options, this::sendLogBatch);
         } else {
-            return true;
+            try {
+                logBuffer.start(new JSONObject().put("batchSize", 1).put("flushIntervalMs", 0),
+                        this::sendLogLines);
+            } catch (JSONException e) {
+                e.printStackTrace();
+            }
         }
     }
 
-    private void subscribeLogEvents(CallbackContext callbackContext) {
+    private void unsubscribeLogEvents(JSONObject options, CallbackContext callbackContext) {
         if (!isSdkInitialized(callbackContext)) return;
 
-        loggerCallBack = callbackContext;
-        JBLog logger = JetBeepSDK.INSTANCE.getLogger();
-        logger.setRemoteLogging(true);
-        logger.subscribe(jetbeepLoggerListener);
+        if (logsChannel.unsubscribe(subscriptionId(options)) == null || !logsChannel.isEmpty()) {
+            callbackContext.success();
+            return;
+        }
+        logBuffer.stop();
+        callbackContext.success();
+    }
+
+    /*
+        Sdk log lines go to logBuffer from the init on, so getRecentLogs has them without
+        a subscriber. subscribeLogEvents only starts sending them, its filter applies only
+        to the sent lines.
+     */
+    private void recordSdkLogs() {
+        if (sdkLogsRecorded) return;
+        sdkLogsRecorded = true;
+        JetBeepSDK.INSTANCE.getLogger().subscribe(jetbeepLoggerListener);
     }
 
-    private void unsubscribeLogEvents(CallbackContext callbackContext) {
+    private void setRemoteLogging(boolean enabled, CallbackContext callbackContext) {
         if (!isSdkInitialized(callbackContext)) return;
 
-        loggerCallBack = null;
-        JetBeepSDK.INSTANCE.getLogger().unsubscribe(jetbeepLoggerListener);
+        JetBeepSDK.INSTANCE.getLogger().setRemoteLogging(enabled);
         callbackContext.success();
     }
 
-    private void gpsState(CallbackContext callbackContext) {
+    private void sendLogLines(List<LogBuffer.Entry> lines, long dropped) {
+        for (LogBuffer.Entry line : lines) {
+            logsChannel.send(new PluginResult(PluginResult.Status.OK,
+                    line.tag + ": " + line.message));
+        }
+    }
+
+    private void sendLogBatch(List<LogBuffer.Entry> lines, long dropped) {
+        if (logsChannel.isEmpty()) return;
+        JSONArray linesJson = new JSONArray();
+        for (LogBuffer.Entry line : lines) {
+            linesJson.put(line.toJson());
+        }
+        JSONObject batch = new JSONObject();
         try {
-            sendGpsState(callbackContext, false, isGpsEnabled());
-        } catch (Exception e) {
+            batch.put("lines", linesJson);
+            batch.put("dropped", dropped);
+        } catch (JSONException e) {
             e.printStackTrace();
-            callbackContext.error(e.getMessage());
         }
+        logsChannel.send(new PluginResult(PluginResult.Status.OK, batch));
     }
 
-    private void subscribeGpsEvents(CallbackContext callbackContext) {
-        runInUiThread(() -> {
-            gpsCallback = callbackContext;
-            cordova.getActivity().registerReceiver(gpsStateChangeReceiver, gpsFilter);
-        });
+    private void gpsState(CallbackContext callbackContext) {
+        sendGpsState(callbackContext, environment.getState().gps);
     }
 
-    private void unsubscribeGpsEvents(CallbackContext callbackContext) {
-        runInUiThread(() -> {
-            gpsCallback = null;
-            try {
-                cordova.getActivity().unregisterReceiver(gpsStateChangeReceiver);
-                gpsStateChangeReceiver.lastState = null;
-                callbackContext.success();
-            } catch (Exception e) {
-                e.printStackTrace();
-                callbackContext.error(e.getMessage());
-            }
-        });
+    private void subscribeGpsEvents(JSONObject options, CallbackContext callbackContext) {
+        environment.getState();
+        gpsChannel.subscribe(subscriptionId(options), callbackContext);
+    }
+
+    private void unsubscribeGpsEvents(JSONObject options, CallbackContext callbackContext) {
+        gpsChannel.unsubscribe(subscriptionId(options));
+        callbackContext.success();
     }
 
     private void requestPermissionsImpl() {
@@ -890,49 +2234,110 @@ public class JetBeepSDKPlugin extends CordovaPlugin {
         ActivityCompat.requestPermissions(cordova.getActivity(), permissions, 345);
     }
 
+    /*
+        Js timers of a background webview are throttled, so events are not pushed to it.
+        Only the latest event of every device and shop is kept and sent on resume when it
+        changes what js saw before the pause, logs are kept in logBuffer.
+     */
+    @Override
+    public void onPause(boolean multitasking) {
+        super.onPause(multitasking);
+        log("onPause");
+        pauseEventDelivery();
+    }
+
+    @Override
+    public void onStop() {
+        super.onStop();
+        pauseEventDelivery();
+    }
+
+    @Override
     public void onResume(boolean multitasking) {
         super.onResume(multitasking);
         log("onResume");
+        // permission dialogs and system settings return to the app with onResume
+        environment.refreshPermissions();
+        resumeEventDelivery();
         if (requestPermissionCallback != null) {
             isPermissionGranted(requestPermissionCallback);
             requestPermissionCallback = null;
         }
     }
 
-    private boolean isGpsEnabled() {
-        LocationManager locationManager = ContextCompat.getSystemService(cordova.getContext(),
-                LocationManager.class);
-        return locationManager.isProviderEnabled(LocationManager.GPS_PROVIDER);
+    private void pauseEventDelivery() {
+        backgrounded = true;
+        environmentPaused = true;
+        logBuffer.pause();
     }
 
-    private final BroadcastReceiver bluetoothStateChangeReceiver = new BroadcastReceiver() {
-        public void onReceive(Context context, Intent intent) {
-            if (BluetoothAdapter.ACTION_STATE_CHANGED.equals(intent.getAction())) {
-                int state = intent.getIntExtra(BluetoothAdapter.EXTRA_STATE,
-                        BluetoothAdapter.ERROR);
-                if (state == BluetoothAdapter.STATE_ON) {
-                    // bt is enabled
-                    sendBluetoothState(bluetoothStateCallback, true, true);
-                } else if (state == BluetoothAdapter.STATE_OFF) {
-                    // bt is disabled
-                    sendBluetoothState(bluetoothStateCallback, true, false);
+    private void resumeEventDelivery() {
+        environmentPaused = false;
+        EnvironmentMonitor.State before = environmentBeforePause;
+        environmentBeforePause = null;
+        if (before != null) {
+            EnvironmentMonitor.State current = environment.getState();
+            if (!before.sameAs(current)) {
+                onEnvironmentChanged(before, current);
+            }
+        }
+        // events posted to the worker before the resume are still kept in the buffers
+        runInWorker(() -> {
+            if (!backgrounded) return;
+            backgrounded = false;
+            for (BackgroundChanges.Change<CompactDeviceCodec.Event> change :
+                    backgroundDevices.drain()) {
+                DeviceStatus status = !change.present ? DeviceStatus.DeviceLost
+                        : !change.presentBefore ? DeviceStatus.DeviceDetected
+                        : DeviceStatus.valueOf(change.latest.status);
+                sendLockerDeviceEvent(change.latest.device, status);
+            }
+            for (BackgroundChanges.Change<String> change : backgroundLocations.drain()) {
+                // exit and enter of the same shop leave js state unchanged
+                if (change.presentBefore != change.present && !locationsChannel.isEmpty()) {
+                    locationsChannel.send(new PluginResult(PluginResult.Status.OK,
+                            change.latest));
                 }
             }
+            sendLocationSnapshot();
+            logBuffer.resume();
+        });
+    }
+
+    @Override
+    public void onDestroy() {
+        closeDeviceEventBatcher();
+        environment.stop();
+        // no apply result is journaled after the journal was closed
+        applyQueue.shutdown();
+        closeJournal();
+        if (sdkLogsRecorded) {
+            JetBeepSDK.INSTANCE.getLogger().unsubscribe(jetbeepLoggerListener);
         }
-    };
+        scannerLeases.releaseAll();
+        worker.shutdownNow();
+        applyExecutor.shutdownNow();
+        super.onDestroy();
+    }
 
-    private void sendBluetoothState(CallbackContext callbackContext, boolean setKeepCallback,
-                                    boolean btState) {
-        if (callbackContext != null) {
-            PluginResult result = new PluginResult(PluginResult.Status.OK,
-                    btStateToJson(btState));
-            if (setKeepCallback) {
-                result.setKeepCallback(true);
-            }
-            callbackContext.sendPluginResult(result);
+    /*
+        The journal is synced on the worker, the ui thread waits for it only a bounded time.
+     */
+    private void closeJournal() {
+        try {
+            worker.submit(journal::close).get(JOURNAL_CLOSE_TIMEOUT_MS, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException | TimeoutException e) {
+            e.printStackTrace();
         }
     }
 
+    private void sendBluetoothState(CallbackContext callbackContext, boolean btState) {
+        sendResult(CHANNEL_BLUETOOTH, callbackContext,
+                new PluginResult(PluginResult.Status.OK, btStateToJson(btState)));
+    }
+
     private JSONObject btStateToJson(boolean btState) {
         JSONObject result = new JSONObject();
         try {
@@ -944,19 +2349,9 @@ public class JetBeepSDKPlugin extends CordovaPlugin {
         return result;
     }
 
-    private final GpsStateChangeReceiver gpsStateChangeReceiver = new GpsStateChangeReceiver();
-
-    private void sendGpsState(CallbackContext callbackContext, boolean setKeepCallback,
-                              boolean gpsState) {
-        log("isGpsEnabled = " + gpsState);
-        if (callbackContext != null) {
-            PluginResult result = new PluginResult(PluginResult.Status.OK,
-                    gpsStateToJson(gpsState));
-            if (setKeepCallback) {
-                result.setKeepCallback(true);
-            }
-            callbackContext.sendPluginResult(result);
-        }
+    private void sendGpsState(CallbackContext callbackContext, boolean gpsState) {
+        sendResult(CHANNEL_GPS, callbackContext,
+                new PluginResult(PluginResult.Status.OK, gpsStateToJson(gpsState)));
     }
 
     private JSONObject gpsStateToJson(boolean gpsState) {
@@ -969,20 +2364,4 @@ public class JetBeepSDKPlugin extends CordovaPlugin {
         }
         return result;
     }
-
-    private class GpsStateChangeReceiver extends BroadcastReceiver {
-
-        private Boolean lastState = null;
-
-        @Override
-        public void onReceive(Context context, Intent intent) {
-            if (LocationManager.PROVIDERS_CHANGED_ACTION.equals(intent.getAction())) {
-                boolean isGps = isGpsEnabled();
-                if (lastState == null || lastState != isGps) {
-                    lastState = isGps;
-                    sendGpsState(gpsCallback, true, isGpsEnabled());
-                }
-            }
-        }
-    }
-}
\ No newline at end of file
+}
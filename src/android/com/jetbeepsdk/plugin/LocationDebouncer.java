@@ -0,0 +1,188 @@
+package com.jetbeepsdk.plugin;
+
+import com.jetbeep.model.entities.Shop;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Hysteresis for shop transitions of the sdk: an enter counts only after the shop was not
+ * left for dwellMs, an exit counts only after the shop was not entered again for graceMs.
+ * Opposite transitions inside these windows cancel each other and are never reported.
+ */
+class LocationDebouncer {
+
+    interface Listener {
+        void onShopEntered(Shop shop);
+
+        void onShopExit(Shop shop);
+
+        // an enter and an exit of this shop cancelled each other
+        void onCoalesced(Shop shop);
+    }
+
+    private static class State {
+        Shop shop;
+        // entered is the reported state, a pending task reports the opposite one
+        boolean entered = false;
+        ScheduledFuture<?> pending = null;
+        long pendingId = 0;
+
+        State(Shop shop) {
+            this.shop = shop;
+        }
+    }
+
+    private final ScheduledExecutorService scheduler;
+    private final long dwellMs;
+    private final long graceMs;
+    private final Listener listener;
+
+    private final Map<Integer, State> shops = new LinkedHashMap<>();
+    private long nextPendingId = 0;
+    private boolean closed = false;
+
+    LocationDebouncer(ScheduledExecutorService scheduler, long dwellMs, long graceMs,
+                      Listener listener) {
+        this.scheduler = scheduler;
+        this.dwellMs = Math.max(0, dwellMs);
+        this.graceMs = Math.max(0, graceMs);
+        this.listener = listener;
+    }
+
+    /**
+     * Marks a shop which was entered before the stream started, nothing is reported.
+     */
+    synchronized void seed(Shop shop) {
+        if (closed || shops.containsKey(shop.getId())) return;
+        State state = new State(shop);
+        state.entered = true;
+        shops.put(shop.getId(), state);
+    }
+
+    void enter(Shop shop) {
+        boolean coalesced = false;
+        synchronized (this) {
+            if (closed) return;
+            State state = shops.get(shop.getId());
+            if (state == null) {
+                state = new State(shop);
+                shops.put(shop.getId(), state);
+            }
+            state.shop = shop;
+            if (state.pending != null) {
+                if (!state.entered) return;
+                // back before the grace period of the exit is over
+                cancelPending(state);
+                coalesced = true;
+            } else if (state.entered) {
+                return;
+            } else if (dwellMs > 0) {
+                schedulePending(state, dwellMs);
+                return;
+            } else {
+                state.entered = true;
+            }
+        }
+        if (coalesced) {
+            listener.onCoalesced(shop);
+        } else {
+            listener.onShopEntered(shop);
+        }
+    }
+
+    void exit(Shop shop) {
+        boolean coalesced = false;
+        synchronized (this) {
+            if (closed) return;
+            State state = shops.get(shop.getId());
+            if (state == null) return;
+            state.shop = shop;
+            if (state.pending != null) {
+                if (state.entered) return;
+                // left before the dwell time of the enter is over
+                cancelPending(state);
+                shops.remove(shop.getId());
+                coalesced = true;
+            } else if (graceMs > 0) {
+                schedulePending(state, graceMs);
+                return;
+            } else {
+                shops.remove(shop.getId());
+            }
+        }
+        if (coalesced) {
+            listener.onCoalesced(shop);
+        } else {
+            listener.onShopExit(shop);
+        }
+    }
+
+    /**
+     * returns: shops with a reported enter and no reported exit
+     */
+    synchronized List<Shop> currentShops() {
+        List<Shop> result = new ArrayList<>();
+        for (State state : shops.values()) {
+            if (state.entered) {
+                result.add(state.shop);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Drops pending transitions, nothing will be reported after this call.
+     */
+    synchronized void close() {
+        closed = true;
+        for (State state : shops.values()) {
+            cancelPending(state);
+        }
+        shops.clear();
+    }
+
+    private void schedulePending(State state, long delayMs) {
+        long pendingId = ++nextPendingId;
+        int shopId = state.shop.getId();
+        state.pendingId = pendingId;
+        state.pending = scheduler.schedule(() -> report(shopId, pendingId),
+                delayMs, TimeUnit.MILLISECONDS);
+    }
+
+    private void cancelPending(State state) {
+        if (state.pending != null) {
+            state.pending.cancel(false);
+            state.pending = null;
+        }
+    }
+
+    private void report(int shopId, long pendingId) {
+        Shop shop;
+        boolean entered;
+        synchronized (this) {
+            State state = shops.get(shopId);
+            // a cancelled task which has already started
+            if (closed || state == null || state.pending == null || state.pendingId != pendingId) {
+                return;
+            }
+            state.pending = null;
+            state.entered = !state.entered;
+            if (!state.entered) {
+                shops.remove(shopId);
+            }
+            shop = state.shop;
+            entered = state.entered;
+        }
+        if (entered) {
+            listener.onShopEntered(shop);
+        } else {
+            listener.onShopExit(shop);
+        }
+    }
+}
@@ -0,0 +1,252 @@
+package com.jetbeepsdk.plugin;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Bounded ring buffer of sdk log lines. Every line is kept for {@link #recent(int)}, lines
+ * which pass the level and tag filter of start are flushed to the listener in batches by size
+ * or time threshold. Such lines overwritten before they were flushed are counted as dropped.
+ * While paused lines are only kept, resume flushes them at once.
+ */
+class LogBuffer {
+
+    interface FlushListener {
+        void onFlush(List<Entry> lines, long dropped);
+    }
+
+    static final int DEFAULT_CAPACITY = 500;
+    static final int DEFAULT_BATCH_SIZE = 50;
+    static final long DEFAULT_FLUSH_INTERVAL_MS = 500;
+
+    private static final String[] LEVELS = {"VERBOSE", "DEBUG", "INFO", "WARN", "ERROR"};
+
+    static class Entry {
+        final long time;
+        final String level;
+        final String tag;
+        final String message;
+
+        Entry(long time, String level, String tag, String message) {
+            this.time = time;
+            this.level = level;
+            this.tag = tag;
+            this.message = message;
+        }
+
+        JSONObject toJson() {
+            JSONObject result = new JSONObject();
+            try {
+                result.put("time", time);
+                result.put("level", level);
+                result.put("tag", tag);
+                result.put("message", message);
+            } catch (JSONException e) {
+                e.printStackTrace();
+            }
+            return result;
+        }
+    }
+
+    private final ScheduledExecutorService scheduler;
+    private final Entry[] entries;
+    // the line passes the filter of start, meaningful only for lines after flushed
+    private final boolean[] matched;
+
+    private long written = 0;
+    private long flushed = 0;
+    // matched lines after flushed
+    private long waiting = 0;
+    private long droppedSinceFlush = 0;
+    private long droppedTotal = 0;
+
+    private FlushListener listener = null;
+    private boolean paused = false;
+    private int minLevel = 0;
+    private Set<String> tags = null;
+    private int batchSize = DEFAULT_BATCH_SIZE;
+    private long flushIntervalMs = DEFAULT_FLUSH_INTERVAL_MS;
+    private ScheduledFuture<?> scheduledFlush = null;
+
+    LogBuffer(int capacity, ScheduledExecutorService scheduler) {
+        this.entries = new Entry[capacity];
+        this.matched = new boolean[capacity];
+        this.scheduler = scheduler;
+    }
+
+    /*
+        options:
+        {
+            "minLevel": String, // "VERBOSE", "DEBUG", "INFO", "WARN", "ERROR"
+            "tags": String[], // only lines with these tags, all tags when missing
+            "batchSize": int, // flush when this number of lines is waiting
+            "flushIntervalMs": int // flush at least this often while lines are waiting
+        }
+     */
+    synchronized void start(JSONObject options, FlushListener listener) {
+        this.listener = listener;
+        minLevel = levelRank(options.optString("minLevel", LEVELS[0]));
+        JSONArray tagsJson = options.optJSONArray("tags");
+        if (tagsJson != null && tagsJson.length() > 0) {
+            tags = new HashSet<>();
+            for (int i = 0; i < tagsJson.length(); i++) {
+                tags.add(tagsJson.optString(i));
+            }
+        } else {
+            tags = null;
+        }
+        batchSize = Math.max(1, options.optInt("batchSize", DEFAULT_BATCH_SIZE));
+        flushIntervalMs = Math.max(0, options.optLong("flushIntervalMs",
+                DEFAULT_FLUSH_INTERVAL_MS));
+        flushed = written;
+        waiting = 0;
+        droppedSinceFlush = 0;
+    }
+
+    /**
+     * Stops flushing, lines are still kept for recent().
+     */
+    synchronized void stop() {
+        listener = null;
+        minLevel = 0;
+        tags = null;
+        if (scheduledFlush != null) {
+            scheduledFlush.cancel(false);
+            scheduledFlush = null;
+        }
+    }
+
+    void add(long time, String level, String tag, String message) {
+        boolean flushNow;
+        synchronized (this) {
+            if (written - flushed == entries.length) {
+                // oldest line was not flushed yet
+                if (matched[(int) (flushed % entries.length)]) {
+                    waiting--;
+                    droppedSinceFlush++;
+                    droppedTotal++;
+                }
+                flushed++;
+            }
+            int index = (int) (written % entries.length);
+            entries[index] = new Entry(time, level, tag, message);
+            written++;
+
+            if (listener == null) {
+                // kept only for recent(), nothing waits to be sent
+                flushed = written;
+                return;
+            }
+            matched[index] = levelRank(level) >= minLevel && (tags == null || tags.contains(tag));
+            if (!matched[index]) return;
+            waiting++;
+            if (paused) return;
+            flushNow = waiting >= batchSize || flushIntervalMs == 0;
+            if (!flushNow && scheduledFlush == null) {
+                scheduledFlush = scheduler.schedule(this::flush, flushIntervalMs,
+                        TimeUnit.MILLISECONDS);
+            }
+        }
+        if (flushNow) {
+            scheduler.execute(this::flush);
+        }
+    }
+
+    synchronized void pause() {
+        paused = true;
+        if (scheduledFlush != null) {
+            scheduledFlush.cancel(false);
+            scheduledFlush = null;
+        }
+    }
+
+    void resume() {
+        synchronized (this) {
+            if (!paused) return;
+            paused = false;
+        }
+        flush();
+    }
+
+    void flush() {
+        FlushListener target;
+        List<Entry> lines;
+        long dropped;
+        synchronized (this) {
+            if (scheduledFlush != null) {
+                scheduledFlush.cancel(false);
+                scheduledFlush = null;
+            }
+            target = listener;
+            if (target == null || paused) return;
+            if (waiting == 0 && droppedSinceFlush == 0) {
+                // only lines which do not pass the filter since the last flush
+                flushed = written;
+                return;
+            }
+            lines = new ArrayList<>((int) waiting);
+            for (long i = flushed; i < written; i++) {
+                if (matched[(int) (i % entries.length)]) {
+                    lines.add(entries[(int) (i % entries.length)]);
+                }
+            }
+            dropped = droppedSinceFlush;
+            flushed = written;
+            waiting = 0;
+            droppedSinceFlush = 0;
+        }
+        target.onFlush(lines, dropped);
+    }
+
+    /*
+        {
+            "lines": [{ "time": long, "level": String, "tag": String, "message": String }],
+            "dropped": long // lines overwritten before they were sent since the buffer was created
+        }
+     */
+    synchronized JSONObject recent(int count) {
+        long from = Math.max(Math.max(0, written - entries.length), written - Math.max(0, count));
+        JSONArray lines = new JSONArray();
+        for (Entry entry : copy(from, written)) {
+            lines.put(entry.toJson());
+        }
+        JSONObject result = new JSONObject();
+        try {
+            result.put("lines", lines);
+            result.put("dropped", droppedTotal);
+        } catch (JSONException e) {
+            e.printStackTrace();
+        }
+        return result;
+    }
+
+    private List<Entry> copy(long from, long to) {
+        List<Entry> result = new ArrayList<>((int) (to - from));
+        for (long i = from; i < to; i++) {
+            result.add(entries[(int) (i % entries.length)]);
+        }
+        return result;
+    }
+
+    /*
+        Level names of the sdk are matched by the first letter, so "D", "DEBUG" and "Debug"
+        have the same rank.
+     */
+    private static int levelRank(String level) {
+        if (level == null || level.isEmpty()) return 1;
+        char first = Character.toUpperCase(level.charAt(0));
+        for (int i = 0; i < LEVELS.length; i++) {
+            if (LEVELS[i].charAt(0) == first) return i;
+        }
+        return 1;
+    }
+}
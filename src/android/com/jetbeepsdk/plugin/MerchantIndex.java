@@ -0,0 +1,128 @@
+package com.jetbeepsdk.plugin;
+
+import com.jetbeep.model.entities.Merchant;
+import com.jetbeep.model.entities.Shop;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Entered shops grouped by merchant, so a merchant is entered with its first shop and left
+ * with its last one. Merchant json is built once per merchant id and "merchantImage"
+ * is sent only with the first event of the merchant in the stream.
+ */
+class MerchantIndex {
+
+    private final Map<Integer, Set<Integer>> enteredShops = new HashMap<>();
+    private final Map<Integer, JSONObject> merchants = new HashMap<>();
+    // entered merchants without details from the sdk yet, their enter is sent with putMerchant
+    private final Set<Integer> awaitingDetails = new HashSet<>();
+    private final Set<Integer> imagesSent = new HashSet<>();
+
+    /**
+     * Adds a shop which was entered before the stream started, no merchant event is due.
+     */
+    synchronized void seed(Shop shop) {
+        shops(shop.getMerchantId()).add(shop.getId());
+    }
+
+    /**
+     * returns: merchant id when this is the first entered shop of a merchant with known details,
+     * otherwise null
+     */
+    synchronized Integer shopEntered(Shop shop) {
+        int merchantId = shop.getMerchantId();
+        Set<Integer> shops = shops(merchantId);
+        if (!shops.add(shop.getId()) || shops.size() > 1) return null;
+        if (!merchants.containsKey(merchantId)) {
+            awaitingDetails.add(merchantId);
+            return null;
+        }
+        return merchantId;
+    }
+
+    /**
+     * returns: merchant id when this was the last entered shop of a merchant whose enter was
+     * sent, otherwise null
+     */
+    synchronized Integer shopExit(Shop shop) {
+        int merchantId = shop.getMerchantId();
+        Set<Integer> shops = enteredShops.get(merchantId);
+        if (shops == null || !shops.remove(shop.getId()) || !shops.isEmpty()) return null;
+        enteredShops.remove(merchantId);
+        return awaitingDetails.remove(merchantId) ? null : merchantId;
+    }
+
+    /**
+     * returns: true when the enter of this merchant was waiting for its details
+     */
+    synchronized boolean putMerchant(Merchant merchant) {
+        if (!merchants.containsKey(merchant.getId())) {
+            merchants.put(merchant.getId(), merchantToJson(merchant));
+        }
+        return awaitingDetails.remove(merchant.getId());
+    }
+
+    /* Merchant object
+        {
+            "merchantId" : int,
+            "merchantName" : String,
+            "merchantImage" : String // only in the first event of the merchant
+        }
+    */
+    synchronized JSONObject toJson(int merchantId) {
+        JSONObject merchant = merchants.get(merchantId);
+        JSONObject result = new JSONObject();
+        try {
+            result.put("merchantId", merchantId);
+            if (merchant != null) {
+                result.put("merchantName", merchant.opt("merchantName"));
+                if (imagesSent.add(merchantId)) {
+                    result.put("merchantImage", merchant.opt("merchantImage"));
+                }
+            }
+        } catch (JSONException e) {
+            e.printStackTrace();
+        }
+        return result;
+    }
+
+    /**
+     * Images are sent again, used when a new subscriber joins the stream.
+     */
+    synchronized void resetSentImages() {
+        imagesSent.clear();
+    }
+
+    synchronized void clear() {
+        enteredShops.clear();
+        awaitingDetails.clear();
+        imagesSent.clear();
+    }
+
+    private Set<Integer> shops(int merchantId) {
+        Set<Integer> shops = enteredShops.get(merchantId);
+        if (shops == null) {
+            shops = new HashSet<>();
+            enteredShops.put(merchantId, shops);
+        }
+        return shops;
+    }
+
+    private static JSONObject merchantToJson(Merchant merchant) {
+        JSONObject result = new JSONObject();
+        try {
+            result.put("merchantId", merchant.getId());
+            result.put("merchantName", merchant.getName());
+            result.put("merchantImage", merchant.getImage());
+        } catch (JSONException e) {
+            e.printStackTrace();
+        }
+        return result;
+    }
+}
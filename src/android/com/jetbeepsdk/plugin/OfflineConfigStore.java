@@ -0,0 +1,118 @@
+package com.jetbeepsdk.plugin;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+/**
+ * Last offline config passed to initWithOfflineConfig, stored as "<version>.json" where
+ * version is sha-256 of the config. Next starts can pass only the version from js,
+ * the file is then read through a memory mapping instead of being sent over the bridge.
+ */
+class OfflineConfigStore {
+
+    static final String DIR_NAME = "jetbeep_offline_config";
+    private static final String SUFFIX = ".json";
+
+    private final File dir;
+
+    OfflineConfigStore(File filesDir) {
+        this.dir = new File(filesDir, DIR_NAME);
+    }
+
+    static String version(String config) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            byte[] hash = digest.digest(config.getBytes(StandardCharsets.UTF_8));
+            StringBuilder result = new StringBuilder(hash.length * 2);
+            for (byte b : hash) {
+                result.append(Character.forDigit((b >> 4) & 0x0F, 16));
+                result.append(Character.forDigit(b & 0x0F, 16));
+            }
+            return result.toString();
+        } catch (NoSuchAlgorithmException e) {
+            // SHA-256 is available on every android version
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * returns: version of the stored config or null when nothing is stored
+     */
+    synchronized String currentVersion() {
+        File[] files = dir.listFiles((d, name) -> name.endsWith(SUFFIX));
+        if (files == null || files.length == 0) return null;
+        String name = files[0].getName();
+        return name.substring(0, name.length() - SUFFIX.length());
+    }
+
+    /**
+     * Stores the config and removes all older versions, nothing is written when
+     * this version is stored already.
+     */
+    synchronized void save(String version, String config) {
+        File file = file(version);
+        if (!file.exists()) {
+            if (!dir.isDirectory() && !dir.mkdirs()) return;
+            // write to a temporary file first, a killed process must not leave a broken config
+            File tmp = new File(dir, version + ".tmp");
+            try (FileOutputStream output = new FileOutputStream(tmp)) {
+                output.write(config.getBytes(StandardCharsets.UTF_8));
+                output.getFD().sync();
+            } catch (IOException e) {
+                e.printStackTrace();
+                tmp.delete();
+                return;
+            }
+            if (!tmp.renameTo(file)) {
+                tmp.delete();
+                return;
+            }
+        }
+        File[] files = dir.listFiles();
+        if (files != null) {
+            for (File other : files) {
+                if (!other.equals(file)) {
+                    other.delete();
+                }
+            }
+        }
+    }
+
+    /**
+     * returns: stored config of this version or null when it is not stored
+     */
+    synchronized String load(String version) {
+        if (!isVersion(version)) return null;
+        File file = file(version);
+        if (!file.exists()) return null;
+        try (RandomAccessFile input = new RandomAccessFile(file, "r");
+             FileChannel channel = input.getChannel()) {
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            return StandardCharsets.UTF_8.decode(buffer).toString();
+        } catch (IOException e) {
+            e.printStackTrace();
+            file.delete();
+            return null;
+        }
+    }
+
+    private File file(String version) {
+        return new File(dir, version + SUFFIX);
+    }
+
+    // version comes from js, it must not be able to point outside of dir
+    private static boolean isVersion(String version) {
+        if (version == null || version.length() != 64) return false;
+        for (int i = 0; i < version.length(); i++) {
+            if (Character.digit(version.charAt(i), 16) < 0) return false;
+        }
+        return true;
+    }
+}
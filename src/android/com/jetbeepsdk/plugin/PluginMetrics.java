@@ -0,0 +1,201 @@
+package com.jetbeepsdk.plugin;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Counters and latency histograms of the plugin, all times are in milliseconds.
+ */
+class PluginMetrics {
+
+    private static final long[] BUCKETS_MS =
+            {1, 2, 5, 10, 20, 50, 100, 200, 500, 1000, 2000, 5000, 10000, 30000};
+
+    static class Histogram {
+        private final long[] counts = new long[BUCKETS_MS.length + 1];
+        private long count = 0;
+        private double sumMs = 0;
+        private double maxMs = 0;
+
+        synchronized void record(double ms) {
+            int i = 0;
+            while (i < BUCKETS_MS.length && ms > BUCKETS_MS[i]) i++;
+            counts[i]++;
+            count++;
+            sumMs += ms;
+            maxMs = Math.max(maxMs, ms);
+        }
+
+        /*
+            {
+                "count": long,
+                "avgMs": double,
+                "maxMs": double,
+                "p50Ms": long, "p90Ms": long, "p99Ms": long, // upper bound of the bucket
+                "buckets": { "1": long, "2": long, ..., "inf": long }
+            }
+         */
+        synchronized JSONObject toJson() throws JSONException {
+            JSONObject result = new JSONObject();
+            result.put("count", count);
+            result.put("avgMs", count > 0 ? sumMs / count : 0);
+            result.put("maxMs", maxMs);
+            result.put("p50Ms", percentile(0.5));
+            result.put("p90Ms", percentile(0.9));
+            result.put("p99Ms", percentile(0.99));
+            JSONObject buckets = new JSONObject();
+            for (int i = 0; i < counts.length; i++) {
+                if (counts[i] > 0) {
+                    buckets.put(i < BUCKETS_MS.length ? String.valueOf(BUCKETS_MS[i]) : "inf",
+                            counts[i]);
+                }
+            }
+            result.put("buckets", buckets);
+            return result;
+        }
+
+        private long percentile(double p) {
+            if (count == 0) return 0;
+            long rank = (long) Math.ceil(count * p);
+            long seen = 0;
+            for (int i = 0; i < counts.length; i++) {
+                seen += counts[i];
+                if (seen >= rank) {
+                    return i < BUCKETS_MS.length ? BUCKETS_MS[i] : (long) Math.ceil(maxMs);
+                }
+            }
+            return (long) Math.ceil(maxMs);
+        }
+    }
+
+    private static class ChannelCounter {
+        long results = 0;
+        long payloadChars = 0;
+    }
+
+    private final long startedAt = System.currentTimeMillis();
+    private final Map<String, Histogram> actionQueueWait = new TreeMap<>();
+    private final Map<String, Histogram> actionExecution = new TreeMap<>();
+    private final Map<String, ChannelCounter> channels = new TreeMap<>();
+    private final Map<String, Long> counters = new TreeMap<>();
+    private final Histogram timeToFirstDevice = new Histogram();
+    private final Histogram applyLatency = new Histogram();
+    private long applySuccess = 0;
+    private long applyFailure = 0;
+
+    void recordAction(String action, long queueWaitNanos, long executionNanos) {
+        histogram(actionQueueWait, action).record(queueWaitNanos / 1e6);
+        histogram(actionExecution, action).record(executionNanos / 1e6);
+    }
+
+    void recordResult(String channel, int payloadChars) {
+        synchronized (channels) {
+            ChannelCounter counter = channels.get(channel);
+            if (counter == null) {
+                counter = new ChannelCounter();
+                channels.put(channel, counter);
+            }
+            counter.results++;
+            counter.payloadChars += payloadChars;
+        }
+    }
+
+    void increment(String counter) {
+        synchronized (counters) {
+            Long value = counters.get(counter);
+            counters.put(counter, value != null ? value + 1 : 1);
+        }
+    }
+
+    void recordTimeToFirstDevice(long nanos) {
+        timeToFirstDevice.record(nanos / 1e6);
+    }
+
+    void recordApply(boolean success, long nanos) {
+        applyLatency.record(nanos / 1e6);
+        synchronized (this) {
+            if (success) {
+                applySuccess++;
+            } else {
+                applyFailure++;
+            }
+        }
+    }
+
+    /*
+        {
+            "uptimeMs": long,
+            "actions": { "<action>": { "queueWait": Histogram, "execution": Histogram } },
+            "channels": { "<channel>": { "results": long, "payloadChars": long } },
+            "counters": { "<counter>": long },
+            "timeToFirstDevice": Histogram,
+            "apply": { "success": long, "failure": long, "latency": Histogram }
+        }
+        payloadChars counts chars of the sent messages, not utf8 bytes.
+     */
+    JSONObject toJson() {
+        JSONObject result = new JSONObject();
+        try {
+            result.put("uptimeMs", System.currentTimeMillis() - startedAt);
+
+            JSONObject actions = new JSONObject();
+            synchronized (actionExecution) {
+                for (Map.Entry<String, Histogram> entry : actionExecution.entrySet()) {
+                    JSONObject action = new JSONObject();
+                    action.put("queueWait", actionQueueWait.get(entry.getKey()).toJson());
+                    action.put("execution", entry.getValue().toJson());
+                    actions.put(entry.getKey(), action);
+                }
+            }
+            result.put("actions", actions);
+
+            JSONObject channelsJson = new JSONObject();
+            synchronized (channels) {
+                for (Map.Entry<String, ChannelCounter> entry : channels.entrySet()) {
+                    JSONObject channel = new JSONObject();
+                    channel.put("results", entry.getValue().results);
+                    channel.put("payloadChars", entry.getValue().payloadChars);
+                    channelsJson.put(entry.getKey(), channel);
+                }
+            }
+            result.put("channels", channelsJson);
+
+            JSONObject countersJson = new JSONObject();
+            synchronized (counters) {
+                for (Map.Entry<String, Long> entry : counters.entrySet()) {
+                    countersJson.put(entry.getKey(), entry.getValue());
+                }
+            }
+            result.put("counters", countersJson);
+
+            result.put("timeToFirstDevice", timeToFirstDevice.toJson());
+
+            JSONObject apply = new JSONObject();
+            synchronized (this) {
+                apply.put("success", applySuccess);
+                apply.put("failure", applyFailure);
+            }
+            apply.put("latency", applyLatency.toJson());
+            result.put("apply", apply);
+        } catch (JSONException e) {
+            e.printStackTrace();
+        }
+        return result;
+    }
+
+    private Histogram histogram(Map<String, Histogram> histograms, String action) {
+        // both maps are guarded by actionExecution, so they always have the same keys
+        synchronized (actionExecution) {
+            Histogram histogram = histograms.get(action);
+            if (histogram == null) {
+                actionQueueWait.put(action, new Histogram());
+                actionExecution.put(action, new Histogram());
+                histogram = histograms.get(action);
+            }
+            return histogram;
+        }
+    }
+}
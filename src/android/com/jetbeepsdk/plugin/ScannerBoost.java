@@ -0,0 +1,188 @@
+package com.jetbeepsdk.plugin;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Connectable devices of the searched tokens which keep the scanner boosted while they are near.
+ * At most maxDevices devices are boosted, the least recently used one is released for a new one,
+ * and a device is released after idleMs without detection or apply.
+ * What boosting means is up to the Booster, see JetBeepSDKPlugin.scannerBoost.
+ */
+class ScannerBoost {
+
+    interface Booster {
+        void start(int deviceId);
+
+        void stop(int deviceId);
+    }
+
+    static final int DEFAULT_MAX_DEVICES = 2;
+    static final long DEFAULT_IDLE_MS = 20 * 1000L;
+
+    private static class Boosted {
+        ScheduledFuture<?> idle;
+        long idleSeq;
+    }
+
+    private final Booster booster;
+    private final ScheduledExecutorService scheduler;
+    // in access order, the first one is the least recently used
+    private final LinkedHashMap<Integer, Boosted> boosted = new LinkedHashMap<>(16, 0.75f, true);
+    private long idleSeq = 0;
+
+    private boolean enabled = false;
+    private int maxDevices = DEFAULT_MAX_DEVICES;
+    private long idleMs = DEFAULT_IDLE_MS;
+
+    ScannerBoost(Booster booster, ScheduledExecutorService scheduler) {
+        this.booster = booster;
+        this.scheduler = scheduler;
+    }
+
+    /*
+        config:
+        {
+            "enabled": boolean,
+            "maxDevices": int, // boosted devices at the same time, default 2
+            "idleMs": int // default 20000
+        }
+     */
+    void configure(JSONObject config) {
+        List<Integer> released = new ArrayList<>();
+        synchronized (this) {
+            enabled = config.optBoolean("enabled", enabled);
+            maxDevices = Math.max(1, config.optInt("maxDevices", maxDevices));
+            idleMs = Math.max(1, config.optLong("idleMs", idleMs));
+            int keep = enabled ? maxDevices : 0;
+            Iterator<Map.Entry<Integer, Boosted>> oldest = boosted.entrySet().iterator();
+            while (boosted.size() > keep) {
+                Map.Entry<Integer, Boosted> entry = oldest.next();
+                entry.getValue().idle.cancel(false);
+                oldest.remove();
+                released.add(entry.getKey());
+            }
+        }
+        for (int deviceId : released) {
+            booster.stop(deviceId);
+        }
+    }
+
+    /**
+     * Called when a connectable device of the searched tokens is seen.
+     *
+     * returns: true when the device was not boosted before
+     */
+    boolean offer(int deviceId) {
+        Integer evicted = null;
+        synchronized (this) {
+            if (!enabled) return false;
+            if (boosted.containsKey(deviceId)) {
+                scheduleIdle(deviceId);
+                return false;
+            }
+            if (boosted.size() >= maxDevices) {
+                Iterator<Map.Entry<Integer, Boosted>> oldest = boosted.entrySet().iterator();
+                Map.Entry<Integer, Boosted> entry = oldest.next();
+                entry.getValue().idle.cancel(false);
+                oldest.remove();
+                evicted = entry.getKey();
+            }
+            scheduleIdle(deviceId);
+        }
+        if (evicted != null) {
+            booster.stop(evicted);
+        }
+        booster.start(deviceId);
+        return true;
+    }
+
+    /**
+     * Called before an apply, the device stays boosted for the following applies.
+     *
+     * returns: true when the device was boosted
+     */
+    synchronized boolean touch(int deviceId) {
+        if (!boosted.containsKey(deviceId)) return false;
+        scheduleIdle(deviceId);
+        return true;
+    }
+
+    void remove(int deviceId) {
+        synchronized (this) {
+            Boosted removed = boosted.remove(deviceId);
+            if (removed == null) return;
+            removed.idle.cancel(false);
+        }
+        booster.stop(deviceId);
+    }
+
+    void clear() {
+        List<Integer> released;
+        synchronized (this) {
+            released = new ArrayList<>(boosted.keySet());
+            for (Boosted device : boosted.values()) {
+                device.idle.cancel(false);
+            }
+            boosted.clear();
+        }
+        for (int deviceId : released) {
+            booster.stop(deviceId);
+        }
+    }
+
+    /*
+        {
+            "enabled": boolean,
+            "maxDevices": int,
+            "idleMs": long,
+            "devices": int[] // boosted deviceIds, the least recently used first
+        }
+     */
+    synchronized JSONObject toJson() {
+        JSONObject result = new JSONObject();
+        try {
+            result.put("enabled", enabled);
+            result.put("maxDevices", maxDevices);
+            result.put("idleMs", idleMs);
+            result.put("devices", new JSONArray(boosted.keySet()));
+        } catch (JSONException e) {
+            e.printStackTrace();
+        }
+        return result;
+    }
+
+    private void scheduleIdle(int deviceId) {
+        Boosted device = boosted.get(deviceId);
+        if (device != null) {
+            device.idle.cancel(false);
+        } else {
+            device = new Boosted();
+            boosted.put(deviceId, device);
+        }
+        long seq = ++idleSeq;
+        device.idleSeq = seq;
+        device.idle = scheduler.schedule(() -> expire(deviceId, seq), idleMs,
+                TimeUnit.MILLISECONDS);
+    }
+
+    private void expire(int deviceId, long seq) {
+        synchronized (this) {
+            Boosted device = boosted.get(deviceId);
+            // the device was used again after this timeout was scheduled
+            if (device == null || device.idleSeq != seq) return;
+            boosted.remove(deviceId);
+        }
+        booster.stop(deviceId);
+    }
+}
@@ -0,0 +1,203 @@
+package com.jetbeepsdk.plugin;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Owns the foreground scanner. Every consumer holds a lease with its own scan intensity,
+ * the scanner runs with the highest requested intensity and is stopped after the linger
+ * time of the last released lease.
+ */
+class ScannerLeaseManager {
+
+    interface Scanner {
+        void start();
+
+        void stop();
+    }
+
+    enum Intensity {
+        // scanOnMs <= 0 means continuous scanning
+        LOW(2 * 1000L, 8 * 1000L),
+        BALANCED(5 * 1000L, 5 * 1000L),
+        HIGH(0, 0);
+
+        final long scanOnMs;
+        final long scanOffMs;
+
+        Intensity(long scanOnMs, long scanOffMs) {
+            this.scanOnMs = scanOnMs;
+            this.scanOffMs = scanOffMs;
+        }
+
+        static Intensity fromString(String value, Intensity defaultValue) {
+            if (value == null || value.isEmpty()) return defaultValue;
+            try {
+                return valueOf(value.toUpperCase());
+            } catch (IllegalArgumentException e) {
+                return defaultValue;
+            }
+        }
+    }
+
+    static final long DEFAULT_LINGER_MS = 30 * 1000L;
+
+    private static class Lease {
+        final Intensity intensity;
+        final long lingerMs;
+
+        Lease(Intensity intensity, long lingerMs) {
+            this.intensity = intensity;
+            this.lingerMs = lingerMs;
+        }
+    }
+
+    private final Scanner scanner;
+    private final ScheduledExecutorService scheduler;
+    private final Map<String, Lease> leases = new HashMap<>();
+
+    private Intensity activeIntensity = null;
+    private boolean scanning = false;
+    private ScheduledFuture<?> cycleTask = null;
+    private long cycleGeneration = 0;
+    private ScheduledFuture<?> lingerTask = null;
+
+    ScannerLeaseManager(Scanner scanner, ScheduledExecutorService scheduler) {
+        this.scanner = scanner;
+        this.scheduler = scheduler;
+    }
+
+    /**
+     * Takes or replaces the lease of the owner.
+     */
+    synchronized void acquire(String owner, Intensity intensity, long lingerMs) {
+        leases.put(owner, new Lease(intensity, Math.max(0, lingerMs)));
+        cancel(lingerTask);
+        lingerTask = null;
+        apply(aggregateIntensity());
+    }
+
+    synchronized void release(String owner) {
+        Lease lease = leases.remove(owner);
+        if (lease == null) return;
+
+        if (!leases.isEmpty()) {
+            apply(aggregateIntensity());
+        } else if (lease.lingerMs == 0) {
+            stopAll();
+        } else {
+            // keep a cheap duty cycle for a while, a new lease is likely to come soon
+            apply(Intensity.LOW);
+            lingerTask = scheduler.schedule(this::onLingerElapsed, lease.lingerMs,
+                    TimeUnit.MILLISECONDS);
+        }
+    }
+
+    synchronized void releaseAll() {
+        leases.clear();
+        stopAll();
+    }
+
+    /*
+        {
+            "intensity": String, // missing when the scanner is stopped
+            "scanning": boolean,
+            "leases": [{ "owner": String, "intensity": String, "lingerMs": long }]
+        }
+     */
+    synchronized JSONObject stateToJson() {
+        JSONObject result = new JSONObject();
+        try {
+            if (activeIntensity != null) {
+                result.put("intensity", activeIntensity.name());
+            }
+            result.put("scanning", scanning);
+            JSONArray leasesJson = new JSONArray();
+            for (Map.Entry<String, Lease> entry : leases.entrySet()) {
+                JSONObject lease = new JSONObject();
+                lease.put("owner", entry.getKey());
+                lease.put("intensity", entry.getValue().intensity.name());
+                lease.put("lingerMs", entry.getValue().lingerMs);
+                leasesJson.put(lease);
+            }
+            result.put("leases", leasesJson);
+        } catch (JSONException e) {
+            e.printStackTrace();
+        }
+        return result;
+    }
+
+    private synchronized void onLingerElapsed() {
+        lingerTask = null;
+        if (leases.isEmpty()) {
+            stopAll();
+        }
+    }
+
+    private Intensity aggregateIntensity() {
+        Intensity result = Intensity.LOW;
+        for (Lease lease : leases.values()) {
+            if (lease.intensity.compareTo(result) > 0) {
+                result = lease.intensity;
+            }
+        }
+        return result;
+    }
+
+    private void apply(Intensity intensity) {
+        if (intensity == activeIntensity) return;
+        activeIntensity = intensity;
+        cancel(cycleTask);
+        cycleTask = null;
+        setScanning(true);
+        if (intensity.scanOnMs > 0) {
+            scheduleCyclePhase(++cycleGeneration, intensity.scanOnMs);
+        }
+    }
+
+    private void scheduleCyclePhase(long generation, long delayMs) {
+        cycleTask = scheduler.schedule(() -> onCyclePhaseElapsed(generation), delayMs,
+                TimeUnit.MILLISECONDS);
+    }
+
+    private synchronized void onCyclePhaseElapsed(long generation) {
+        Intensity intensity = activeIntensity;
+        // intensity was changed after this phase had been scheduled
+        if (generation != cycleGeneration || intensity == null || intensity.scanOnMs <= 0) return;
+        setScanning(!scanning);
+        scheduleCyclePhase(generation, scanning ? intensity.scanOnMs : intensity.scanOffMs);
+    }
+
+    private void stopAll() {
+        cancel(cycleTask);
+        cancel(lingerTask);
+        cycleTask = null;
+        lingerTask = null;
+        cycleGeneration++;
+        activeIntensity = null;
+        setScanning(false);
+    }
+
+    private void setScanning(boolean scanning) {
+        if (this.scanning == scanning) return;
+        this.scanning = scanning;
+        if (scanning) {
+            scanner.start();
+        } else {
+            scanner.stop();
+        }
+    }
+
+    private static void cancel(ScheduledFuture<?> task) {
+        if (task != null) {
+            task.cancel(false);
+        }
+    }
+}
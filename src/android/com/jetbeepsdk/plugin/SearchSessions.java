@@ -0,0 +1,185 @@
+package com.jetbeepsdk.plugin;
+
+import com.jetbeep.connection.locker.Token;
+
+import org.json.JSONObject;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * searchDevices sessions, one per subscription of the devices stream. Every session has its
+ * own tokens and priority, the sdk runs one search with the tokens of all sessions and
+ * a device event goes only to the sessions whose tokens include the device.
+ * Events are routed on sdk threads, so every change publishes a new immutable list;
+ * open, close and the search state are changed only on the worker.
+ */
+class SearchSessions {
+
+    interface DeviceIdOf<T> {
+        int deviceId(T event);
+    }
+
+    static class Session {
+        final String id;
+        final int priority;
+        // options of searchDevices, the scanner settings of the top session are used
+        final JSONObject options;
+        final Map<String, Token> tokens;
+        // null when the session has no tokens and takes every device of the search
+        final Set<Integer> deviceIds;
+
+        Session(String id, int priority, JSONObject options, Map<String, Token> tokens) {
+            this.id = id;
+            this.priority = priority;
+            this.options = options;
+            this.tokens = tokens;
+            if (tokens.isEmpty()) {
+                deviceIds = null;
+            } else {
+                deviceIds = new HashSet<>();
+                for (Token token : tokens.values()) {
+                    deviceIds.add(token.getDeviceId());
+                }
+            }
+        }
+
+        boolean matches(int deviceId) {
+            return deviceIds == null || deviceIds.contains(deviceId);
+        }
+
+        /**
+         * returns: events of the batch this session takes, the same list when it takes all
+         */
+        <T> List<T> filter(List<T> batch, DeviceIdOf<T> deviceIdOf) {
+            if (deviceIds == null) return batch;
+            List<T> result = null;
+            for (int i = 0; i < batch.size(); i++) {
+                T event = batch.get(i);
+                boolean matches = matches(deviceIdOf.deviceId(event));
+                if (matches && result != null) {
+                    result.add(event);
+                } else if (!matches && result == null) {
+                    result = new ArrayList<>(batch.subList(0, i));
+                }
+            }
+            return result != null ? result : batch;
+        }
+    }
+
+    // by priority, higher first, sessions with the same priority in the order they were opened
+    private volatile List<Session> sessions = Collections.emptyList();
+    // tokens of the running sdk search, null when there is no search
+    private Set<String> searchTokens = null;
+    // the running sdk search has no tokens and finds every device
+    private boolean searchUnrestricted = false;
+
+    List<Session> list() {
+        return sessions;
+    }
+
+    boolean isEmpty() {
+        return sessions.isEmpty();
+    }
+
+    Session top() {
+        List<Session> current = sessions;
+        return current.isEmpty() ? null : current.get(0);
+    }
+
+    /**
+     * returns: replaced session with the same id or null
+     */
+    synchronized Session open(Session session) {
+        List<Session> next = new ArrayList<>(sessions.size() + 1);
+        Session replaced = null;
+        for (Session existing : sessions) {
+            if (existing.id.equals(session.id)) {
+                replaced = existing;
+            } else {
+                next.add(existing);
+            }
+        }
+        int position = 0;
+        while (position < next.size() && next.get(position).priority >= session.priority) {
+            position++;
+        }
+        next.add(position, session);
+        sessions = Collections.unmodifiableList(next);
+        return replaced;
+    }
+
+    /**
+     * returns: closed session or null when there was no session with this id
+     */
+    synchronized Session close(String id) {
+        List<Session> next = new ArrayList<>(sessions);
+        for (int i = 0; i < next.size(); i++) {
+            if (next.get(i).id.equals(id)) {
+                Session closed = next.remove(i);
+                sessions = Collections.unmodifiableList(next);
+                return closed;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * returns: true when a session has a token of the device, sessions without tokens
+     * do not count
+     */
+    boolean hasToken(int deviceId) {
+        for (Session session : sessions) {
+            if (session.deviceIds != null && session.deviceIds.contains(deviceId)) return true;
+        }
+        return false;
+    }
+
+    boolean isSearching() {
+        return searchTokens != null;
+    }
+
+    /**
+     * returns: true when the running sdk search already has all tokens of the session,
+     * a session without tokens is covered only by a search without tokens
+     */
+    boolean isCovered(Session session) {
+        if (searchTokens == null) return false;
+        if (searchUnrestricted) return true;
+        return session.deviceIds != null && searchTokens.containsAll(session.tokens.keySet());
+    }
+
+    /**
+     * returns: tokens of all sessions for the sdk search, null when a session has no tokens
+     * or no session has tokens, the search then finds every device
+     */
+    List<Token> mergedTokens() {
+        Map<String, Token> merged = new LinkedHashMap<>();
+        for (Session session : sessions) {
+            if (session.deviceIds == null) return null;
+            merged.putAll(session.tokens);
+        }
+        return merged.isEmpty() ? null : new ArrayList<>(merged.values());
+    }
+
+    void searchStarted() {
+        Set<String> tokens = new HashSet<>();
+        boolean unrestricted = sessions.isEmpty();
+        for (Session session : sessions) {
+            tokens.addAll(session.tokens.keySet());
+            unrestricted |= session.deviceIds == null;
+        }
+        searchTokens = tokens;
+        searchUnrestricted = unrestricted;
+    }
+
+    void searchStopped() {
+        searchTokens = null;
+        searchUnrestricted = false;
+    }
+}
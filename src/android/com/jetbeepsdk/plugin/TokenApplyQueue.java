@@ -0,0 +1,323 @@
+package com.jetbeepsdk.plugin;
+
+import com.jetbeep.connection.locker.Lockers;
+import com.jetbeep.connection.locker.Token;
+import com.jetbeep.connection.locker.TokenResult;
+
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+import androidx.annotation.NonNull;
+import kotlin.ResultKt;
+import kotlin.coroutines.Continuation;
+import kotlin.coroutines.ContinuationKt;
+import kotlin.coroutines.CoroutineContext;
+import kotlin.jvm.functions.Function1;
+import kotlinx.coroutines.CompletableJob;
+import kotlinx.coroutines.CoroutineDispatcher;
+import kotlinx.coroutines.ExecutorsKt;
+import kotlinx.coroutines.SupervisorKt;
+
+/**
+ * Bounded queue of {@link Lockers#apply} calls. Every job runs as a coroutine on the given
+ * executor with its own Job, so it can be cancelled from js or by its timeout.
+ * The number of running applies is limited globally and per device.
+ *
+ * A failed apply is retried after a jittered exponential backoff while its timeout allows,
+ * and failures are counted by the DeviceCircuitBreaker, which fails applies on an open
+ * device without calling the sdk.
+ */
+class TokenApplyQueue {
+
+    interface ApplyCallback {
+        void onResult(TokenResult result);
+
+        void onError(String message);
+    }
+
+    enum SubmitStatus {
+        queued,
+        // the queue is full or jobId is already used
+        rejected,
+        // the device is open in the DeviceCircuitBreaker, the apply fails with ERROR_CIRCUIT_OPEN
+        circuitOpen
+    }
+
+    static final int DEFAULT_MAX_QUEUED = 32;
+    static final int DEFAULT_MAX_PER_DEVICE = 1;
+    static final long DEFAULT_TIMEOUT_MS = 30 * 1000L;
+    static final int DEFAULT_RETRIES = 0;
+    static final long DEFAULT_RETRY_BASE_MS = 250;
+    static final long DEFAULT_RETRY_MAX_MS = 4 * 1000L;
+
+    static final String ERROR_CIRCUIT_OPEN = "Device circuit is open";
+
+    private final CoroutineDispatcher dispatcher;
+    private final ScheduledExecutorService timer;
+    private final DeviceCircuitBreaker breaker;
+    private final CompletableJob parentJob = SupervisorKt.SupervisorJob(null);
+    private final AtomicLong idGenerator = new AtomicLong();
+
+    private final ArrayDeque<ApplyJob> pending = new ArrayDeque<>();
+    private final Map<String, ApplyJob> jobs = new HashMap<>();
+    private final Map<Integer, Integer> runningPerDevice = new HashMap<>();
+    private int running = 0;
+
+    private int maxRunning;
+    private int maxQueued = DEFAULT_MAX_QUEUED;
+    private int maxPerDevice = DEFAULT_MAX_PER_DEVICE;
+    private long defaultTimeoutMs = DEFAULT_TIMEOUT_MS;
+    private int retries = DEFAULT_RETRIES;
+    private long retryBaseMs = DEFAULT_RETRY_BASE_MS;
+    private long retryMaxMs = DEFAULT_RETRY_MAX_MS;
+
+    TokenApplyQueue(ExecutorService executor, int maxRunning, ScheduledExecutorService timer) {
+        this(executor, maxRunning, timer, new DeviceCircuitBreaker());
+    }
+
+    TokenApplyQueue(ExecutorService executor, int maxRunning, ScheduledExecutorService timer,
+                    DeviceCircuitBreaker breaker) {
+        this.dispatcher = ExecutorsKt.from(executor);
+        this.maxRunning = maxRunning;
+        this.timer = timer;
+        this.breaker = breaker;
+    }
+
+    synchronized void configure(int maxRunning, int maxQueued, int maxPerDevice, long timeoutMs) {
+        if (maxRunning > 0) this.maxRunning = maxRunning;
+        if (maxQueued > 0) this.maxQueued = maxQueued;
+        if (maxPerDevice > 0) this.maxPerDevice = maxPerDevice;
+        if (timeoutMs > 0) this.defaultTimeoutMs = timeoutMs;
+        startPending();
+    }
+
+    /**
+     * @param retries attempts after the first failed one, unchanged when < 0
+     * @param baseMs  backoff before the first retry, doubled for every next one up to maxMs
+     */
+    synchronized void configureRetries(int retries, long baseMs, long maxMs) {
+        if (retries >= 0) this.retries = retries;
+        if (baseMs > 0) this.retryBaseMs = baseMs;
+        if (maxMs > 0) this.retryMaxMs = maxMs;
+    }
+
+    /**
+     * @param jobId     id used by js to cancel the job, generated when null
+     * @param timeoutMs time from submit until the job fails, default timeout when <= 0
+     * @return callback is called only for queued jobs, the caller answers the other statuses
+     */
+    SubmitStatus submit(Lockers lockers, Token token, String jobId, long timeoutMs,
+                        ApplyCallback callback) {
+        String id = jobId != null ? jobId : "apply-" + idGenerator.incrementAndGet();
+        synchronized (this) {
+            if (pending.size() >= maxQueued || jobs.containsKey(id)) return SubmitStatus.rejected;
+        }
+        // without the queue lock, the breaker notifies its listener
+        if (!breaker.allow(token.getDeviceId())) return SubmitStatus.circuitOpen;
+
+        synchronized (this) {
+            if (pending.size() < maxQueued && !jobs.containsKey(id)) {
+                ApplyJob job = new ApplyJob(id, lockers, token, callback);
+                jobs.put(id, job);
+                pending.add(job);
+                long timeout = timeoutMs > 0 ? timeoutMs : defaultTimeoutMs;
+                job.timeout = timer.schedule(() -> timeout(job), timeout, TimeUnit.MILLISECONDS);
+                startPending();
+                return SubmitStatus.queued;
+            }
+        }
+        breaker.onAbandoned(token.getDeviceId());
+        return SubmitStatus.rejected;
+    }
+
+    boolean cancel(String jobId) {
+        ApplyJob job;
+        synchronized (this) {
+            job = jobs.get(jobId);
+        }
+        if (job == null) return false;
+        if (fail(job, "Apply cancelled")) {
+            breaker.onAbandoned(job.deviceId);
+        }
+        return true;
+    }
+
+    /**
+     * Cancels all jobs, the queue can not be used after this call.
+     */
+    void shutdown() {
+        parentJob.cancel(null);
+        synchronized (this) {
+            for (ApplyJob job : jobs.values()) {
+                if (job.finished.compareAndSet(false, true)) {
+                    job.timeout.cancel(false);
+                }
+            }
+            jobs.clear();
+            pending.clear();
+        }
+    }
+
+    /*
+        Only an attempt which was running at the timeout counts as a failure of the device,
+        a job which waited in the queue or for its retry has not reached it.
+     */
+    private void timeout(ApplyJob job) {
+        boolean attemptRunning;
+        synchronized (this) {
+            attemptRunning = job.running;
+        }
+        if (!fail(job, "Apply timeout")) return;
+        if (attemptRunning) {
+            breaker.onFailure(job.deviceId);
+        } else {
+            breaker.onAbandoned(job.deviceId);
+        }
+    }
+
+    /**
+     * returns: false when the job has already finished
+     */
+    private boolean fail(ApplyJob job, String message) {
+        if (!job.finished.compareAndSet(false, true)) return false;
+        job.timeout.cancel(false);
+        synchronized (this) {
+            if (pending.remove(job) || job.retry != null) {
+                jobs.remove(job.id);
+            }
+            if (job.retry != null) {
+                job.retry.cancel(false);
+                job.retry = null;
+            }
+        }
+        // running job keeps its device slot until the coroutine is really completed
+        job.coroutineJob.cancel(null);
+        job.callback.onError(message);
+        return true;
+    }
+
+    /**
+     * returns: true when the failed attempt is retried, the job keeps its id
+     */
+    private synchronized boolean scheduleRetry(ApplyJob job) {
+        if (job.finished.get() || job.attempt >= retries || breaker.isOpen(job.deviceId)) {
+            return false;
+        }
+        job.attempt++;
+        long backoff = Math.min(retryMaxMs, retryBaseMs << Math.min(job.attempt - 1, 20));
+        // equal jitter: devices failed together do not retry together
+        long delay = backoff / 2 + ThreadLocalRandom.current().nextLong(backoff / 2 + 1);
+        job.retry = timer.schedule(() -> {
+            synchronized (this) {
+                job.retry = null;
+                if (job.finished.get()) return;
+                pending.addFirst(job);
+            }
+            startPending();
+        }, delay, TimeUnit.MILLISECONDS);
+        return true;
+    }
+
+    private synchronized void startPending() {
+        Iterator<ApplyJob> iterator = pending.iterator();
+        while (running < maxRunning && iterator.hasNext()) {
+            ApplyJob job = iterator.next();
+            int deviceRunning = runningPerDevice.getOrDefault(job.deviceId, 0);
+            if (deviceRunning >= maxPerDevice) continue;
+
+            iterator.remove();
+            running++;
+            runningPerDevice.put(job.deviceId, deviceRunning + 1);
+            job.running = true;
+            job.start();
+        }
+    }
+
+    private synchronized void onCompleted(ApplyJob job, boolean retried) {
+        if (!retried) {
+            jobs.remove(job.id);
+        }
+        running--;
+        job.running = false;
+        int deviceRunning = runningPerDevice.getOrDefault(job.deviceId, 1) - 1;
+        if (deviceRunning > 0) {
+            runningPerDevice.put(job.deviceId, deviceRunning);
+        } else {
+            runningPerDevice.remove(job.deviceId);
+        }
+        startPending();
+    }
+
+    private class ApplyJob implements Continuation<TokenResult> {
+
+        final String id;
+        final Lockers lockers;
+        final Token token;
+        final int deviceId;
+        final ApplyCallback callback;
+        final CompletableJob coroutineJob = SupervisorKt.SupervisorJob(parentJob);
+        final CoroutineContext context = dispatcher.plus(coroutineJob);
+        final AtomicBoolean finished = new AtomicBoolean(false);
+        ScheduledFuture<?> timeout;
+        // pending retry and the running attempt, accessed with the queue lock
+        ScheduledFuture<?> retry = null;
+        boolean running = false;
+        int attempt = 0;
+
+        ApplyJob(String id, Lockers lockers, Token token, ApplyCallback callback) {
+            this.id = id;
+            this.lockers = lockers;
+            this.token = token;
+            this.deviceId = token.getDeviceId();
+            this.callback = callback;
+        }
+
+        void start() {
+            Function1<Continuation<? super TokenResult>, Object> block =
+                    continuation -> lockers.apply(token, continuation);
+            ContinuationKt.startCoroutine(block, this);
+        }
+
+        @NonNull
+        @Override
+        public CoroutineContext getContext() {
+            return context;
+        }
+
+        @Override
+        public void resumeWith(@NonNull Object o) {
+            Throwable error = null;
+            try {
+                ResultKt.throwOnFailure(o);
+            } catch (Throwable e) {
+                error = e;
+            }
+            // cancelled by fail, which has already answered
+            boolean retried = false;
+            if (error != null && !finished.get() && !(error instanceof CancellationException)) {
+                breaker.onFailure(deviceId);
+                retried = scheduleRetry(this);
+            }
+            onCompleted(this, retried);
+            if (retried || !finished.compareAndSet(false, true)) return;
+            timeout.cancel(false);
+            if (error == null) {
+                breaker.onSuccess(deviceId);
+                callback.onResult((TokenResult) o);
+            } else {
+                error.printStackTrace();
+                callback.onError(error.toString());
+            }
+        }
+    }
+}
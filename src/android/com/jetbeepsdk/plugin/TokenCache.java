@@ -0,0 +1,78 @@
+package com.jetbeepsdk.plugin;
+
+import com.jetbeep.connection.locker.Token;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * LRU cache of parsed tokens, keyed by the raw token string received from js.
+ */
+class TokenCache {
+
+    static final int DEFAULT_MAX_ENTRIES = 128;
+
+    private final int maxEntries;
+    private final LinkedHashMap<String, Token> tokens;
+    private long hits = 0;
+    private long misses = 0;
+
+    TokenCache(int maxEntries) {
+        this.maxEntries = maxEntries;
+        this.tokens = new LinkedHashMap<String, Token>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Token> eldest) {
+                return size() > TokenCache.this.maxEntries;
+            }
+        };
+    }
+
+    Token get(String tokenString) {
+        synchronized (this) {
+            Token token = tokens.get(tokenString);
+            if (token != null) {
+                hits++;
+                return token;
+            }
+            misses++;
+        }
+        // parse outside of the lock, failed tokens are not cached
+        Token token = Token.Companion.createToken(tokenString);
+        synchronized (this) {
+            tokens.put(tokenString, token);
+        }
+        return token;
+    }
+
+    synchronized void invalidate(String tokenString) {
+        tokens.remove(tokenString);
+    }
+
+    synchronized void clear() {
+        tokens.clear();
+    }
+
+    /*
+        {
+            "size": int,
+            "maxSize": int,
+            "hits": long,
+            "misses": long
+        }
+     */
+    synchronized JSONObject statsToJson() {
+        JSONObject result = new JSONObject();
+        try {
+            result.put("size", tokens.size());
+            result.put("maxSize", maxEntries);
+            result.put("hits", hits);
+            result.put("misses", misses);
+        } catch (JSONException e) {
+            e.printStackTrace();
+        }
+        return result;
+    }
+}
@@ -0,0 +1,139 @@
+package com.jetbeepsdk.plugin;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Last known entered shops and visible devices, persisted so they can be answered on cold start
+ * before the sdk has synced its repository. getShops and getDevices return copies marked with
+ * "stale": true and "savedAt": long (ms since epoch when the state was current), so js can
+ * tell them from live objects.
+ *
+ * File content:
+ * {
+ *     "savedAt": long,
+ *     "shops": [...], // same objects as getEnteredShops
+ *     "devices": [...] // same objects as getNearbyDevices
+ * }
+ */
+class WarmStateStore {
+
+    static final String FILE_NAME = "jetbeep_warm_state.json";
+    private static final long SAVE_DELAY_MS = 2 * 1000L;
+
+    private final File file;
+    private final ScheduledExecutorService scheduler;
+
+    private JSONArray shops = null;
+    private JSONArray devices = null;
+    private long shopsSavedAt = 0;
+    private long devicesSavedAt = 0;
+    private ScheduledFuture<?> scheduledSave = null;
+
+    WarmStateStore(File dir, ScheduledExecutorService scheduler) {
+        this.file = new File(dir, FILE_NAME);
+        this.scheduler = scheduler;
+    }
+
+    synchronized void load() {
+        if (!file.exists()) return;
+        try (FileInputStream input = new FileInputStream(file)) {
+            byte[] bytes = new byte[(int) file.length()];
+            int read = 0;
+            while (read < bytes.length) {
+                int count = input.read(bytes, read, bytes.length - read);
+                if (count < 0) break;
+                read += count;
+            }
+            JSONObject state = new JSONObject(new String(bytes, 0, read, StandardCharsets.UTF_8));
+            shops = state.optJSONArray("shops");
+            devices = state.optJSONArray("devices");
+            shopsSavedAt = state.optLong("savedAt", file.lastModified());
+            devicesSavedAt = shopsSavedAt;
+        } catch (IOException | JSONException e) {
+            e.printStackTrace();
+            file.delete();
+        }
+    }
+
+    synchronized JSONArray getShops() {
+        return stale(shops, shopsSavedAt);
+    }
+
+    synchronized JSONArray getDevices() {
+        return stale(devices, devicesSavedAt);
+    }
+
+    synchronized void updateShops(JSONArray shops) {
+        this.shops = shops;
+        shopsSavedAt = System.currentTimeMillis();
+        scheduleSave();
+    }
+
+    synchronized void updateDevices(JSONArray devices) {
+        this.devices = devices;
+        devicesSavedAt = System.currentTimeMillis();
+        scheduleSave();
+    }
+
+    private static JSONArray stale(JSONArray objects, long savedAt) {
+        if (objects == null) return null;
+        JSONArray result = new JSONArray();
+        try {
+            for (int i = 0; i < objects.length(); i++) {
+                JSONObject object = new JSONObject(objects.getJSONObject(i).toString());
+                object.put("stale", true);
+                object.put("savedAt", savedAt);
+                result.put(object);
+            }
+        } catch (JSONException e) {
+            e.printStackTrace();
+        }
+        return result;
+    }
+
+    private void scheduleSave() {
+        if (scheduledSave == null) {
+            scheduledSave = scheduler.schedule(this::save, SAVE_DELAY_MS, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    private void save() {
+        String content;
+        synchronized (this) {
+            scheduledSave = null;
+            JSONObject state = new JSONObject();
+            try {
+                state.put("savedAt", System.currentTimeMillis());
+                state.put("shops", shops != null ? shops : new JSONArray());
+                state.put("devices", devices != null ? devices : new JSONArray());
+            } catch (JSONException e) {
+                e.printStackTrace();
+                return;
+            }
+            content = state.toString();
+        }
+        // write to a temporary file first, a killed process must not leave a broken snapshot
+        File tmp = new File(file.getPath() + ".tmp");
+        try (FileOutputStream output = new FileOutputStream(tmp)) {
+            output.write(content.getBytes(StandardCharsets.UTF_8));
+            output.getFD().sync();
+        } catch (IOException e) {
+            e.printStackTrace();
+            return;
+        }
+        if (!tmp.renameTo(file)) {
+            tmp.delete();
+        }
+    }
+}
@@ -0,0 +1,31 @@
+package android.app;
+
+import android.content.Context;
+import android.content.Intent;
+
+import java.util.concurrent.Executor;
+
+/**
+ * Fake activity, runOnUiThread posts to the executor which plays the ui thread.
+ */
+public class Activity extends Context {
+
+    private final Executor uiThread;
+    private final Application application = new Application();
+
+    public Activity(Executor uiThread) {
+        this.uiThread = uiThread;
+    }
+
+    @Override
+    public Context getApplicationContext() {
+        return application;
+    }
+
+    public void runOnUiThread(Runnable action) {
+        uiThread.execute(action);
+    }
+
+    public void startActivityForResult(Intent intent, int requestCode) {
+    }
+}
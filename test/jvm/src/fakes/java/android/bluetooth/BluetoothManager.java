@@ -0,0 +1,10 @@
+package android.bluetooth;
+
+public class BluetoothManager {
+
+    private final BluetoothAdapter adapter = new BluetoothAdapter();
+
+    public BluetoothAdapter getAdapter() {
+        return adapter;
+    }
+}
@@ -0,0 +1,74 @@
+package android.content;
+
+import android.bluetooth.BluetoothManager;
+import android.location.LocationManager;
+
+import java.io.File;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * Fake context with the system services used by the plugin and a registry of receivers,
+ * sendBroadcast delivers an intent to every registered receiver on the calling thread.
+ */
+public class Context {
+
+    public static final String BLUETOOTH_SERVICE = "bluetooth";
+    public static final String LOCATION_SERVICE = "location";
+
+    private static File filesDir = new File(System.getProperty("java.io.tmpdir"));
+    private static final BluetoothManager bluetoothManager = new BluetoothManager();
+    private static final LocationManager locationManager = new LocationManager();
+    private static final List<BroadcastReceiver> receivers = new CopyOnWriteArrayList<>();
+
+    public static void setFilesDir(File dir) {
+        filesDir = dir;
+    }
+
+    public Context getApplicationContext() {
+        return this;
+    }
+
+    public File getFilesDir() {
+        return filesDir;
+    }
+
+    public Object getSystemService(String name) {
+        if (BLUETOOTH_SERVICE.equals(name)) return bluetoothManager;
+        if (LOCATION_SERVICE.equals(name)) return locationManager;
+        return null;
+    }
+
+    public <T> T getSystemService(Class<T> serviceClass) {
+        if (serviceClass == BluetoothManager.class) return serviceClass.cast(bluetoothManager);
+        if (serviceClass == LocationManager.class) return serviceClass.cast(locationManager);
+        return null;
+    }
+
+    public Intent registerReceiver(BroadcastReceiver receiver, IntentFilter filter) {
+        receivers.add(receiver);
+        return null;
+    }
+
+    public void unregisterReceiver(BroadcastReceiver receiver) {
+        if (!receivers.remove(receiver)) {
+            throw new IllegalArgumentException("Receiver not registered: " + receiver);
+        }
+    }
+
+    public void sendBroadcast(Intent intent) {
+        for (BroadcastReceiver receiver : receivers) {
+            receiver.onReceive(this, intent);
+        }
+    }
+
+    public static int registeredReceivers() {
+        return receivers.size();
+    }
+
+    public static void reset() {
+        receivers.clear();
+        bluetoothManager.getAdapter().setEnabled(true);
+        locationManager.setGpsEnabled(true);
+    }
+}
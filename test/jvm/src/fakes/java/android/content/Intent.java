@@ -0,0 +1,28 @@
+package android.content;
+
+import java.util.HashMap;
+import java.util.Map;
+
+public class Intent {
+
+    private final String action;
+    private final Map<String, Integer> intExtras = new HashMap<>();
+
+    public Intent(String action) {
+        this.action = action;
+    }
+
+    public String getAction() {
+        return action;
+    }
+
+    public Intent putExtra(String name, int value) {
+        intExtras.put(name, value);
+        return this;
+    }
+
+    public int getIntExtra(String name, int defaultValue) {
+        Integer value = intExtras.get(name);
+        return value != null ? value : defaultValue;
+    }
+}
@@ -0,0 +1,17 @@
+package android.location;
+
+public class LocationManager {
+
+    public static final String GPS_PROVIDER = "gps";
+    public static final String PROVIDERS_CHANGED_ACTION = "android.location.PROVIDERS_CHANGED";
+
+    private volatile boolean gpsEnabled = true;
+
+    public boolean isProviderEnabled(String provider) {
+        return GPS_PROVIDER.equals(provider) && gpsEnabled;
+    }
+
+    public void setGpsEnabled(boolean gpsEnabled) {
+        this.gpsEnabled = gpsEnabled;
+    }
+}
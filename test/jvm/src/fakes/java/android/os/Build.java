@@ -0,0 +1,13 @@
+package android.os;
+
+public class Build {
+
+    public static class VERSION {
+        public static final int SDK_INT = 32;
+    }
+
+    public static class VERSION_CODES {
+        public static final int P = 28;
+        public static final int S = 31;
+    }
+}
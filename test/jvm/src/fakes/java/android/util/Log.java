@@ -0,0 +1,14 @@
+package android.util;
+
+public final class Log {
+
+    // -Dfakes.log=true prints plugin logs
+    private static final boolean ENABLED = Boolean.getBoolean("fakes.log");
+
+    public static int d(String tag, String msg) {
+        if (ENABLED) {
+            System.out.println(tag + ": " + msg);
+        }
+        return 0;
+    }
+}
@@ -0,0 +1,29 @@
+package androidx.core.app;
+
+import android.app.Activity;
+import android.content.Context;
+import android.content.pm.PackageManager;
+
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArraySet;
+
+public class ActivityCompat {
+
+    private static final Set<String> denied = new CopyOnWriteArraySet<>();
+
+    public static int checkSelfPermission(Context context, String permission) {
+        return denied.contains(permission)
+                ? PackageManager.PERMISSION_DENIED : PackageManager.PERMISSION_GRANTED;
+    }
+
+    public static void requestPermissions(Activity activity, String[] permissions, int requestCode) {
+    }
+
+    public static void setDenied(String permission, boolean isDenied) {
+        if (isDenied) {
+            denied.add(permission);
+        } else {
+            denied.remove(permission);
+        }
+    }
+}
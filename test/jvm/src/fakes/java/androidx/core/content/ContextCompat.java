@@ -0,0 +1,10 @@
+package androidx.core.content;
+
+import android.content.Context;
+
+public class ContextCompat {
+
+    public static <T> T getSystemService(Context context, Class<T> serviceClass) {
+        return context.getSystemService(serviceClass);
+    }
+}
@@ -0,0 +1,5 @@
+package com.jetbeep;
+
+public enum JetBeepRegistrationType {
+    ANONYMOUS
+}
@@ -0,0 +1,95 @@
+package com.jetbeep;
+
+import android.app.Application;
+
+import com.jetbeep.background.scanner.BleScanner;
+import com.jetbeep.connection.Connections;
+import com.jetbeep.connection.locker.Token;
+import com.jetbeep.locations.Locations;
+import com.jetbeep.logger.JBLog;
+import com.jetbeep.model.Repository;
+
+/**
+ * Fake sdk, every part is a fake which can be driven from tests, see reset.
+ */
+public final class JetBeepSDK {
+
+    public static final JetBeepSDK INSTANCE = new JetBeepSDK();
+
+    private volatile boolean initialized = false;
+    private volatile boolean backgroundActive = false;
+    private volatile OfflineConfig offlineConfig = null;
+    private volatile Connections connections = new Connections();
+    private volatile Locations locations = new Locations();
+    private volatile BleScanner bleScanner = new BleScanner();
+    private volatile Repository repository = new Repository();
+    private volatile JBLog logger = new JBLog();
+
+    private JetBeepSDK() {
+    }
+
+    public void init(Application app, String serviceUUID, String appName, String appToken,
+                     JetBeepRegistrationType registrationType, boolean debug) {
+        initialized = true;
+    }
+
+    public void init(Application app, String serviceUUID, OfflineConfig config) {
+        offlineConfig = config;
+        initialized = true;
+    }
+
+    public boolean isInitialized() {
+        return initialized;
+    }
+
+    public boolean getBackgroundActive() {
+        return backgroundActive;
+    }
+
+    public void enableBackground() {
+        backgroundActive = true;
+    }
+
+    public Connections getConnections() {
+        return connections;
+    }
+
+    public Locations getLocations() {
+        return locations;
+    }
+
+    public BleScanner getBleScanner() {
+        return bleScanner;
+    }
+
+    public Repository getRepository() {
+        return repository;
+    }
+
+    public JBLog getLogger() {
+        return logger;
+    }
+
+    public JBLog.Logger getLogger(String tag) {
+        return new JBLog.Logger(tag);
+    }
+
+    public OfflineConfig getOfflineConfig() {
+        return offlineConfig;
+    }
+
+    /**
+     * Not initialized sdk with fresh fakes.
+     */
+    public void reset() {
+        initialized = false;
+        backgroundActive = false;
+        offlineConfig = null;
+        connections = new Connections();
+        locations = new Locations();
+        bleScanner = new BleScanner();
+        repository = new Repository();
+        logger = new JBLog();
+        Token.Companion.reset();
+    }
+}
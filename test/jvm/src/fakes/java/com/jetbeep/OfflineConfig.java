@@ -0,0 +1,26 @@
+package com.jetbeep;
+
+public class OfflineConfig {
+
+    public static final Companion Companion = new Companion();
+
+    private final String json;
+
+    private OfflineConfig(String json) {
+        this.json = json;
+    }
+
+    public String getJson() {
+        return json;
+    }
+
+    public static final class Companion {
+
+        public OfflineConfig fromJson(String json) {
+            if (json == null || !json.startsWith("{")) {
+                throw new IllegalArgumentException("Wrong offline config");
+            }
+            return new OfflineConfig(json);
+        }
+    }
+}
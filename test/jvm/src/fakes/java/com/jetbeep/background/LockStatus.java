@@ -0,0 +1,8 @@
+package com.jetbeep.background;
+
+public enum LockStatus {
+    UNKNOWN,
+    OPENED,
+    CLOSED,
+    ERROR
+}
@@ -0,0 +1,24 @@
+package com.jetbeep.background;
+
+import java.nio.charset.StandardCharsets;
+
+public class UserData {
+
+    private final byte[] data;
+
+    public UserData(byte[] data) {
+        this.data = data;
+    }
+
+    public UserData(String utf8) {
+        this(utf8.getBytes(StandardCharsets.UTF_8));
+    }
+
+    public byte[] getData() {
+        return data;
+    }
+
+    public String utf8() {
+        return new String(data, StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,26 @@
+package com.jetbeep.background.scanner;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class BleScanner {
+
+    private volatile boolean foregroundScannerStarted = false;
+    private final AtomicInteger starts = new AtomicInteger();
+
+    public boolean isForegroundScannerStarted() {
+        return foregroundScannerStarted;
+    }
+
+    public void startForegroundScanner() {
+        foregroundScannerStarted = true;
+        starts.incrementAndGet();
+    }
+
+    public void stopForegroundScanner() {
+        foregroundScannerStarted = false;
+    }
+
+    public int getStarts() {
+        return starts.get();
+    }
+}
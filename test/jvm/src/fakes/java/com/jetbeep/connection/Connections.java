@@ -0,0 +1,12 @@
+package com.jetbeep.connection;
+
+import com.jetbeep.connection.locker.Lockers;
+
+public class Connections {
+
+    private final Lockers lockers = new Lockers();
+
+    public Lockers getLockers() {
+        return lockers;
+    }
+}
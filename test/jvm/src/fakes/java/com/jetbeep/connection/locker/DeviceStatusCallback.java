@@ -0,0 +1,14 @@
+package com.jetbeep.connection.locker;
+
+import java.util.List;
+
+public interface DeviceStatusCallback {
+
+    void onLockerDeviceLockStateChanged(LockerDevice lockerDevice);
+
+    void onLockerDeviceStatusChanged(List<LockerDevice> list);
+
+    void onLockerDeviceLost(LockerDevice lockerDevice);
+
+    void onLockerDeviceDetected(LockerDevice lockerDevice);
+}
@@ -0,0 +1,21 @@
+package com.jetbeep.connection.locker;
+
+import com.jetbeep.model.entities.Device;
+
+public class LockerDevice {
+
+    private final Device device;
+
+    public LockerDevice(Device device) {
+        this.device = device;
+    }
+
+    public Device getDevice() {
+        return device;
+    }
+
+    @Override
+    public String toString() {
+        return "LockerDevice(" + device.getDeviceId() + ")";
+    }
+}
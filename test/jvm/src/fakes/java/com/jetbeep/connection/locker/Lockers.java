@@ -0,0 +1,119 @@
+package com.jetbeep.connection.locker;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+
+import kotlin.coroutines.Continuation;
+import kotlin.coroutines.intrinsics.IntrinsicsKt;
+
+/**
+ * Fake lockers. Devices are driven by detect, lose and changeStatus, which call the
+ * subscribed callbacks on the calling thread like the sdk does on its own threads.
+ */
+public class Lockers {
+
+    private final List<DeviceStatusCallback> callbacks = new CopyOnWriteArrayList<>();
+    private final Map<Integer, LockerDevice> visible = new ConcurrentHashMap<>();
+    private final AtomicInteger searchStarts = new AtomicInteger();
+    private volatile List<Token> searchTokens = null;
+    private volatile boolean searching = false;
+    private volatile Function<Token, TokenResult> applyHandler =
+            token -> new TokenResult(new byte[]{1});
+    private final List<Continuation<? super TokenResult>> suspendedApplies =
+            new CopyOnWriteArrayList<>();
+
+    public void subscribe(DeviceStatusCallback callback) {
+        if (!callbacks.contains(callback)) {
+            callbacks.add(callback);
+        }
+    }
+
+    public void unsubscribe(DeviceStatusCallback callback) {
+        callbacks.remove(callback);
+    }
+
+    public List<LockerDevice> getVisibleDevices() {
+        return new ArrayList<>(visible.values());
+    }
+
+    public void startSearch(List<Token> tokens) {
+        searchTokens = tokens != null ? tokens : Collections.emptyList();
+        searching = true;
+        searchStarts.incrementAndGet();
+    }
+
+    public void stopSearch() {
+        searching = false;
+    }
+
+    /**
+     * Answers with applyHandler, or suspends until resumeApplies when it returns null.
+     */
+    public Object apply(Token token, Continuation<? super TokenResult> continuation) {
+        TokenResult result = applyHandler.apply(token);
+        if (result == null) {
+            suspendedApplies.add(continuation);
+            return IntrinsicsKt.getCOROUTINE_SUSPENDED();
+        }
+        return result;
+    }
+
+    public void setApplyHandler(Function<Token, TokenResult> applyHandler) {
+        this.applyHandler = applyHandler;
+    }
+
+    public void resumeApplies(TokenResult result) {
+        for (Continuation<? super TokenResult> continuation : suspendedApplies) {
+            suspendedApplies.remove(continuation);
+            continuation.resumeWith(result);
+        }
+    }
+
+    public void detect(LockerDevice device) {
+        visible.put(device.getDevice().getDeviceId(), device);
+        for (DeviceStatusCallback callback : callbacks) {
+            callback.onLockerDeviceDetected(device);
+        }
+    }
+
+    public void lose(LockerDevice device) {
+        visible.remove(device.getDevice().getDeviceId());
+        for (DeviceStatusCallback callback : callbacks) {
+            callback.onLockerDeviceLost(device);
+        }
+    }
+
+    public void changeStatus(List<LockerDevice> devices) {
+        for (DeviceStatusCallback callback : callbacks) {
+            callback.onLockerDeviceStatusChanged(devices);
+        }
+    }
+
+    public void changeLockState(LockerDevice device) {
+        for (DeviceStatusCallback callback : callbacks) {
+            callback.onLockerDeviceLockStateChanged(device);
+        }
+    }
+
+    public boolean isSearching() {
+        return searching;
+    }
+
+    public List<Token> getSearchTokens() {
+        return searchTokens;
+    }
+
+    public int getSearchStarts() {
+        return searchStarts.get();
+    }
+
+    public int getSubscribers() {
+        return callbacks.size();
+    }
+}
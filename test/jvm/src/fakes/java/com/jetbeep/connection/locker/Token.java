@@ -0,0 +1,49 @@
+package com.jetbeep.connection.locker;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Fake token, the raw string is "deviceId:anything".
+ */
+public class Token {
+
+    public static final Companion Companion = new Companion();
+
+    private final String raw;
+    private final int deviceId;
+
+    private Token(String raw, int deviceId) {
+        this.raw = raw;
+        this.deviceId = deviceId;
+    }
+
+    public int getDeviceId() {
+        return deviceId;
+    }
+
+    public String getRaw() {
+        return raw;
+    }
+
+    public static final class Companion {
+
+        private final AtomicInteger created = new AtomicInteger();
+
+        public Token createToken(String raw) {
+            int separator = raw.indexOf(':');
+            if (separator <= 0) {
+                throw new IllegalArgumentException("Wrong token: " + raw);
+            }
+            created.incrementAndGet();
+            return new Token(raw, Integer.parseInt(raw.substring(0, separator)));
+        }
+
+        public int getCreated() {
+            return created.get();
+        }
+
+        public void reset() {
+            created.set(0);
+        }
+    }
+}
@@ -0,0 +1,14 @@
+package com.jetbeep.connection.locker;
+
+public class TokenResult {
+
+    private final byte[] result;
+
+    public TokenResult(byte[] result) {
+        this.result = result;
+    }
+
+    public byte[] getResult() {
+        return result;
+    }
+}
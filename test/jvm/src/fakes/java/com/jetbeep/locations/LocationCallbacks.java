@@ -0,0 +1,15 @@
+package com.jetbeep.locations;
+
+import com.jetbeep.model.entities.Merchant;
+import com.jetbeep.model.entities.Shop;
+
+public interface LocationCallbacks {
+
+    void onShopExit(Shop shop);
+
+    void onShopEntered(Shop shop);
+
+    void onMerchantExit(Merchant merchant);
+
+    void onMerchantEntered(Merchant merchant, Shop shop);
+}
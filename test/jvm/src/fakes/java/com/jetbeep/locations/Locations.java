@@ -0,0 +1,48 @@
+package com.jetbeep.locations;
+
+import com.jetbeep.model.entities.Merchant;
+import com.jetbeep.model.entities.Shop;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+public class Locations {
+
+    private final List<LocationCallbacks> callbacks = new CopyOnWriteArrayList<>();
+    private final Map<Integer, Shop> entered = new ConcurrentHashMap<>();
+
+    public void subscribe(LocationCallbacks callback) {
+        callbacks.add(callback);
+    }
+
+    public void unsubscribe(LocationCallbacks callback) {
+        callbacks.remove(callback);
+    }
+
+    public List<Shop> getEnteredShops() {
+        return new ArrayList<>(entered.values());
+    }
+
+    public void enter(Merchant merchant, Shop shop) {
+        entered.put(shop.getId(), shop);
+        for (LocationCallbacks callback : callbacks) {
+            callback.onShopEntered(shop);
+            callback.onMerchantEntered(merchant, shop);
+        }
+    }
+
+    public void exit(Merchant merchant, Shop shop) {
+        entered.remove(shop.getId());
+        for (LocationCallbacks callback : callbacks) {
+            callback.onShopExit(shop);
+            callback.onMerchantExit(merchant);
+        }
+    }
+
+    public int getSubscribers() {
+        return callbacks.size();
+    }
+}
@@ -0,0 +1,51 @@
+package com.jetbeep.logger;
+
+import android.util.Log;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+public class JBLog {
+
+    private final List<LogCallback> callbacks = new CopyOnWriteArrayList<>();
+    private volatile boolean remoteLogging = false;
+
+    public void subscribe(LogCallback callback) {
+        callbacks.add(callback);
+    }
+
+    public void unsubscribe(LogCallback callback) {
+        callbacks.remove(callback);
+    }
+
+    public void setRemoteLogging(boolean remoteLogging) {
+        this.remoteLogging = remoteLogging;
+    }
+
+    public boolean getRemoteLogging() {
+        return remoteLogging;
+    }
+
+    public void emit(LogLine line) {
+        for (LogCallback callback : callbacks) {
+            callback.onLogLine(line);
+        }
+    }
+
+    public int getSubscribers() {
+        return callbacks.size();
+    }
+
+    public static class Logger {
+
+        private final String tag;
+
+        public Logger(String tag) {
+            this.tag = tag;
+        }
+
+        public void d(String message) {
+            Log.d(tag, message);
+        }
+    }
+}
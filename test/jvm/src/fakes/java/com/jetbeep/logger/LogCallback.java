@@ -0,0 +1,6 @@
+package com.jetbeep.logger;
+
+public interface LogCallback {
+
+    void onLogLine(LogLine logLine);
+}
@@ -0,0 +1,26 @@
+package com.jetbeep.logger;
+
+public class LogLine {
+
+    private final String level;
+    private final String tag;
+    private final String message;
+
+    public LogLine(String level, String tag, String message) {
+        this.level = level;
+        this.tag = tag;
+        this.message = message;
+    }
+
+    public String getLevel() {
+        return level;
+    }
+
+    public String getTag() {
+        return tag;
+    }
+
+    public String getMessage() {
+        return message;
+    }
+}
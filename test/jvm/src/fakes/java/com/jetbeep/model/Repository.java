@@ -0,0 +1,24 @@
+package com.jetbeep.model;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class Repository {
+
+    private final AtomicInteger syncs = new AtomicInteger();
+    private volatile RuntimeException syncError = null;
+
+    public void trySync() {
+        syncs.incrementAndGet();
+        if (syncError != null) {
+            throw syncError;
+        }
+    }
+
+    public void setSyncError(RuntimeException syncError) {
+        this.syncError = syncError;
+    }
+
+    public int getSyncs() {
+        return syncs.get();
+    }
+}
@@ -0,0 +1,56 @@
+package com.jetbeep.model.entities;
+
+import com.jetbeep.background.LockStatus;
+import com.jetbeep.background.UserData;
+
+import java.util.List;
+
+public class Device {
+
+    private final int deviceId;
+    private final String shopName;
+    private volatile boolean connectable;
+    private volatile UserData userData;
+    private volatile List<LockStatus> lockStatus;
+
+    public Device(int deviceId, String shopName, boolean connectable, UserData userData,
+                  List<LockStatus> lockStatus) {
+        this.deviceId = deviceId;
+        this.shopName = shopName;
+        this.connectable = connectable;
+        this.userData = userData;
+        this.lockStatus = lockStatus;
+    }
+
+    public int getDeviceId() {
+        return deviceId;
+    }
+
+    public String getShopName() {
+        return shopName;
+    }
+
+    public boolean isConnectable() {
+        return connectable;
+    }
+
+    public UserData getUserData() {
+        return userData;
+    }
+
+    public List<LockStatus> getLockStatus() {
+        return lockStatus;
+    }
+
+    public void setConnectable(boolean connectable) {
+        this.connectable = connectable;
+    }
+
+    public void setUserData(UserData userData) {
+        this.userData = userData;
+    }
+
+    public void setLockStatus(List<LockStatus> lockStatus) {
+        this.lockStatus = lockStatus;
+    }
+}
@@ -0,0 +1,26 @@
+package com.jetbeep.model.entities;
+
+public class Merchant {
+
+    private final int id;
+    private final String name;
+    private final String image;
+
+    public Merchant(int id, String name, String image) {
+        this.id = id;
+        this.name = name;
+        this.image = image;
+    }
+
+    public int getId() {
+        return id;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public String getImage() {
+        return image;
+    }
+}
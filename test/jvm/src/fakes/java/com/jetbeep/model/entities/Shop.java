@@ -0,0 +1,26 @@
+package com.jetbeep.model.entities;
+
+public class Shop {
+
+    private final int id;
+    private final int merchantId;
+    private final String name;
+
+    public Shop(int id, int merchantId, String name) {
+        this.id = id;
+        this.merchantId = merchantId;
+        this.name = name;
+    }
+
+    public int getId() {
+        return id;
+    }
+
+    public int getMerchantId() {
+        return merchantId;
+    }
+
+    public String getName() {
+        return name;
+    }
+}
@@ -0,0 +1,86 @@
+package org.apache.cordova;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Records every result sent by the plugin, results after the callback was finished
+ * are dropped like in cordova-android.
+ */
+public class CallbackContext {
+
+    private final String callbackId;
+    private final List<PluginResult> results = new ArrayList<>();
+    private boolean finished = false;
+
+    public CallbackContext(String callbackId, CordovaWebView webView) {
+        this.callbackId = callbackId;
+    }
+
+    public String getCallbackId() {
+        return callbackId;
+    }
+
+    public synchronized boolean isFinished() {
+        return finished;
+    }
+
+    public void sendPluginResult(PluginResult pluginResult) {
+        synchronized (this) {
+            if (finished) return;
+            finished = !pluginResult.getKeepCallback();
+            results.add(pluginResult);
+            notifyAll();
+        }
+    }
+
+    public void success() {
+        sendPluginResult(new PluginResult(PluginResult.Status.OK));
+    }
+
+    public void success(String message) {
+        sendPluginResult(new PluginResult(PluginResult.Status.OK, message));
+    }
+
+    public void success(JSONObject message) {
+        sendPluginResult(new PluginResult(PluginResult.Status.OK, message));
+    }
+
+    public void success(JSONArray message) {
+        sendPluginResult(new PluginResult(PluginResult.Status.OK, message));
+    }
+
+    public void success(byte[] message) {
+        sendPluginResult(new PluginResult(PluginResult.Status.OK, message));
+    }
+
+    public void error(String message) {
+        sendPluginResult(new PluginResult(PluginResult.Status.ERROR, message));
+    }
+
+    public synchronized List<PluginResult> getResults() {
+        return new ArrayList<>(results);
+    }
+
+    /**
+     * returns: the first count results, throws IllegalStateException when they were not sent
+     * in time
+     */
+    public synchronized List<PluginResult> awaitResults(int count, long timeoutMs)
+            throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMs);
+        while (results.size() < count) {
+            long waitMs = TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime());
+            if (waitMs <= 0) {
+                throw new IllegalStateException(callbackId + ": expected " + count
+                        + " results, got " + results.size());
+            }
+            wait(waitMs);
+        }
+        return new ArrayList<>(results.subList(0, count));
+    }
+}
@@ -0,0 +1,4 @@
+package org.apache.cordova;
+
+public class CordovaPreferences {
+}
@@ -0,0 +1,8 @@
+package org.apache.cordova;
+
+import android.content.Context;
+
+public interface CordovaWebView {
+
+    Context getContext();
+}
@@ -0,0 +1,113 @@
+package com.jetbeepsdk.plugin;
+
+import com.jetbeep.background.LockStatus;
+import com.jetbeep.connection.locker.LockerDevice;
+
+import org.apache.cordova.PluginResult;
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static com.jetbeepsdk.plugin.PluginHarness.device;
+
+/**
+ * Cost of one device event up to the string or bytes handed to the cordova bridge,
+ * for the full json, delta and compact stream formats. Run with -prof gc for allocations.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class DeviceEventEncodingBenchmark {
+
+    private static final List<LockStatus> OPENED = Arrays.asList(LockStatus.OPENED, LockStatus.CLOSED);
+    private static final List<LockStatus> CLOSED = Arrays.asList(LockStatus.CLOSED, LockStatus.CLOSED);
+
+    @Param({"1", "16"})
+    public int devices;
+
+    private List<LockerDevice> lockers;
+    private DeviceDeltaEncoder deltaEncoder;
+    private boolean opened;
+
+    @Setup(Level.Iteration)
+    public void setUp() {
+        lockers = new ArrayList<>();
+        for (int i = 0; i < devices; i++) {
+            lockers.add(device(i, LockStatus.CLOSED, LockStatus.CLOSED));
+        }
+        deltaEncoder = new DeviceDeltaEncoder();
+        for (LockerDevice locker : lockers) {
+            deltaEncoder.encode(locker, "DeviceDetected");
+        }
+    }
+
+    // every invocation changes the lock state, so the delta encoder always has something to send
+    private void toggleLocks() {
+        opened = !opened;
+        for (LockerDevice locker : lockers) {
+            locker.getDevice().setLockStatus(opened ? OPENED : CLOSED);
+        }
+    }
+
+    @Benchmark
+    public String fullJson() {
+        toggleLocks();
+        if (devices == 1) {
+            return message(JetBeepSDKPlugin.lockerDeviceToJson(lockers.get(0),
+                    JetBeepSDKPlugin.DeviceStatus.DeviceLockStateChanged));
+        }
+        JSONArray batch = new JSONArray();
+        for (LockerDevice locker : lockers) {
+            batch.put(JetBeepSDKPlugin.lockerDeviceToJson(locker,
+                    JetBeepSDKPlugin.DeviceStatus.DeviceLockStateChanged));
+        }
+        return new PluginResult(PluginResult.Status.OK, batch).getMessage();
+    }
+
+    @Benchmark
+    public String delta() {
+        toggleLocks();
+        if (devices == 1) {
+            return message(deltaEncoder.encode(lockers.get(0), "DeviceLockStateChanged"));
+        }
+        JSONArray batch = new JSONArray();
+        for (LockerDevice locker : lockers) {
+            batch.put(deltaEncoder.encode(locker, "DeviceLockStateChanged"));
+        }
+        return new PluginResult(PluginResult.Status.OK, batch).getMessage();
+    }
+
+    @Benchmark
+    public String compact() {
+        toggleLocks();
+        List<CompactDeviceCodec.Event> batch = new ArrayList<>(lockers.size());
+        for (LockerDevice locker : lockers) {
+            batch.add(new CompactDeviceCodec.Event(locker, "DeviceLockStateChanged"));
+        }
+        return new PluginResult(PluginResult.Status.OK, CompactDeviceCodec.encode(batch))
+                .getMessage();
+    }
+
+    private static String message(JSONObject event) {
+        return new PluginResult(PluginResult.Status.OK, event).getMessage();
+    }
+}
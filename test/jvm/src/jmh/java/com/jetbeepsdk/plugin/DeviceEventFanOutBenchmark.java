@@ -0,0 +1,81 @@
+package com.jetbeepsdk.plugin;
+
+import org.apache.cordova.CallbackContext;
+import org.apache.cordova.PluginResult;
+import org.json.JSONObject;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Throughput of EventChannel.send to several subscribers, the message is built once per event
+ * no matter how many subscribers there are.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class DeviceEventFanOutBenchmark {
+
+    private static final int EVENTS = 100;
+
+    /**
+     * Counts results instead of keeping them, so the benchmark does not measure list growth.
+     */
+    static class CountingCallback extends CallbackContext {
+        long delivered;
+        Blackhole blackhole;
+
+        CountingCallback(String callbackId) {
+            super(callbackId, null);
+        }
+
+        @Override
+        public void sendPluginResult(PluginResult pluginResult) {
+            delivered++;
+            blackhole.consume(pluginResult);
+        }
+    }
+
+    @Param({"1", "4", "16"})
+    public int subscribers;
+
+    private EventChannel channel;
+    private CountingCallback[] callbacks;
+    private JSONObject event;
+
+    @Setup
+    public void setUp(Blackhole blackhole) {
+        channel = new EventChannel("devices", new PluginMetrics());
+        callbacks = new CountingCallback[subscribers];
+        for (int i = 0; i < subscribers; i++) {
+            callbacks[i] = new CountingCallback("devices#" + i);
+            callbacks[i].blackhole = blackhole;
+            channel.subscribe("subscriber-" + i, callbacks[i]);
+        }
+        event = JetBeepSDKPlugin.lockerDeviceToJson(PluginHarness.device(1),
+                JetBeepSDKPlugin.DeviceStatus.DeviceDetected);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(EVENTS)
+    public void send() {
+        for (int i = 0; i < EVENTS; i++) {
+            channel.send(new PluginResult(PluginResult.Status.OK, event));
+        }
+    }
+}
@@ -0,0 +1,144 @@
+package com.jetbeepsdk.plugin;
+
+import com.jetbeep.connection.locker.Lockers;
+import com.jetbeep.connection.locker.Token;
+import com.jetbeep.connection.locker.TokenResult;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static com.jetbeepsdk.plugin.PluginHarness.TIMEOUT_MS;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class ApplyBatchTest {
+
+    private final ExecutorService executor = Executors.newFixedThreadPool(4);
+    private final ScheduledExecutorService timer = Executors.newSingleThreadScheduledExecutor();
+    private final DeviceCircuitBreaker breaker = new DeviceCircuitBreaker();
+    private final TokenApplyQueue queue = new TokenApplyQueue(executor, 4, timer, breaker);
+    private final Lockers lockers = new Lockers();
+    private final List<String> results = new CopyOnWriteArrayList<>();
+    private final CountDownLatch finished = new CountDownLatch(1);
+    private volatile String summary = null;
+
+    private final ApplyBatch.Listener listener = new ApplyBatch.Listener() {
+        @Override
+        public void onTokenResult(int index, Token token, String jobId, TokenResult result,
+                                  String error) {
+            results.add(index + " " + (result != null ? "ok" : error));
+        }
+
+        @Override
+        public void onFinished(int succeeded, int failed) {
+            summary = succeeded + "/" + failed;
+            finished.countDown();
+        }
+    };
+
+    @After
+    public void tearDown() {
+        queue.shutdown();
+        executor.shutdownNow();
+        timer.shutdownNow();
+    }
+
+    @Test
+    public void devicesRunInParallelAndTokensOfDeviceInOrder() throws Exception {
+        // the queue would allow parallel applies on one device, the batch must not
+        queue.configure(4, 0, 4, 0);
+        ConcurrentHashMap<Integer, AtomicInteger> runningPerDevice = new ConcurrentHashMap<>();
+        AtomicInteger running = new AtomicInteger();
+        AtomicInteger maxRunning = new AtomicInteger();
+        AtomicInteger maxPerDevice = new AtomicInteger();
+        List<String> started = new CopyOnWriteArrayList<>();
+        lockers.setApplyHandler(token -> {
+            started.add(token.getRaw());
+            AtomicInteger device = runningPerDevice.computeIfAbsent(token.getDeviceId(),
+                    id -> new AtomicInteger());
+            maxPerDevice.accumulateAndGet(device.incrementAndGet(), Math::max);
+            maxRunning.accumulateAndGet(running.incrementAndGet(), Math::max);
+            try {
+                Thread.sleep(20);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            running.decrementAndGet();
+            device.decrementAndGet();
+            return new TokenResult(new byte[]{1});
+        });
+
+        new ApplyBatch("batch", queue, lockers, tokens("1:a", "2:a", "1:b", "2:b", "1:c"), 0,
+                listener).start();
+
+        assertTrue(finished.await(TIMEOUT_MS, TimeUnit.MILLISECONDS));
+        assertEquals("5/0", summary);
+        assertEquals(5, results.size());
+        assertEquals(1, maxPerDevice.get());
+        assertEquals(2, maxRunning.get());
+        assertEquals(Arrays.asList("1:a", "1:b", "1:c"), ofDevice(started, "1:"));
+        assertEquals(Arrays.asList("2:a", "2:b"), ofDevice(started, "2:"));
+    }
+
+    @Test
+    public void cancelFailsTokensWhichAreNotApplied() throws Exception {
+        lockers.setApplyHandler(token -> null);
+        ApplyBatch batch = new ApplyBatch("batch", queue, lockers, tokens("1:a", "1:b", "2:a"),
+                0, listener);
+        batch.start();
+
+        batch.cancel();
+
+        assertTrue(finished.await(TIMEOUT_MS, TimeUnit.MILLISECONDS));
+        assertEquals("0/3", summary);
+        for (String result : results) {
+            assertTrue(result, result.endsWith(ApplyBatch.ERROR_CANCELLED));
+        }
+    }
+
+    @Test
+    public void longBatchOnOpenDeviceFailsWithoutRecursion() throws Exception {
+        breaker.configure(1, 60 * 1000L);
+        breaker.onFailure(1);
+        String[] raw = new String[20000];
+        for (int i = 0; i < raw.length; i++) {
+            raw[i] = "1:" + i;
+        }
+
+        new ApplyBatch("batch", queue, lockers, tokens(raw), 0, listener).start();
+
+        assertTrue(finished.await(TIMEOUT_MS, TimeUnit.MILLISECONDS));
+        assertEquals("0/20000", summary);
+        assertTrue(results.get(0).endsWith(TokenApplyQueue.ERROR_CIRCUIT_OPEN));
+    }
+
+    private static List<Token> tokens(String... raw) {
+        List<Token> tokens = new ArrayList<>();
+        for (String token : raw) {
+            tokens.add(Token.Companion.createToken(token));
+        }
+        return tokens;
+    }
+
+    private static List<String> ofDevice(List<String> tokens, String prefix) {
+        List<String> result = new ArrayList<>();
+        for (String token : tokens) {
+            if (token.startsWith(prefix)) {
+                result.add(token);
+            }
+        }
+        return result;
+    }
+}
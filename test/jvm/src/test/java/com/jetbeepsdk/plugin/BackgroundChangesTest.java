@@ -0,0 +1,43 @@
+package com.jetbeepsdk.plugin;
+
+import org.junit.Test;
+
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class BackgroundChangesTest {
+
+    @Test
+    public void keepsLatestEventOfEveryKey() {
+        BackgroundChanges<Integer, String> changes = new BackgroundChanges<>();
+        changes.put(1, "changed", false, true);
+        changes.put(2, "detected", true, true);
+        changes.put(1, "changed again", false, true);
+
+        List<BackgroundChanges.Change<String>> drained = changes.drain();
+        assertEquals(2, drained.size());
+        assertEquals("detected", drained.get(0).latest);
+        assertFalse(drained.get(0).presentBefore);
+        assertEquals("changed again", drained.get(1).latest);
+        assertTrue(drained.get(1).presentBefore);
+        assertEquals(0, changes.size());
+    }
+
+    @Test
+    public void skipsKeysAbsentBeforeAndAfter() {
+        BackgroundChanges<String, String> changes = new BackgroundChanges<>();
+        changes.put("shop:1", "entered", true, true);
+        changes.put("shop:1", "exit", false, false);
+        changes.put("shop:2", "exit", false, false);
+        changes.put("shop:2", "entered", true, true);
+
+        List<BackgroundChanges.Change<String>> drained = changes.drain();
+        assertEquals(1, drained.size());
+        assertTrue(drained.get(0).presentBefore);
+        assertTrue(drained.get(0).present);
+        assertEquals("entered", drained.get(0).latest);
+    }
+}
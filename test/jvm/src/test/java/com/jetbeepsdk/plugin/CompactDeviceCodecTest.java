@@ -0,0 +1,104 @@
+package com.jetbeepsdk.plugin;
+
+import com.jetbeep.background.LockStatus;
+import com.jetbeep.background.UserData;
+import com.jetbeep.connection.locker.LockerDevice;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static com.jetbeepsdk.plugin.PluginHarness.device;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+public class CompactDeviceCodecTest {
+
+    @Test
+    public void encodesFrameLayout() throws IOException {
+        byte[] frame = CompactDeviceCodec.encode(Arrays.asList(
+                new CompactDeviceCodec.Event(device(300, LockStatus.OPENED, LockStatus.CLOSED,
+                        LockStatus.ERROR), "DeviceLost")));
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(frame));
+
+        assertEquals(CompactDeviceCodec.VERSION, in.readUnsignedByte());
+        int names = in.readUnsignedByte();
+        assertEquals(LockStatus.values().length, names);
+        for (int i = 0; i < names; i++) {
+            byte[] name = new byte[in.readUnsignedByte()];
+            in.readFully(name);
+            assertEquals(LockStatus.values()[i].name(), new String(name, StandardCharsets.US_ASCII));
+        }
+        assertEquals(1, in.readUnsignedShort());
+
+        assertEquals(300, in.readInt());
+        assertEquals(3, in.readUnsignedByte());
+        assertEquals(1, in.readUnsignedByte());
+        assertEquals("Locker 300", readString(in));
+        assertEquals("cell-300", readString(in));
+        assertEquals(3, in.readUnsignedByte());
+        assertEquals((LockStatus.OPENED.ordinal() << 4) | LockStatus.CLOSED.ordinal(),
+                in.readUnsignedByte());
+        assertEquals(LockStatus.ERROR.ordinal() << 4, in.readUnsignedByte());
+        assertEquals(-1, in.read());
+    }
+
+    @Test
+    public void userDataIsWrittenAsRawBytes() throws IOException {
+        byte[] binary = {(byte) 0xFF, 0x00, (byte) 0xC3, 0x28};
+        LockerDevice locker = device(1);
+        locker.getDevice().setUserData(new UserData(binary));
+        byte[] frame = CompactDeviceCodec.encode(Arrays.asList(
+                new CompactDeviceCodec.Event(locker, "DeviceDetected")));
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(frame));
+
+        in.skipBytes(2);
+        for (int i = 0; i < LockStatus.values().length; i++) {
+            in.skipBytes(in.readUnsignedByte());
+        }
+        in.skipBytes(2 + 4 + 2);
+        readString(in);
+        byte[] userData = new byte[in.readUnsignedShort()];
+        in.readFully(userData);
+        assertArrayEquals(binary, userData);
+    }
+
+    @Test
+    public void deviceCountIsClamped() throws IOException {
+        CompactDeviceCodec.Event event = new CompactDeviceCodec.Event(device(1), "DeviceDetected");
+        List<CompactDeviceCodec.Event> events =
+                Collections.nCopies(CompactDeviceCodec.MAX_DEVICES + 1, event);
+        DataInputStream in = new DataInputStream(
+                new ByteArrayInputStream(CompactDeviceCodec.encode(events)));
+        in.skipBytes(1);
+        int names = in.readUnsignedByte();
+        for (int i = 0; i < names; i++) {
+            in.skipBytes(in.readUnsignedByte());
+        }
+
+        assertEquals(CompactDeviceCodec.MAX_DEVICES, in.readUnsignedShort());
+        int frameBytes = in.available();
+        assertEquals(0, frameBytes % CompactDeviceCodec.MAX_DEVICES);
+    }
+
+    @Test
+    public void mergedEventKeepsDetection() {
+        CompactDeviceCodec.Event merged = CompactDeviceCodec.MERGER.merge(
+                new CompactDeviceCodec.Event(device(1), "DeviceDetected"),
+                new CompactDeviceCodec.Event(device(1), "DeviceStateChanged"));
+
+        assertEquals("DeviceDetected", merged.status);
+    }
+
+    private static String readString(DataInputStream in) throws IOException {
+        byte[] utf8 = new byte[in.readUnsignedShort()];
+        in.readFully(utf8);
+        return new String(utf8, StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,79 @@
+package com.jetbeepsdk.plugin;
+
+import org.json.JSONObject;
+import org.junit.Test;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class DeviceCircuitBreakerTest {
+
+    private final DeviceCircuitBreaker breaker = new DeviceCircuitBreaker();
+    private final List<String> events = new CopyOnWriteArrayList<>();
+
+    {
+        breaker.setListener(state -> events.add(state.getInt("deviceId") + " "
+                + state.getString("state")));
+    }
+
+    @Test
+    public void opensAfterThresholdFailures() {
+        breaker.configure(2, 60 * 1000L);
+        breaker.onFailure(1);
+        assertTrue(breaker.allow(1));
+        breaker.onFailure(1);
+
+        assertFalse(breaker.allow(1));
+        assertTrue(breaker.allow(2));
+        JSONObject state = breaker.toJson().getJSONObject(0);
+        assertEquals("open", state.getString("state"));
+        assertEquals(2, state.getInt("failures"));
+        assertTrue(state.getLong("retryAfterMs") > 0);
+        assertEquals("[1 open]", events.toString());
+    }
+
+    @Test
+    public void trialAfterCoolDownClosesOrReopens() throws Exception {
+        breaker.configure(1, 20);
+        breaker.onFailure(1);
+        Thread.sleep(30);
+
+        assertTrue(breaker.allow(1));
+        assertFalse(breaker.allow(1));
+        breaker.onFailure(1);
+        assertFalse(breaker.allow(1));
+
+        Thread.sleep(30);
+        assertTrue(breaker.allow(1));
+        breaker.onSuccess(1);
+        assertTrue(breaker.allow(1));
+        assertEquals(0, breaker.toJson().length());
+        assertEquals("[1 open, 1 halfOpen, 1 open, 1 halfOpen, 1 closed]", events.toString());
+    }
+
+    @Test
+    public void abandonedTrialLetsNextApplyThrough() throws Exception {
+        breaker.configure(1, 10);
+        breaker.onFailure(1);
+        Thread.sleep(20);
+        assertTrue(breaker.allow(1));
+
+        breaker.onAbandoned(1);
+
+        assertTrue(breaker.allow(1));
+    }
+
+    @Test
+    public void zeroThresholdDisablesBreaker() {
+        breaker.configure(0, 0);
+        for (int i = 0; i < 10; i++) {
+            breaker.onFailure(1);
+        }
+        assertTrue(breaker.allow(1));
+        assertTrue(events.isEmpty());
+    }
+}
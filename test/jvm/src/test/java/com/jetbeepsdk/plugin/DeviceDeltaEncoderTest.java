@@ -0,0 +1,75 @@
+package com.jetbeepsdk.plugin;
+
+import com.jetbeep.background.LockStatus;
+import com.jetbeep.connection.locker.LockerDevice;
+
+import org.json.JSONObject;
+import org.junit.Test;
+
+import java.util.Arrays;
+
+import static com.jetbeepsdk.plugin.PluginHarness.device;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class DeviceDeltaEncoderTest {
+
+    private final DeviceDeltaEncoder encoder = new DeviceDeltaEncoder();
+
+    @Test
+    public void firstEventIsFull() {
+        JSONObject event = encoder.encode(device(1, LockStatus.CLOSED), "DeviceDetected");
+
+        assertTrue(event.getBoolean("full"));
+        assertEquals(1, event.getLong("seq"));
+        assertEquals("Locker 1", event.getString("deviceName"));
+        assertEquals("true", event.getString("isConnectable"));
+        assertEquals("cell-1", event.getString("userData"));
+        assertEquals("CLOSED", event.getJSONArray("lockStatuses").getString(0));
+    }
+
+    @Test
+    public void laterEventsCarryOnlyChangedFields() {
+        LockerDevice locker = device(1, LockStatus.CLOSED);
+        encoder.encode(locker, "DeviceDetected");
+        locker.getDevice().setLockStatus(Arrays.asList(LockStatus.OPENED));
+
+        JSONObject event = encoder.encode(locker, "DeviceLockStateChanged");
+
+        assertFalse(event.has("full"));
+        assertFalse(event.has("deviceName"));
+        assertFalse(event.has("userData"));
+        assertEquals(2, event.getLong("seq"));
+        assertEquals("OPENED", event.getJSONArray("lockStatuses").getString(0));
+    }
+
+    @Test
+    public void unchangedStateIsSkipped() {
+        LockerDevice locker = device(1, LockStatus.CLOSED);
+        encoder.encode(locker, "DeviceDetected");
+
+        assertNull(encoder.encode(locker, "DeviceStateChanged"));
+    }
+
+    @Test
+    public void lostDeviceIsFullAgainAfterDetection() {
+        LockerDevice locker = device(1);
+        encoder.encode(locker, "DeviceDetected");
+
+        JSONObject lost = encoder.encode(locker, "DeviceLost");
+        assertEquals(3, lost.length());
+        assertEquals(2, lost.getLong("seq"));
+        assertTrue(encoder.encode(locker, "DeviceDetected").getBoolean("full"));
+    }
+
+    @Test
+    public void resetSendsFullSnapshots() {
+        LockerDevice locker = device(1);
+        encoder.encode(locker, "DeviceDetected");
+        encoder.reset();
+
+        assertTrue(encoder.encode(locker, "DeviceStateChanged").getBoolean("full"));
+    }
+}
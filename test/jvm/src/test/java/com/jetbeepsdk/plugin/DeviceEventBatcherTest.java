@@ -0,0 +1,72 @@
+package com.jetbeepsdk.plugin;
+
+import org.json.JSONObject;
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class DeviceEventBatcherTest {
+
+    private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor();
+    private final List<List<JSONObject>> batches = new CopyOnWriteArrayList<>();
+    private final DeviceEventBatcher<JSONObject> batcher = new DeviceEventBatcher<>(scheduler,
+            DeviceEventBatcher.MAX_WINDOW_MS, DeviceEventBatcher.JSON_MERGER, batches::add);
+
+    @After
+    public void tearDown() {
+        scheduler.shutdownNow();
+    }
+
+    @Test
+    public void windowIsClamped() {
+        assertEquals(DeviceEventBatcher.MIN_WINDOW_MS, new DeviceEventBatcher<>(scheduler, 0,
+                DeviceEventBatcher.JSON_MERGER, batch -> { }).getWindowMs());
+    }
+
+    @Test
+    public void eventsOfOneDeviceAreMerged() {
+        batcher.add("1", event("1", "DeviceDetected").put("deviceName", "Locker 1"));
+        batcher.add("2", event("2", "DeviceDetected"));
+        batcher.add("1", event("1", "DeviceLockStateChanged").put("lockStatuses", "OPENED"));
+        batcher.flush();
+
+        assertEquals(1, batches.size());
+        List<JSONObject> batch = batches.get(0);
+        assertEquals(2, batch.size());
+        JSONObject merged = batch.get(1);
+        assertEquals("1", merged.getString("deviceId"));
+        assertEquals("DeviceDetected", merged.getString("status"));
+        assertEquals("Locker 1", merged.getString("deviceName"));
+        assertEquals("OPENED", merged.getString("lockStatuses"));
+    }
+
+    @Test
+    public void lostAfterDetectionStaysLost() {
+        batcher.add("1", event("1", "DeviceDetected"));
+        batcher.add("1", event("1", "DeviceLost"));
+        batcher.flush();
+
+        assertEquals("DeviceLost", batches.get(0).get(0).getString("status"));
+    }
+
+    @Test
+    public void closeDropsPendingEvents() {
+        batcher.add("1", event("1", "DeviceDetected"));
+        batcher.close();
+        batcher.flush();
+        batcher.add("2", event("2", "DeviceDetected"));
+
+        assertTrue(batches.isEmpty());
+    }
+
+    private static JSONObject event(String deviceId, String status) {
+        return new JSONObject().put("deviceId", deviceId).put("status", status);
+    }
+}
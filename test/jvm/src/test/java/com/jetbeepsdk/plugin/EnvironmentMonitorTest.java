@@ -0,0 +1,93 @@
+package com.jetbeepsdk.plugin;
+
+import android.Manifest;
+import android.bluetooth.BluetoothAdapter;
+import android.content.Context;
+import android.content.Intent;
+import android.location.LocationManager;
+
+import androidx.core.app.ActivityCompat;
+
+import org.apache.cordova.CallbackContext;
+import org.json.JSONObject;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import static com.jetbeepsdk.plugin.PluginHarness.TIMEOUT_MS;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+public class EnvironmentMonitorTest {
+
+    @Rule
+    public TemporaryFolder files = new TemporaryFolder();
+
+    private PluginHarness harness;
+
+    @Before
+    public void setUp() {
+        harness = new PluginHarness(files.getRoot());
+    }
+
+    @After
+    public void tearDown() {
+        ActivityCompat.setDenied(Manifest.permission.ACCESS_FINE_LOCATION, false);
+        ActivityCompat.setDenied(Manifest.permission.ACCESS_COARSE_LOCATION, false);
+        harness.close();
+    }
+
+    @Test
+    public void stateIsAnsweredFromCache() throws Exception {
+        JSONObject state = new JSONObject(harness.execute("getEnvironmentState")
+                .awaitResults(1, TIMEOUT_MS).get(0).getMessage());
+        assertEquals("enabled", state.getString("bluetooth"));
+        assertEquals("enabled", state.getString("isGpsEnabled"));
+        assertFalse(state.has("changed"));
+        assertEquals(1, Context.registeredReceivers());
+
+        harness.execute("gpsState").awaitResults(1, TIMEOUT_MS);
+        harness.execute("bluetoothState").awaitResults(1, TIMEOUT_MS);
+        harness.execute("isPermissionGranted").awaitResults(1, TIMEOUT_MS);
+        assertEquals(1, Context.registeredReceivers());
+    }
+
+    @Test
+    public void onlyChangesAreSent() throws Exception {
+        CallbackContext environment = harness.execute("subscribeEnvironmentEvents", "");
+        CallbackContext bluetooth = harness.execute("subscribeBluetoothEvents", "");
+        CallbackContext gps = harness.execute("subscribeGpsEvents", "");
+
+        broadcastBluetooth(BluetoothAdapter.STATE_ON);
+        harness.getActivity().sendBroadcast(new Intent(LocationManager.PROVIDERS_CHANGED_ACTION));
+        broadcastBluetooth(BluetoothAdapter.STATE_OFF);
+        broadcastBluetooth(BluetoothAdapter.STATE_OFF);
+
+        JSONObject changed = new JSONObject(environment.awaitResults(1, TIMEOUT_MS).get(0).getMessage());
+        assertEquals("disabled", changed.getString("bluetooth"));
+        assertEquals("bluetooth", changed.getJSONArray("changed").getString(0));
+        assertEquals(1, environment.getResults().size());
+        assertEquals(1, bluetooth.getResults().size());
+        assertEquals(0, gps.getResults().size());
+    }
+
+    @Test
+    public void permissionsAreReadAgainOnResume() throws Exception {
+        CallbackContext environment = harness.execute("subscribeEnvironmentEvents", "");
+        ActivityCompat.setDenied(Manifest.permission.ACCESS_FINE_LOCATION, true);
+        ActivityCompat.setDenied(Manifest.permission.ACCESS_COARSE_LOCATION, true);
+
+        harness.getPlugin().onResume(false);
+
+        JSONObject changed = new JSONObject(environment.awaitResults(1, TIMEOUT_MS).get(0).getMessage());
+        assertFalse(changed.getBoolean("isLocationGranted"));
+        assertEquals("isLocationGranted", changed.getJSONArray("changed").getString(0));
+    }
+
+    private void broadcastBluetooth(int state) {
+        harness.getActivity().sendBroadcast(new Intent(BluetoothAdapter.ACTION_STATE_CHANGED)
+                .putExtra(BluetoothAdapter.EXTRA_STATE, state));
+    }
+}
@@ -0,0 +1,149 @@
+package com.jetbeepsdk.plugin;
+
+import org.apache.cordova.CallbackContext;
+import org.apache.cordova.PluginResult;
+import org.json.JSONObject;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class EventChannelTest {
+
+    private final PluginMetrics metrics = new PluginMetrics();
+    private final EventChannel channel = new EventChannel("devices", metrics);
+
+    @Test
+    public void withoutCreditsEveryEventIsDelivered() {
+        CallbackContext callback = subscribe("a", null);
+
+        for (int i = 0; i < 100; i++) {
+            channel.send("1", result("event " + i));
+        }
+
+        assertEquals(100, callback.getResults().size());
+        assertTrue(callback.getResults().get(0).getKeepCallback());
+    }
+
+    @Test
+    public void creditsLimitEventsInFlight() {
+        CallbackContext callback = subscribe("a", new JSONObject()
+                .put("credits", 2).put("overflow", "dropOldest"));
+
+        channel.send("1", result("1"));
+        channel.send("1", result("2"));
+        channel.send("1", result("3"));
+        assertEquals(Arrays.asList("1", "2"), messages(callback));
+
+        JSONObject state = channel.ack("a", 5);
+        assertEquals(Arrays.asList("1", "2", "3"), messages(callback));
+        assertEquals(4, state.getLong("credits"));
+        assertEquals(0, state.getInt("queued"));
+    }
+
+    @Test
+    public void latestKeepsOneEventPerDevice() {
+        CallbackContext callback = subscribe("a", new JSONObject().put("credits", 0));
+
+        channel.send("1", result("1a"));
+        channel.send("2", result("2a"));
+        channel.send("1", result("1b"));
+        channel.send(null, result("batch"));
+
+        JSONObject state = channel.ack("a", 10);
+        assertEquals(Arrays.asList("2a", "1b", "batch"), messages(callback));
+        assertEquals(1, state.getLong("dropped"));
+        assertEquals(1, metrics.toJson().getJSONObject("counters").getInt("devicesDroppedEvents"));
+    }
+
+    @Test
+    public void dropOldestKeepsTheNewestEvents() {
+        CallbackContext callback = subscribe("a", new JSONObject()
+                .put("credits", 0).put("overflow", "dropOldest").put("maxQueued", 2));
+
+        channel.send("1", result("1"));
+        channel.send("1", result("2"));
+        channel.send("1", result("3"));
+
+        assertEquals(1, channel.ack("a", 10).getLong("dropped"));
+        assertEquals(Arrays.asList("2", "3"), messages(callback));
+    }
+
+    @Test
+    public void sampleQueuesEveryNthEvent() {
+        CallbackContext callback = subscribe("a", new JSONObject()
+                .put("credits", 0).put("overflow", "sample").put("sampleEvery", 3));
+
+        for (int i = 0; i < 7; i++) {
+            channel.send(null, result(String.valueOf(i)));
+        }
+
+        assertEquals(4, channel.ack("a", 10).getLong("dropped"));
+        assertEquals(Arrays.asList("0", "3", "6"), messages(callback));
+    }
+
+    @Test
+    public void overflowHandlerMergesAndSeesDroppedEvents() {
+        List<String> dropped = new ArrayList<>();
+        channel.setOverflowHandler(new EventChannel.OverflowHandler() {
+            @Override
+            public PluginResult merge(String key, PluginResult previous, PluginResult latest) {
+                return result(previous.getStrMessage() + "+" + latest.getStrMessage());
+            }
+
+            @Override
+            public void onDropped(PluginResult result) {
+                dropped.add(result.getStrMessage());
+            }
+        });
+        CallbackContext callback = subscribe("a", new JSONObject()
+                .put("credits", 0).put("maxQueued", 2));
+
+        channel.send("1", result("1a"));
+        channel.send("1", result("1b"));
+        channel.send("2", result("2a"));
+        channel.send("3", result("3a"));
+
+        JSONObject state = channel.ack("a", 10);
+        assertEquals(Arrays.asList("2a", "3a"), messages(callback));
+        assertEquals(Arrays.asList("1a+1b"), dropped);
+        assertEquals(1, state.getLong("dropped"));
+        assertTrue(callback.getResults().get(0).getKeepCallback());
+    }
+
+    @Test
+    public void subscribersAreIndependent() {
+        CallbackContext slow = subscribe("slow", new JSONObject().put("credits", 1));
+        CallbackContext fast = subscribe("fast", null);
+
+        channel.send("1", result("1"));
+        channel.send("2", result("2"));
+
+        assertEquals(Arrays.asList("1"), messages(slow));
+        assertEquals(Arrays.asList("1", "2"), messages(fast));
+        assertNull(channel.ack("missing", 1));
+    }
+
+    private CallbackContext subscribe(String id, JSONObject options) {
+        CallbackContext callback = new CallbackContext(id, null);
+        channel.subscribe(id, callback, options);
+        return callback;
+    }
+
+    private static PluginResult result(String message) {
+        return new PluginResult(PluginResult.Status.OK, message);
+    }
+
+    private static List<String> messages(CallbackContext callback) {
+        List<String> result = new ArrayList<>();
+        for (PluginResult pluginResult : callback.getResults()) {
+            result.add(pluginResult.getStrMessage());
+        }
+        return result;
+    }
+}
@@ -0,0 +1,171 @@
+package com.jetbeepsdk.plugin;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.junit.After;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class EventJournalTest {
+
+    @Rule
+    public TemporaryFolder files = new TemporaryFolder();
+
+    private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor();
+
+    @After
+    public void tearDown() {
+        scheduler.shutdownNow();
+    }
+
+    @Test
+    public void readsEntriesAfterSeq() {
+        EventJournal journal = journal(EventJournal.DEFAULT_MAX_BYTES);
+        for (int i = 1; i <= 5; i++) {
+            assertEquals(i, journal.append("shopEntered", new JSONObject().put("shopId", i)));
+        }
+
+        JSONObject page = journal.read(2, 2);
+        JSONArray entries = page.getJSONArray("entries");
+        assertEquals(2, entries.length());
+        assertEquals(3, entries.getJSONObject(0).getLong("seq"));
+        assertEquals(3, entries.getJSONObject(0).getInt("shopId"));
+        assertEquals("shopEntered", entries.getJSONObject(0).getString("type"));
+        assertTrue(page.getBoolean("hasMore"));
+        assertEquals(1, page.getLong("firstSeq"));
+        assertEquals(5, page.getLong("lastSeq"));
+
+        assertFalse(journal.read(4, 2).getBoolean("hasMore"));
+        journal.close();
+    }
+
+    @Test
+    public void entriesSurviveRestart() {
+        EventJournal journal = journal(EventJournal.DEFAULT_MAX_BYTES);
+        journal.append("apply", new JSONObject().put("deviceId", 7));
+        journal.append("shopExit", new JSONObject().put("shopId", 1));
+        journal.close();
+
+        EventJournal reopened = journal(EventJournal.DEFAULT_MAX_BYTES);
+        assertEquals(2, reopened.size());
+        assertEquals(3, reopened.append("shopEntered", new JSONObject().put("shopId", 2)));
+        JSONArray entries = reopened.read(0, 10).getJSONArray("entries");
+        assertEquals(7, entries.getJSONObject(0).getInt("deviceId"));
+        assertTrue(entries.getJSONObject(2).getLong("time")
+                >= entries.getJSONObject(1).getLong("time"));
+        reopened.close();
+    }
+
+    @Test
+    public void brokenLastLineIsDropped() throws Exception {
+        EventJournal journal = journal(EventJournal.DEFAULT_MAX_BYTES);
+        journal.append("shopEntered", new JSONObject().put("shopId", 1));
+        journal.close();
+        File file = new File(files.getRoot(), EventJournal.FILE_NAME);
+        try (FileOutputStream output = new FileOutputStream(file, true)) {
+            output.write("{\"seq\":2,\"ti".getBytes(StandardCharsets.UTF_8));
+        }
+
+        EventJournal reopened = journal(EventJournal.DEFAULT_MAX_BYTES);
+        assertEquals(2, reopened.append("shopExit", new JSONObject().put("shopId", 1)));
+        reopened.close();
+        // seq mark of the rewritten file and two entries
+        assertEquals(3, Files.readAllLines(file.toPath()).size());
+        assertEquals(2, journal(EventJournal.DEFAULT_MAX_BYTES).size());
+    }
+
+    @Test
+    public void compactsToNewestEntries() throws Exception {
+        EventJournal journal = journal(2000);
+        for (int i = 0; i < 100; i++) {
+            journal.append("shopEntered", new JSONObject().put("shopId", i));
+            if (i % 10 == 0) {
+                journal.sync();
+            }
+        }
+        journal.close();
+
+        File file = new File(files.getRoot(), EventJournal.FILE_NAME);
+        assertTrue(file.length() <= 2000);
+        JSONObject all = journal.read(0, 1000);
+        assertEquals(100, all.getLong("lastSeq"));
+        assertTrue(all.getLong("firstSeq") > 1);
+        assertEquals(100 - all.getLong("firstSeq") + 1, all.getJSONArray("entries").length());
+        assertEquals(journal.size(), journal(2000).size());
+    }
+
+    @Test
+    public void seqGrowsAfterAllEntriesExpired() throws Exception {
+        long dayAgo = System.currentTimeMillis() - 2 * 24 * 60 * 60 * 1000L;
+        StringBuilder content = new StringBuilder();
+        for (int i = 1; i <= 5; i++) {
+            content.append(new JSONObject().put("seq", i).put("time", dayAgo)
+                    .put("type", "apply")).append('\n');
+        }
+        File file = new File(files.getRoot(), EventJournal.FILE_NAME);
+        Files.write(file.toPath(), content.toString().getBytes(StandardCharsets.UTF_8));
+
+        EventJournal journal = journal(EventJournal.DEFAULT_MAX_BYTES);
+        journal.compactExpired();
+        assertEquals(0, journal.size());
+        journal.close();
+
+        EventJournal reopened = journal(EventJournal.DEFAULT_MAX_BYTES);
+        assertEquals(0, reopened.size());
+        assertEquals(5, reopened.read(0, 10).getLong("lastSeq"));
+        assertEquals(6, reopened.append("apply", new JSONObject().put("deviceId", 7)));
+        reopened.close();
+        assertEquals(6, journal(EventJournal.DEFAULT_MAX_BYTES).read(5, 10)
+                .getJSONArray("entries").getJSONObject(0).getLong("seq"));
+    }
+
+    @Test
+    public void compactsByUtf8Bytes() {
+        // every line has about 98 chars and 127 utf8 bytes
+        EventJournal journal = journal(2000);
+        for (int i = 0; i < 18; i++) {
+            journal.append("shopEntered",
+                    new JSONObject().put("shopName", "Кав'ярня на Хрещатику у Києві"));
+        }
+        journal.sync();
+
+        assertTrue(journal.size() < 18);
+        journal.close();
+        assertTrue(new File(files.getRoot(), EventJournal.FILE_NAME).length() <= 1000);
+    }
+
+    @Test
+    public void appendBeforeOpenWaitsForTheScheduler() throws Exception {
+        EventJournal journal = journal(EventJournal.DEFAULT_MAX_BYTES);
+        journal.append("shopEntered", new JSONObject().put("shopId", 1));
+        journal.close();
+
+        EventJournal reopened = new EventJournal(files.getRoot(), scheduler,
+                EventJournal.DEFAULT_MAX_BYTES);
+        assertEquals(0, reopened.append("shopExit", new JSONObject().put("shopId", 1)));
+        scheduler.submit(() -> { }).get();
+        JSONArray entries = reopened.read(0, 10).getJSONArray("entries");
+        assertEquals(2, entries.length());
+        assertEquals(2, entries.getJSONObject(1).getLong("seq"));
+        assertEquals("shopExit", entries.getJSONObject(1).getString("type"));
+        reopened.close();
+    }
+
+    private EventJournal journal(long maxBytes) {
+        EventJournal journal = new EventJournal(files.getRoot(), scheduler, maxBytes);
+        journal.open();
+        return journal;
+    }
+}
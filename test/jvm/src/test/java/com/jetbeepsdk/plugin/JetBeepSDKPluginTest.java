@@ -0,0 +1,432 @@
+package com.jetbeepsdk.plugin;
+
+import com.jetbeep.connection.locker.LockerDevice;
+import com.jetbeep.connection.locker.Lockers;
+import com.jetbeep.connection.locker.Token;
+import com.jetbeep.connection.locker.TokenResult;
+import com.jetbeep.JetBeepSDK;
+import com.jetbeep.background.LockStatus;
+import com.jetbeep.logger.LogLine;
+import com.jetbeep.model.entities.Device;
+
+import org.apache.cordova.CallbackContext;
+import org.apache.cordova.PluginResult;
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static com.jetbeepsdk.plugin.PluginHarness.TIMEOUT_MS;
+import static com.jetbeepsdk.plugin.PluginHarness.device;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class JetBeepSDKPluginTest {
+
+    private static final String TOKENS = "[\"1:a\",\"2:b\"]";
+
+    @Rule
+    public TemporaryFolder files = new TemporaryFolder();
+
+    private PluginHarness harness;
+
+    @Before
+    public void setUp() throws Exception {
+        harness = new PluginHarness(files.getRoot());
+    }
+
+    @After
+    public void tearDown() {
+        harness.close();
+    }
+
+    @Test
+    public void actionsFailBeforeInit() throws Exception {
+        CallbackContext callback = harness.execute("searchDevices", TOKENS, new JSONObject());
+
+        PluginResult result = callback.awaitResults(1, TIMEOUT_MS).get(0);
+        assertEquals(PluginResult.Status.ERROR.ordinal(), result.getStatus());
+        assertEquals("Sdk not initialized", result.getStrMessage());
+    }
+
+    @Test
+    public void searchReplaysVisibleDevicesAndStreamsEvents() throws Exception {
+        harness.start();
+        Lockers lockers = harness.lockers();
+        lockers.detect(device(1, LockStatus.CLOSED));
+
+        CallbackContext search = harness.execute("searchDevices", TOKENS, new JSONObject());
+        JSONObject replayed = json(search.awaitResults(1, TIMEOUT_MS).get(0));
+        assertEquals("1", replayed.getString("deviceId"));
+        assertEquals("DeviceDetected", replayed.getString("status"));
+        assertEquals("cell-1", replayed.getString("userData"));
+        assertTrue(search.getResults().get(0).getKeepCallback());
+
+        waitFor(() -> lockers.getSearchStarts() == 1);
+        lockers.detect(device(2, LockStatus.OPENED, LockStatus.CLOSED));
+        JSONObject detected = json(search.awaitResults(2, TIMEOUT_MS).get(1));
+        assertEquals("2", detected.getString("deviceId"));
+        assertEquals(2, detected.getJSONArray("lockStatuses").length());
+    }
+
+    @Test
+    public void subscribersWithSameTokensShareOneSearch() throws Exception {
+        harness.start();
+        Lockers lockers = harness.lockers();
+        CallbackContext list = harness.execute("searchDevices", TOKENS,
+                new JSONObject().put("subscriptionId", "list"));
+        CallbackContext map = harness.execute("searchDevices", "[\"2:b\",\"1:a\"]",
+                new JSONObject().put("subscriptionId", "map"));
+        waitFor(() -> lockers.getSearchStarts() == 1);
+
+        lockers.detect(device(1));
+        assertEquals("1", json(list.awaitResults(1, TIMEOUT_MS).get(0)).getString("deviceId"));
+        assertEquals("1", json(map.awaitResults(1, TIMEOUT_MS).get(0)).getString("deviceId"));
+        assertEquals(1, lockers.getSearchStarts());
+        assertEquals(2, Token.Companion.getCreated());
+
+        harness.execute("stopSearching", "", new JSONObject().put("subscriptionId", "map"))
+                .awaitResults(1, TIMEOUT_MS);
+        assertTrue(map.isFinished());
+        assertTrue(lockers.isSearching());
+
+        harness.execute("stopSearching", "", new JSONObject().put("subscriptionId", "list"))
+                .awaitResults(1, TIMEOUT_MS);
+        assertFalse(lockers.isSearching());
+        assertEquals(0, lockers.getSubscribers());
+    }
+
+    @Test
+    public void sessionsGetOnlyDevicesOfTheirTokens() throws Exception {
+        harness.start();
+        Lockers lockers = harness.lockers();
+        lockers.detect(device(2));
+        CallbackContext first = harness.execute("searchDevices", "[\"1:a\"]",
+                new JSONObject().put("subscriptionId", "first"));
+        waitFor(() -> lockers.getSearchStarts() == 1);
+
+        CallbackContext second = harness.execute("searchDevices", "[\"2:b\"]",
+                new JSONObject().put("subscriptionId", "second").put("priority", 1));
+        assertEquals("2", json(second.awaitResults(1, TIMEOUT_MS).get(0)).getString("deviceId"));
+        waitFor(() -> lockers.getSearchStarts() == 2);
+        assertEquals(2, lockers.getSearchTokens().size());
+
+        lockers.detect(device(1));
+        lockers.detect(device(3));
+        awaitWorker();
+        assertEquals("1", json(first.awaitResults(1, TIMEOUT_MS).get(0)).getString("deviceId"));
+        assertEquals(1, first.getResults().size());
+        assertEquals(1, second.getResults().size());
+
+        harness.execute("stopSearching", "", new JSONObject().put("subscriptionId", "second"))
+                .awaitResults(1, TIMEOUT_MS);
+        CallbackContext narrow = harness.execute("searchDevices", "[\"1:a\"]",
+                new JSONObject().put("subscriptionId", "narrow"));
+        narrow.awaitResults(1, TIMEOUT_MS);
+        assertEquals(2, lockers.getSearchStarts());
+        assertTrue(lockers.isSearching());
+    }
+
+    @Test
+    public void joinWithOtherFormatIsRejected() throws Exception {
+        harness.start();
+        Lockers lockers = harness.lockers();
+        harness.execute("searchDevices", TOKENS,
+                new JSONObject().put("subscriptionId", "list").put("delta", true));
+        waitFor(() -> lockers.getSearchStarts() == 1);
+
+        CallbackContext compact = harness.execute("searchDevices", TOKENS,
+                new JSONObject().put("subscriptionId", "map").put("format", "compact"));
+        PluginResult rejected = compact.awaitResults(1, TIMEOUT_MS).get(0);
+        assertEquals(PluginResult.Status.ERROR.ordinal(), rejected.getStatus());
+        assertEquals("Format options differ from the running search: json,delta",
+                rejected.getStrMessage());
+
+        CallbackContext delta = harness.execute("searchDevices", TOKENS,
+                new JSONObject().put("subscriptionId", "map").put("delta", true));
+        awaitWorker();
+        lockers.detect(device(1));
+        JSONObject patch = json(delta.awaitResults(1, TIMEOUT_MS).get(0));
+        assertEquals("1", patch.getString("deviceId"));
+        assertTrue(patch.has("seq"));
+        assertEquals(1, lockers.getSearchStarts());
+    }
+
+    @Test
+    public void queuedDeltaPatchesAreMerged() throws Exception {
+        harness.start();
+        Lockers lockers = harness.lockers();
+        CallbackContext search = harness.execute("searchDevices", TOKENS,
+                new JSONObject().put("delta", true).put("credits", 0));
+        waitFor(() -> lockers.getSearchStarts() == 1);
+
+        LockerDevice locker = device(1, LockStatus.CLOSED);
+        lockers.detect(locker);
+        locker.getDevice().setLockStatus(Arrays.asList(LockStatus.OPENED));
+        lockers.changeStatus(Collections.singletonList(locker));
+        awaitWorker();
+
+        JSONObject state = json(harness.execute("ackEvents", "devices",
+                new JSONObject().put("count", 5)).awaitResults(1, TIMEOUT_MS).get(0));
+        assertEquals(0, state.getLong("dropped"));
+        JSONObject merged = json(search.awaitResults(1, TIMEOUT_MS).get(0));
+        assertTrue(merged.getBoolean("full"));
+        assertEquals("DeviceDetected", merged.getString("status"));
+        assertEquals("cell-1", merged.getString("userData"));
+        assertEquals("OPENED", merged.getJSONArray("lockStatuses").getString(0));
+        assertEquals(1, search.getResults().size());
+    }
+
+    @Test
+    public void recentLogsAreKeptWithoutSubscriber() throws Exception {
+        harness.start();
+        JetBeepSDK.INSTANCE.getLogger().emit(new LogLine("D", "Scanner", "scan started"));
+
+        JSONObject recent = json(harness.execute("getRecentLogs", 10)
+                .awaitResults(1, TIMEOUT_MS).get(0));
+        JSONArray lines = recent.getJSONArray("lines");
+        assertEquals(1, lines.length());
+        assertEquals("scan started", lines.getJSONObject(0).getString("message"));
+        assertEquals(0, recent.getLong("dropped"));
+    }
+
+    @Test
+    public void recentLogsAreNotFilteredBySubscriber() throws Exception {
+        harness.start();
+        CallbackContext logs = harness.execute("subscribeLogEvents", "",
+                new JSONObject().put("minLevel", "WARN").put("batchSize", 1));
+        JetBeepSDK.INSTANCE.getLogger().emit(new LogLine("D", "Scanner", "scan started"));
+        JetBeepSDK.INSTANCE.getLogger().emit(new LogLine("W", "Scanner", "scan failed"));
+
+        JSONArray sent = json(logs.awaitResults(1, TIMEOUT_MS).get(0)).getJSONArray("lines");
+        assertEquals(1, sent.length());
+        assertEquals("scan failed", sent.getJSONObject(0).getString("message"));
+        JSONArray recent = json(harness.execute("getRecentLogs", 10)
+                .awaitResults(1, TIMEOUT_MS).get(0)).getJSONArray("lines");
+        assertEquals(2, recent.length());
+        assertEquals("scan started", recent.getJSONObject(0).getString("message"));
+    }
+
+    @Test
+    public void unchangedDeviceStatusIsSuppressed() throws Exception {
+        harness.start();
+        Lockers lockers = harness.lockers();
+        CallbackContext search = harness.execute("searchDevices", TOKENS, new JSONObject());
+        LockerDevice locker = device(1, LockStatus.CLOSED);
+        lockers.detect(locker);
+        search.awaitResults(1, TIMEOUT_MS);
+
+        lockers.changeStatus(Collections.singletonList(locker));
+        Device device = locker.getDevice();
+        device.setLockStatus(Arrays.asList(LockStatus.OPENED));
+        lockers.changeStatus(Collections.singletonList(locker));
+        awaitWorker();
+
+        JSONObject changed = json(search.awaitResults(2, TIMEOUT_MS).get(1));
+        assertEquals("DeviceStateChanged", changed.getString("status"));
+        assertEquals("OPENED", changed.getJSONArray("lockStatuses").getString(0));
+
+        JSONObject metrics = json(harness.execute("getMetrics").awaitResults(1, TIMEOUT_MS).get(0));
+        assertEquals(1, metrics.getJSONObject("counters").getInt("suppressedDeviceEvents"));
+        assertEquals(2, search.getResults().size());
+    }
+
+    @Test
+    public void batchedSearchDeliversArrays() throws Exception {
+        harness.start();
+        Lockers lockers = harness.lockers();
+        CallbackContext search = harness.execute("searchDevices", TOKENS,
+                new JSONObject().put("batchWindowMs", 50));
+        waitFor(() -> lockers.getSearchStarts() == 1);
+
+        LockerDevice locker = device(1, LockStatus.CLOSED);
+        lockers.detect(locker);
+        locker.getDevice().setLockStatus(Arrays.asList(LockStatus.OPENED));
+        lockers.changeLockState(locker);
+        lockers.detect(device(2));
+
+        JSONArray batch = new JSONArray(search.awaitResults(1, TIMEOUT_MS).get(0).getMessage());
+        assertEquals(2, batch.length());
+        JSONObject merged = batch.getJSONObject(0);
+        assertEquals("DeviceDetected", merged.getString("status"));
+        assertEquals("OPENED", merged.getJSONArray("lockStatuses").getString(0));
+    }
+
+    @Test
+    public void getDeviceAnswersFromRegistry() throws Exception {
+        harness.start();
+        CallbackContext search = harness.execute("searchDevices", "[\"7:a\"]", new JSONObject());
+        harness.lockers().detect(device(7));
+        search.awaitResults(1, TIMEOUT_MS);
+
+        JSONObject device = json(harness.execute("getDevice", "7").awaitResults(1, TIMEOUT_MS).get(0));
+        assertEquals("7", device.getString("deviceId"));
+        assertTrue(device.has("lastSeen"));
+
+        PluginResult missing = harness.execute("getDevice", "8").awaitResults(1, TIMEOUT_MS).get(0);
+        assertEquals(PluginResult.Status.ERROR.ordinal(), missing.getStatus());
+    }
+
+    @Test
+    public void backgroundEventsAreReplacedByCatchUpOnResume() throws Exception {
+        harness.start();
+        Lockers lockers = harness.lockers();
+        CallbackContext search = harness.execute("searchDevices", "[\"1:a\",\"2:b\",\"3:c\"]",
+                new JSONObject());
+        LockerDevice first = device(1, LockStatus.CLOSED);
+        lockers.detect(first);
+        search.awaitResults(1, TIMEOUT_MS);
+
+        harness.getPlugin().onPause(false);
+        lockers.lose(first);
+        LockerDevice second = device(2, LockStatus.CLOSED);
+        lockers.detect(second);
+        second.getDevice().setLockStatus(Arrays.asList(LockStatus.OPENED));
+        lockers.changeLockState(second);
+        LockerDevice third = device(3);
+        lockers.detect(third);
+        lockers.lose(third);
+        awaitWorker();
+        assertEquals(1, search.getResults().size());
+
+        harness.getPlugin().onResume(false);
+        List<PluginResult> results = search.awaitResults(3, TIMEOUT_MS);
+        awaitWorker();
+        JSONObject lost = json(results.get(1));
+        assertEquals("1", lost.getString("deviceId"));
+        assertEquals("DeviceLost", lost.getString("status"));
+        JSONObject detected = json(results.get(2));
+        assertEquals("2", detected.getString("deviceId"));
+        assertEquals("DeviceDetected", detected.getString("status"));
+        assertEquals("OPENED", detected.getJSONArray("lockStatuses").getString(0));
+
+        JSONObject metrics = json(harness.execute("getMetrics").awaitResults(1, TIMEOUT_MS).get(0));
+        // the lock state change can be suppressed when the worker sees it with the detection
+        assertTrue(metrics.getJSONObject("counters").getInt("backgroundEvents") >= 4);
+        assertEquals(3, search.getResults().size());
+    }
+
+    @Test
+    public void applyTokenReturnsResultOfContinuation() throws Exception {
+        harness.start();
+        harness.lockers().setApplyHandler(token -> new TokenResult(new byte[]{4, 2}));
+
+        PluginResult result = harness.execute("applyToken", "1:a", new JSONObject())
+                .awaitResults(1, TIMEOUT_MS).get(0);
+        assertEquals(PluginResult.Status.OK.ordinal(), result.getStatus());
+        assertTrue(Arrays.equals(new byte[]{4, 2}, result.getBinaryMessage()));
+    }
+
+    @Test
+    public void applyResultsAreJournaled() throws Exception {
+        harness.start();
+        harness.lockers().setApplyHandler(token -> new TokenResult(new byte[]{4, 2}));
+        harness.execute("applyToken", "1:a", new JSONObject().put("requestId", "r1"))
+                .awaitResults(1, TIMEOUT_MS);
+
+        JSONObject journal = json(harness.execute("readJournal", 0)
+                .awaitResults(1, TIMEOUT_MS).get(0));
+        JSONObject entry = journal.getJSONArray("entries").getJSONObject(0);
+        assertEquals("apply", entry.getString("type"));
+        assertEquals("r1", entry.getString("requestId"));
+        assertEquals(1, entry.getInt("deviceId"));
+        assertEquals("BAI=", entry.getString("result"));
+        assertEquals(1, journal.getLong("lastSeq"));
+    }
+
+    @Test
+    public void applyTokensStreamsResultOfEveryToken() throws Exception {
+        harness.start();
+        harness.lockers().setApplyHandler(token -> token.getRaw().endsWith("bad")
+                ? null : new TokenResult(new byte[]{(byte) token.getDeviceId()}));
+
+        CallbackContext apply = harness.execute("applyTokens",
+                new JSONArray("[\"1:a\",\"2:bad\",\"1:b\"]"),
+                new JSONObject().put("timeoutMs", 50).put("requestId", "open"));
+        List<PluginResult> results = apply.awaitResults(4, TIMEOUT_MS);
+
+        JSONObject done = json(results.get(3));
+        assertTrue(done.getBoolean("done"));
+        assertEquals(2, done.getInt("succeeded"));
+        assertEquals(1, done.getInt("failed"));
+        assertTrue(apply.isFinished());
+        for (PluginResult result : results.subList(0, 3)) {
+            JSONObject token = json(result);
+            assertTrue(result.getKeepCallback());
+            assertEquals("open:" + token.getInt("index"), token.getString("requestId"));
+            if (token.getInt("deviceId") == 2) {
+                assertEquals("Apply timeout", token.getString("error"));
+            } else {
+                assertEquals("AQ==", token.getString("result"));
+            }
+        }
+    }
+
+    @Test
+    public void searchedConnectableDeviceBoostsScanner() throws Exception {
+        harness.start();
+        harness.execute("configureScannerBoost", new JSONObject().put("enabled", true))
+                .awaitResults(1, TIMEOUT_MS);
+        CallbackContext search = harness.execute("searchDevices", "[\"1:a\"]", new JSONObject());
+        harness.lockers().detect(device(1));
+        harness.lockers().detect(device(2));
+        search.awaitResults(1, TIMEOUT_MS);
+
+        JSONObject state = json(harness.execute("configureScannerBoost", new JSONObject())
+                .awaitResults(1, TIMEOUT_MS).get(0));
+        assertEquals("[1]", state.getJSONArray("devices").toString());
+        JSONObject scanner = json(harness.execute("getScannerState").awaitResults(1, TIMEOUT_MS)
+                .get(0));
+        assertTrue(scanner.getJSONArray("leases").toString().contains("boost:1"));
+
+        JSONObject metrics = json(harness.execute("getMetrics").awaitResults(1, TIMEOUT_MS).get(0));
+        assertEquals(1, metrics.getJSONObject("counters").getInt("scannerBoosts"));
+
+        harness.execute("stopSearching", "", new JSONObject()).awaitResults(1, TIMEOUT_MS);
+        state = json(harness.execute("configureScannerBoost", new JSONObject())
+                .awaitResults(1, TIMEOUT_MS).get(0));
+        assertEquals(0, state.getJSONArray("devices").length());
+    }
+
+    @Test
+    public void applyTokenTimesOut() throws Exception {
+        harness.start();
+        harness.lockers().setApplyHandler(token -> null);
+
+        PluginResult result = harness.execute("applyToken", "1:a",
+                new JSONObject().put("timeoutMs", 50)).awaitResults(1, TIMEOUT_MS).get(0);
+        assertEquals(PluginResult.Status.ERROR.ordinal(), result.getStatus());
+        assertEquals("Apply timeout", result.getStrMessage());
+    }
+
+    private static JSONObject json(PluginResult result) {
+        return new JSONObject(result.getMessage());
+    }
+
+    // getNearbyDevices runs on the worker after the sdk events posted before it
+    private void awaitWorker() throws Exception {
+        harness.execute("getNearbyDevices").awaitResults(1, TIMEOUT_MS);
+    }
+
+    private interface Condition {
+        boolean met();
+    }
+
+    private static void waitFor(Condition condition) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + TIMEOUT_MS;
+        while (!condition.met()) {
+            if (System.currentTimeMillis() > deadline) {
+                throw new AssertionError("Condition was not met in " + TIMEOUT_MS + " ms");
+            }
+            Thread.sleep(5);
+        }
+    }
+}
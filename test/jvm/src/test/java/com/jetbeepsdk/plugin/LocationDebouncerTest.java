@@ -0,0 +1,94 @@
+package com.jetbeepsdk.plugin;
+
+import com.jetbeep.model.entities.Shop;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class LocationDebouncerTest {
+
+    private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor();
+    private final List<String> events = new CopyOnWriteArrayList<>();
+    private final LocationDebouncer.Listener listener = new LocationDebouncer.Listener() {
+        @Override
+        public void onShopEntered(Shop shop) {
+            events.add("enter " + shop.getId());
+        }
+
+        @Override
+        public void onShopExit(Shop shop) {
+            events.add("exit " + shop.getId());
+        }
+
+        @Override
+        public void onCoalesced(Shop shop) {
+            events.add("coalesced " + shop.getId());
+        }
+    };
+
+    @After
+    public void tearDown() {
+        scheduler.shutdownNow();
+    }
+
+    @Test
+    public void withoutWindowsTransitionsPassThrough() {
+        LocationDebouncer debouncer = new LocationDebouncer(scheduler, 0, 0, listener);
+        Shop shop = new Shop(1, 10, "Shop");
+
+        debouncer.enter(shop);
+        debouncer.enter(shop);
+        debouncer.exit(shop);
+
+        assertEquals(Arrays.asList("enter 1", "exit 1"), events);
+    }
+
+    @Test
+    public void shortVisitIsCoalesced() {
+        LocationDebouncer debouncer = new LocationDebouncer(scheduler, 60_000, 0, listener);
+        Shop shop = new Shop(1, 10, "Shop");
+
+        debouncer.enter(shop);
+        debouncer.exit(shop);
+
+        assertEquals(Arrays.asList("coalesced 1"), events);
+        assertTrue(debouncer.currentShops().isEmpty());
+    }
+
+    @Test
+    public void returnWithinGraceIsCoalesced() throws InterruptedException {
+        LocationDebouncer debouncer = new LocationDebouncer(scheduler, 10, 60_000, listener);
+        Shop shop = new Shop(1, 10, "Shop");
+
+        debouncer.enter(shop);
+        long deadline = System.currentTimeMillis() + PluginHarness.TIMEOUT_MS;
+        while (events.isEmpty() && System.currentTimeMillis() < deadline) {
+            Thread.sleep(5);
+        }
+        debouncer.exit(shop);
+        debouncer.enter(shop);
+
+        assertEquals(Arrays.asList("enter 1", "coalesced 1"), events);
+        assertEquals(1, debouncer.currentShops().size());
+    }
+
+    @Test
+    public void seededShopIsCurrentWithoutEvents() {
+        LocationDebouncer debouncer = new LocationDebouncer(scheduler, 0, 0, listener);
+        debouncer.seed(new Shop(2, 10, "Shop"));
+
+        assertEquals(2, debouncer.currentShops().get(0).getId());
+        debouncer.close();
+        debouncer.exit(new Shop(2, 10, "Shop"));
+        assertTrue(events.isEmpty());
+    }
+}
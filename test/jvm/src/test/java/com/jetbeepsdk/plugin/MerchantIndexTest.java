@@ -0,0 +1,65 @@
+package com.jetbeepsdk.plugin;
+
+import com.jetbeep.model.entities.Merchant;
+import com.jetbeep.model.entities.Shop;
+
+import org.json.JSONObject;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class MerchantIndexTest {
+
+    private final MerchantIndex index = new MerchantIndex();
+
+    @Test
+    public void merchantFollowsFirstAndLastShop() {
+        index.putMerchant(new Merchant(10, "Merchant", "image.png"));
+
+        assertEquals(Integer.valueOf(10), index.shopEntered(new Shop(1, 10, "A")));
+        assertNull(index.shopEntered(new Shop(2, 10, "B")));
+        assertNull(index.shopExit(new Shop(1, 10, "A")));
+        assertEquals(Integer.valueOf(10), index.shopExit(new Shop(2, 10, "B")));
+    }
+
+    @Test
+    public void enterWaitsForMerchantDetails() {
+        assertNull(index.shopEntered(new Shop(1, 10, "A")));
+        assertTrue(index.putMerchant(new Merchant(10, "Merchant", "image.png")));
+        assertFalse(index.putMerchant(new Merchant(10, "Merchant", "image.png")));
+    }
+
+    @Test
+    public void exitWithoutSentEnterIsDropped() {
+        index.shopEntered(new Shop(1, 10, "A"));
+
+        assertNull(index.shopExit(new Shop(1, 10, "A")));
+        assertFalse(index.putMerchant(new Merchant(10, "Merchant", "image.png")));
+    }
+
+    @Test
+    public void imageIsSentOncePerSubscriber() {
+        index.putMerchant(new Merchant(10, "Merchant", "image.png"));
+
+        JSONObject first = index.toJson(10);
+        assertEquals("Merchant", first.getString("merchantName"));
+        assertEquals("image.png", first.getString("merchantImage"));
+        assertFalse(index.toJson(10).has("merchantImage"));
+
+        index.resetSentImages();
+        assertTrue(index.toJson(10).has("merchantImage"));
+    }
+
+    @Test
+    public void seededShopDelaysMerchantExit() {
+        index.putMerchant(new Merchant(10, "Merchant", "image.png"));
+        index.seed(new Shop(1, 10, "A"));
+
+        assertNull(index.shopEntered(new Shop(2, 10, "B")));
+        assertNull(index.shopExit(new Shop(2, 10, "B")));
+        assertEquals(Integer.valueOf(10), index.shopExit(new Shop(1, 10, "A")));
+    }
+}
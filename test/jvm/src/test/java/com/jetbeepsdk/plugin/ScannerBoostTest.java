@@ -0,0 +1,82 @@
+package com.jetbeepsdk.plugin;
+
+import org.json.JSONObject;
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class ScannerBoostTest {
+
+    private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor();
+    private final List<String> calls = new CopyOnWriteArrayList<>();
+    private final ScannerBoost boost = new ScannerBoost(new ScannerBoost.Booster() {
+        @Override
+        public void start(int deviceId) {
+            calls.add("start " + deviceId);
+        }
+
+        @Override
+        public void stop(int deviceId) {
+            calls.add("stop " + deviceId);
+        }
+    }, scheduler);
+
+    @After
+    public void tearDown() {
+        scheduler.shutdownNow();
+    }
+
+    @Test
+    public void disabledByDefault() {
+        assertFalse(boost.offer(1));
+        assertFalse(boost.touch(1));
+        assertTrue(calls.isEmpty());
+    }
+
+    @Test
+    public void leastRecentlyUsedDeviceIsStoppedOverBudget() {
+        boost.configure(new JSONObject().put("enabled", true).put("maxDevices", 2));
+        assertTrue(boost.offer(1));
+        assertTrue(boost.offer(2));
+        assertFalse(boost.offer(1));
+        assertTrue(boost.offer(3));
+
+        assertEquals("[start 1, start 2, stop 2, start 3]", calls.toString());
+        assertTrue(boost.touch(1));
+        assertEquals("[3,1]", boost.toJson().getJSONArray("devices").toString());
+    }
+
+    @Test
+    public void idleDeviceIsStopped() throws Exception {
+        boost.configure(new JSONObject().put("enabled", true).put("idleMs", 200));
+        boost.offer(1);
+        Thread.sleep(100);
+        assertTrue(boost.touch(1));
+        Thread.sleep(150);
+        assertTrue(boost.touch(1));
+
+        Thread.sleep(600);
+        assertFalse(boost.touch(1));
+        assertEquals("[start 1, stop 1]", calls.toString());
+    }
+
+    @Test
+    public void disablingStopsAll() {
+        boost.configure(new JSONObject().put("enabled", true));
+        boost.offer(1);
+        boost.offer(2);
+
+        boost.configure(new JSONObject().put("enabled", false));
+
+        assertEquals("[start 1, start 2, stop 1, stop 2]", calls.toString());
+        assertEquals(0, boost.toJson().getJSONArray("devices").length());
+    }
+}
@@ -0,0 +1,106 @@
+package com.jetbeepsdk.plugin;
+
+import com.jetbeep.connection.locker.Token;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class SearchSessionsTest {
+
+    private final SearchSessions sessions = new SearchSessions();
+
+    @Test
+    public void sessionsAreOrderedByPriority() {
+        sessions.open(session("low", 0));
+        sessions.open(session("high", 5));
+        sessions.open(session("middle", 1));
+        sessions.open(session("low2", 0));
+
+        assertEquals(Arrays.asList("high", "middle", "low", "low2"), ids());
+        assertEquals("high", sessions.top().id);
+
+        sessions.close("high");
+        assertEquals("middle", sessions.top().id);
+        assertNull(sessions.close("high"));
+    }
+
+    @Test
+    public void reopenedSessionIsReplaced() {
+        SearchSessions.Session first = session("a", 0, "1:x");
+        sessions.open(first);
+
+        assertSame(first, sessions.open(session("a", 2, "2:x")));
+        assertEquals(1, sessions.list().size());
+        assertTrue(sessions.list().get(0).matches(2));
+        assertFalse(sessions.list().get(0).matches(1));
+    }
+
+    @Test
+    public void runningSearchCoversSubsetsOfItsTokens() {
+        sessions.open(session("a", 0, "1:x", "2:x"));
+        assertFalse(sessions.isCovered(session("b", 0, "1:x")));
+
+        sessions.searchStarted();
+        assertTrue(sessions.isCovered(session("b", 0, "1:x")));
+        assertFalse(sessions.isCovered(session("b", 0, "3:x")));
+
+        sessions.open(session("c", 0, "2:x", "3:x"));
+        assertEquals(3, sessions.mergedTokens().size());
+    }
+
+    @Test
+    public void sessionWithoutTokensNeedsAnUnrestrictedSearch() {
+        sessions.open(session("a", 0, "1:x"));
+        sessions.searchStarted();
+        assertFalse(sessions.isCovered(session("all", 0)));
+
+        sessions.open(session("all", 0));
+        assertNull(sessions.mergedTokens());
+
+        sessions.searchStarted();
+        assertTrue(sessions.isCovered(session("b", 0)));
+        assertTrue(sessions.isCovered(session("c", 0, "3:x")));
+
+        sessions.close("all");
+        assertEquals(1, sessions.mergedTokens().size());
+    }
+
+    @Test
+    public void filterKeepsTheBatchWhenEverythingMatches() {
+        List<Integer> batch = Arrays.asList(1, 2, 3);
+        SearchSessions.DeviceIdOf<Integer> id = event -> event;
+
+        assertSame(batch, session("all", 0).filter(batch, id));
+        assertSame(batch, session("some", 0, "1:x", "2:x", "3:x").filter(batch, id));
+        assertEquals(Arrays.asList(1, 3), session("some", 0, "1:x", "3:x").filter(batch, id));
+        assertEquals(Collections.emptyList(), session("none", 0, "4:x").filter(batch, id));
+    }
+
+    private List<String> ids() {
+        List<String> result = new ArrayList<>();
+        for (SearchSessions.Session session : sessions.list()) {
+            result.add(session.id);
+        }
+        return result;
+    }
+
+    private static SearchSessions.Session session(String id, int priority, String... tokens) {
+        Map<String, Token> map = new LinkedHashMap<>();
+        for (String token : tokens) {
+            map.put(token, Token.Companion.createToken(token));
+        }
+        return new SearchSessions.Session(id, priority, null, map);
+    }
+}
@@ -0,0 +1,107 @@
+package com.jetbeepsdk.plugin;
+
+import com.jetbeep.connection.locker.Lockers;
+import com.jetbeep.connection.locker.Token;
+import com.jetbeep.connection.locker.TokenResult;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static com.jetbeepsdk.plugin.PluginHarness.TIMEOUT_MS;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class TokenApplyQueueTest {
+
+    private final ExecutorService executor = Executors.newFixedThreadPool(2);
+    private final ScheduledExecutorService timer = Executors.newSingleThreadScheduledExecutor();
+    private final DeviceCircuitBreaker breaker = new DeviceCircuitBreaker();
+    private final TokenApplyQueue queue = new TokenApplyQueue(executor, 2, timer, breaker);
+    private final Lockers lockers = new Lockers();
+    private final AtomicInteger attempts = new AtomicInteger();
+
+    @After
+    public void tearDown() {
+        queue.shutdown();
+        executor.shutdownNow();
+        timer.shutdownNow();
+    }
+
+    @Test
+    public void failedApplyIsRetried() throws Exception {
+        queue.configureRetries(2, 10, 20);
+        lockers.setApplyHandler(token -> {
+            if (attempts.incrementAndGet() < 3) {
+                throw new IllegalStateException("Device is busy");
+            }
+            return new TokenResult(new byte[]{1});
+        });
+
+        assertEquals("ok", apply("1:a"));
+        assertEquals(3, attempts.get());
+        assertEquals(0, breaker.toJson().length());
+    }
+
+    @Test
+    public void openDeviceFailsFastWithoutApply() throws Exception {
+        queue.configureRetries(5, 10, 20);
+        breaker.configure(2, 60 * 1000L);
+        lockers.setApplyHandler(token -> {
+            attempts.incrementAndGet();
+            throw new IllegalStateException("Device is out of range");
+        });
+
+        assertTrue(apply("1:a").contains("out of range"));
+        assertEquals(2, attempts.get());
+
+        assertEquals(TokenApplyQueue.ERROR_CIRCUIT_OPEN, apply("1:b"));
+        assertEquals(2, attempts.get());
+    }
+
+    @Test
+    public void timeoutInTheQueueDoesNotCountAsFailure() throws Exception {
+        queue.configure(1, 0, 0, 0);
+        breaker.configure(1, 60 * 1000L);
+        lockers.setApplyHandler(token -> null);
+
+        CompletableFuture<String> running = submit("1:a", 50);
+        CompletableFuture<String> waiting = submit("2:a", 50);
+
+        assertEquals("Apply timeout", running.get(TIMEOUT_MS, TimeUnit.MILLISECONDS));
+        assertEquals("Apply timeout", waiting.get(TIMEOUT_MS, TimeUnit.MILLISECONDS));
+        assertEquals(1, breaker.toJson().length());
+        assertEquals(1, breaker.toJson().getJSONObject(0).getInt("deviceId"));
+    }
+
+    private String apply(String token) throws Exception {
+        return submit(token, 0).get(TIMEOUT_MS, TimeUnit.MILLISECONDS);
+    }
+
+    private CompletableFuture<String> submit(String token, long timeoutMs) {
+        CompletableFuture<String> result = new CompletableFuture<>();
+        TokenApplyQueue.SubmitStatus status = queue.submit(lockers,
+                Token.Companion.createToken(token), null, timeoutMs,
+                new TokenApplyQueue.ApplyCallback() {
+                    @Override
+                    public void onResult(TokenResult tokenResult) {
+                        result.complete("ok");
+                    }
+
+                    @Override
+                    public void onError(String message) {
+                        result.complete(message);
+                    }
+                });
+        if (status == TokenApplyQueue.SubmitStatus.circuitOpen) {
+            result.complete(TokenApplyQueue.ERROR_CIRCUIT_OPEN);
+        }
+        return result;
+    }
+}
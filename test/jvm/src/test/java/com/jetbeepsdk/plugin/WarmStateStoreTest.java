@@ -0,0 +1,60 @@
+package com.jetbeepsdk.plugin;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.junit.After;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class WarmStateStoreTest {
+
+    @Rule
+    public TemporaryFolder files = new TemporaryFolder();
+
+    private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor();
+
+    @After
+    public void tearDown() {
+        scheduler.shutdownNow();
+    }
+
+    @Test
+    public void restoredObjectsAreMarkedStale() throws Exception {
+        JSONObject state = new JSONObject()
+                .put("savedAt", 1000L)
+                .put("shops", new JSONArray().put(new JSONObject().put("shopId", 1)))
+                .put("devices", new JSONArray().put(new JSONObject().put("deviceId", "2")));
+        Files.write(new File(files.getRoot(), WarmStateStore.FILE_NAME).toPath(),
+                state.toString().getBytes(StandardCharsets.UTF_8));
+
+        WarmStateStore store = new WarmStateStore(files.getRoot(), scheduler);
+        store.load();
+
+        JSONObject shop = store.getShops().getJSONObject(0);
+        assertEquals(1, shop.getInt("shopId"));
+        assertTrue(shop.getBoolean("stale"));
+        assertEquals(1000L, shop.getLong("savedAt"));
+        assertTrue(store.getDevices().getJSONObject(0).getBoolean("stale"));
+    }
+
+    @Test
+    public void liveObjectsAreNotChanged() {
+        WarmStateStore store = new WarmStateStore(files.getRoot(), scheduler);
+        JSONArray shops = new JSONArray().put(new JSONObject().put("shopId", 1));
+        store.updateShops(shops);
+
+        assertTrue(store.getShops().getJSONObject(0).getBoolean("stale"));
+        assertFalse(shops.getJSONObject(0).has("stale"));
+    }
+}
@@ -0,0 +1,119 @@
+package com.jetbeepsdk.plugin;
+
+import android.app.Activity;
+import android.content.Context;
+
+import com.jetbeep.JetBeepSDK;
+import com.jetbeep.background.LockStatus;
+import com.jetbeep.background.UserData;
+import com.jetbeep.connection.locker.LockerDevice;
+import com.jetbeep.connection.locker.Lockers;
+import com.jetbeep.model.entities.Device;
+
+import org.apache.cordova.CallbackContext;
+import org.apache.cordova.CordovaInterface;
+import org.apache.cordova.CordovaPreferences;
+import org.apache.cordova.CordovaWebView;
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * JetBeepSDKPlugin wired to the fake cordova and sdk. A single thread plays the ui thread,
+ * execute is called on the test thread like cordova calls it on its bridge thread.
+ */
+public class PluginHarness implements AutoCloseable {
+
+    public static final long TIMEOUT_MS = 5000;
+
+    private final ExecutorService uiThread =
+            Executors.newSingleThreadExecutor(r -> new Thread(r, "fake-ui"));
+    private final ExecutorService threadPool =
+            Executors.newCachedThreadPool(r -> new Thread(r, "fake-cordova-pool"));
+    private final AtomicInteger callbackIds = new AtomicInteger();
+    private final Activity activity = new Activity(uiThread);
+    private final JetBeepSDKPlugin plugin = new JetBeepSDKPlugin();
+
+    public PluginHarness(File filesDir) {
+        JetBeepSDK.INSTANCE.reset();
+        Context.reset();
+        Context.setFilesDir(filesDir);
+
+        CordovaInterface cordova = new CordovaInterface() {
+            @Override
+            public Activity getActivity() {
+                return activity;
+            }
+
+            @Override
+            public Context getContext() {
+                return activity;
+            }
+
+            @Override
+            public ExecutorService getThreadPool() {
+                return threadPool;
+            }
+        };
+        CordovaWebView webView = () -> activity;
+        plugin.privateInitialize("JetBeepSDKPlugin", cordova, webView, new CordovaPreferences());
+    }
+
+    public JetBeepSDKPlugin getPlugin() {
+        return plugin;
+    }
+
+    public Activity getActivity() {
+        return activity;
+    }
+
+    public Lockers lockers() {
+        return JetBeepSDK.INSTANCE.getConnections().getLockers();
+    }
+
+    /**
+     * Initialized sdk with lockers, the same as initSDK and enableBeeper from js.
+     */
+    public PluginHarness start() throws Exception {
+        execute("initSDK", "[\"app\",\"token\",\"uuid\"]").awaitResults(1, TIMEOUT_MS);
+        CallbackContext beeper = execute("enableBeeper", "");
+        beeper.awaitResults(1, TIMEOUT_MS);
+        return this;
+    }
+
+    public CallbackContext execute(String action, Object... args) throws JSONException {
+        CallbackContext callbackContext =
+                new CallbackContext(action + "#" + callbackIds.incrementAndGet(), null);
+        execute(callbackContext, action, args);
+        return callbackContext;
+    }
+
+    public void execute(CallbackContext callbackContext, String action, Object... args)
+            throws JSONException {
+        JSONArray json = new JSONArray();
+        for (Object arg : args) {
+            json.put(arg != null ? arg : JSONObject.NULL);
+        }
+        if (!plugin.execute(action, json, callbackContext)) {
+            throw new IllegalArgumentException("Unknown action " + action);
+        }
+    }
+
+    public static LockerDevice device(int deviceId, LockStatus... lockStatuses) {
+        return new LockerDevice(new Device(deviceId, "Locker " + deviceId, true,
+                new UserData("cell-" + deviceId), Arrays.asList(lockStatuses)));
+    }
+
+    @Override
+    public void close() {
+        plugin.onDestroy();
+        uiThread.shutdownNow();
+        threadPool.shutdownNow();
+    }
+}
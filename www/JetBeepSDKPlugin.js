@@ -1,23 +1,217 @@
 var exec = require('cordova/exec');
 
-exports.initSDK = function(arg0, success, error) {
-    exec(success, error, 'JetBeepSDKPlugin', 'initSDK', [arg0]);
+// keep in sync with CompactDeviceCodec.STATUSES on Android
+var COMPACT_STATUSES = [undefined, 'DeviceDetected', 'DeviceStateChanged', 'DeviceLost', 'DeviceLockStateChanged'];
+
+function decodeUtf8(bytes) {
+    if (typeof TextDecoder !== 'undefined') {
+        return new TextDecoder('utf-8').decode(bytes);
+    }
+    var binary = '';
+    for (var i = 0; i < bytes.length; i++) {
+        binary += String.fromCharCode(bytes[i]);
+    }
+    return decodeURIComponent(escape(binary));
+}
+
+// Decodes ArrayBuffer frame of compact format (see CompactDeviceCodec.java) into an array of
+// { deviceId: Number, deviceName, isConnectable: Boolean, status, userData: Uint8Array, lockStatuses }
+function decodeCompactDevices(buffer) {
+    var view = new DataView(buffer);
+    var offset = 0;
+    var version = view.getUint8(offset++);
+    if (version !== 1) {
+        throw new Error('Unsupported compact device frame version: ' + version);
+    }
+    var lockStatusNames = [];
+    var nameCount = view.getUint8(offset++);
+    for (var n = 0; n < nameCount; n++) {
+        var nameLength = view.getUint8(offset++);
+        lockStatusNames.push(decodeUtf8(new Uint8Array(buffer, offset, nameLength)));
+        offset += nameLength;
+    }
+    var count = view.getUint16(offset);
+    offset += 2;
+    var devices = new Array(count);
+    for (var i = 0; i < count; i++) {
+        var device = {};
+        device.deviceId = view.getInt32(offset);
+        offset += 4;
+        var status = COMPACT_STATUSES[view.getUint8(offset++)];
+        if (status !== undefined) {
+            device.status = status;
+        }
+        device.isConnectable = (view.getUint8(offset++) & 1) !== 0;
+        var deviceNameLength = view.getUint16(offset);
+        offset += 2;
+        device.deviceName = decodeUtf8(new Uint8Array(buffer, offset, deviceNameLength));
+        offset += deviceNameLength;
+        var userDataLength = view.getUint16(offset);
+        offset += 2;
+        device.userData = new Uint8Array(buffer, offset, userDataLength);
+        offset += userDataLength;
+        var lockCount = view.getUint8(offset++);
+        var lockStatuses = new Array(lockCount);
+        for (var l = 0; l < lockCount; l += 2) {
+            var packed = view.getUint8(offset++);
+            lockStatuses[l] = lockStatusNames[packed >> 4];
+            if (l + 1 < lockCount) {
+                lockStatuses[l + 1] = lockStatusNames[packed & 0x0F];
+            }
+        }
+        device.lockStatuses = lockStatuses;
+        devices[i] = device;
+    }
+    return devices;
+}
+
+// success gets decoded devices for { format: 'compact' } unless options.raw is set
+function compactSuccess(success, options) {
+    if (!options || options.format !== 'compact' || options.raw || !success) {
+        return success;
+    }
+    return function(message) {
+        success(message instanceof ArrayBuffer ? decodeCompactDevices(message) : message);
+    };
+}
+
+exports.decodeCompactDevices = decodeCompactDevices;
+
+// options: { staged: true } reports { state: 'ready' } before the repository sync (Android only)
+exports.initSDK = function(arg0, success, error, options) {
+    exec(success, error, 'JetBeepSDKPlugin', 'initSDK', options ? [arg0, options] : [arg0]);
+};
+
+// options: { staged: true, configVersion: '...' } (Android only)
+// with configVersion arg0 may contain only serviceUUID, the config stored on the device is used
+exports.initWithOfflineConfig = function(arg0, success, error, options) {
+    exec(success, error, 'JetBeepSDKPlugin', 'initWithOfflineConfig', options ? [arg0, options] : [arg0]);
+};
+
+// returns version of the offline config stored by initWithOfflineConfig (Android only)
+exports.getOfflineConfigVersion = function(arg0, success, error) {
+    exec(success, error, 'JetBeepSDKPlugin', 'getOfflineConfigVersion', [arg0]);
+};
+
+// options: { batchWindowMs: 100, delta: true, scanIntensity: 'BALANCED', scanLingerMs: 5000,
+//            format: 'compact', subscriptionId: 'map', priority: 1 } (Android only)
+// batchWindowMs delivers device events as arrays, delta sends only changed fields with "seq",
+// compact format is decoded to arrays of devices,
+// subscriptionId opens a search session which gets only devices of its tokens (all devices
+// when arg0 has no tokens), all sessions share one sdk search, higher priority sessions get
+// events first and define the scan intensity, a session joining a running search must use its
+// format, delta and batching, otherwise error is called
+// credits: 20, overflow: 'latest' | 'dropOldest' | 'sample' limits events in flight, see ackEvents
+// while the app is in background no events are sent, on resume every device which has changed
+// gets one event with its latest state (Android only)
+exports.searchDevices = function(arg0, success, error, options) {
+    exec(compactSuccess(success, options), error, 'JetBeepSDKPlugin', 'searchDevices', [arg0, options || {}]);
+};
+
+exports.requestDeviceSnapshot = function(arg0, success, error) {
+    exec(success, error, 'JetBeepSDKPlugin', 'requestDeviceSnapshot', [arg0]);
+};
+
+// options: { subscriptionId: 'map' } closes only this search session (Android only)
+exports.stopSearching = function(arg0, success, error, options) {
+    exec(success, error, 'JetBeepSDKPlugin', 'stopSearching', options ? [arg0, options] : [arg0]);
+};
+
+// options: { requestId: 'id', timeoutMs: 10000 } (Android only)
+exports.applyToken = function(arg0, success, error, options) {
+    exec(success, error, 'JetBeepSDKPlugin', 'applyToken', [arg0, options || {}]);
+};
+
+// arg0: array of token strings, options: { requestId, timeoutMs }
+// tokens of one device are applied in order, different devices in parallel, success is called
+// for every token with { index, deviceId, requestId, result (base64) | error } and at last
+// with { done: true, succeeded, failed }, cancelApply(requestId) cancels the rest (Android only)
+exports.applyTokens = function(arg0, success, error, options) {
+    exec(success, error, 'JetBeepSDKPlugin', 'applyTokens', options ? [arg0, options] : [arg0]);
+};
+
+exports.cancelApply = function(arg0, success, error) {
+    exec(success, error, 'JetBeepSDKPlugin', 'cancelApply', [arg0]);
+};
+
+// arg0: seq of the last entry js has, 0 reads the whole journal
+// options: { limit: 200 } returns { entries, firstSeq, lastSeq, hasMore }, entries are apply
+// results and shop transitions kept across webview reloads and app restarts (Android only)
+exports.readJournal = function(arg0, success, error, options) {
+    exec(success, error, 'JetBeepSDKPlugin', 'readJournal', options ? [arg0, options] : [arg0]);
+};
+
+// arg0: { enabled: true, maxDevices: 2, idleMs: 20000 }, {} only returns the state
+// while up to maxDevices connectable devices of the searched tokens are near, the scanner runs
+// at HIGH intensity even when searchDevices asked for BALANCED or LOW. With the default HIGH
+// search this has no effect.
+// returns { enabled, maxDevices, idleMs, devices } (Android only)
+exports.configureScannerBoost = function(arg0, success, error) {
+    exec(success, error, 'JetBeepSDKPlugin', 'configureScannerBoost', [arg0]);
+};
+
+// arg0: { maxConcurrent, maxPerDevice, maxQueued, timeoutMs }
+// Android only: { retries, retryBaseMs, retryMaxMs } retry failed applies with jittered
+// exponential backoff, { breakerThreshold, breakerCoolDownMs } fail applies fast with
+// 'Device circuit is open' after repeated failures of a device
+exports.configureApplyQueue = function(arg0, success, error) {
+    exec(success, error, 'JetBeepSDKPlugin', 'configureApplyQueue', [arg0]);
+};
+
+// returns [{ deviceId, state: 'closed' | 'open' | 'halfOpen', failures, retryAfterMs }]
+// for devices with failed applies (Android only)
+exports.getDeviceBreakers = function(arg0, success, error) {
+    exec(success, error, 'JetBeepSDKPlugin', 'getDeviceBreakers', [arg0]);
 };
 
-exports.initWithOfflineConfig = function(arg0, success, error) {
-    exec(success, error, 'JetBeepSDKPlugin', 'initWithOfflineConfig', [arg0]);
+// sends the same object when the breaker of a device changes its state (Android only)
+exports.subscribeBreakerEvents = function(arg0, success, error, options) {
+    exec(success, error, 'JetBeepSDKPlugin', 'subscribeBreakerEvents', options ? [arg0, options] : [arg0]);
 };
 
-exports.searchDevices = function(arg0, success, error) {
-    exec(success, error, 'JetBeepSDKPlugin', 'searchDevices', [arg0]);
+exports.unsubscribeBreakerEvents = function(arg0, success, error, options) {
+    exec(success, error, 'JetBeepSDKPlugin', 'unsubscribeBreakerEvents', options ? [arg0, options] : [arg0]);
 };
 
-exports.stopSearching = function(arg0, success, error) {
-    exec(success, error, 'JetBeepSDKPlugin', 'stopSearching', [arg0]);
+// arg0: token string to invalidate, empty string clears the whole cache (Android only)
+exports.invalidateTokenCache = function(arg0, success, error) {
+    exec(success, error, 'JetBeepSDKPlugin', 'invalidateTokenCache', [arg0]);
 };
 
-exports.applyToken = function(arg0, success, error) {
-    exec(success, error, 'JetBeepSDKPlugin', 'applyToken', [arg0]);
+exports.getTokenCacheStats = function(arg0, success, error) {
+    exec(success, error, 'JetBeepSDKPlugin', 'getTokenCacheStats', [arg0]);
+};
+
+// arg0: { id: 'screen', intensity: 'HIGH' | 'BALANCED' | 'LOW', lingerMs: 5000 } (Android only)
+exports.acquireScannerLease = function(arg0, success, error) {
+    exec(success, error, 'JetBeepSDKPlugin', 'acquireScannerLease', [arg0]);
+};
+
+exports.releaseScannerLease = function(arg0, success, error) {
+    exec(success, error, 'JetBeepSDKPlugin', 'releaseScannerLease', [arg0]);
+};
+
+exports.getScannerState = function(arg0, success, error) {
+    exec(success, error, 'JetBeepSDKPlugin', 'getScannerState', [arg0]);
+};
+
+// arg0: 'devices' or 'logs', options: { subscriptionId: 'map', count: 20 } (Android only)
+// returns credits to a subscription made with "credits", success gets { credits, queued, dropped }
+exports.ackEvents = function(arg0, success, error, options) {
+    exec(success, error, 'JetBeepSDKPlugin', 'ackEvents', [arg0, options || {}]);
+};
+
+exports.getMetrics = function(arg0, success, error) {
+    exec(success, error, 'JetBeepSDKPlugin', 'getMetrics', [arg0]);
+};
+
+// arg0: interval in ms, success is called with metrics until unsubscribeMetrics (Android only)
+exports.subscribeMetrics = function(arg0, success, error) {
+    exec(success, error, 'JetBeepSDKPlugin', 'subscribeMetrics', [arg0]);
+};
+
+exports.unsubscribeMetrics = function(arg0, success, error) {
+    exec(success, error, 'JetBeepSDKPlugin', 'unsubscribeMetrics', [arg0]);
 };
 
 exports.isPermissionGranted = function(arg0, success, error) {
@@ -32,54 +226,102 @@ exports.enableBeeper = function(arg0, success, error) {
     exec(success, error, 'JetBeepSDKPlugin', 'enableBeeper', [arg0]);
 };
 
-exports.subscribeToLocations = function(arg0, success, error) {
-    exec(success, error, 'JetBeepSDKPlugin', 'subscribeToLocations', [arg0]);
+// options: { subscriptionId: 'map' } several subscribers share one stream, the same for
+// unsubscribe and the other subscribe actions (Android only)
+// options: { dwellMs: 3000, graceMs: 10000, snapshotIntervalMs: 0 } filter shop flapping,
+// snapshotIntervalMs sends { event: 'onShopsSnapshot', shops } instead of transitions (Android only)
+// onMerchantEntered / onMerchantExit come with the first entered / last left shop of a merchant,
+// merchant.merchantImage is present only in the first event of each merchant (Android only)
+// background transitions are sent on resume, only for shops and merchants which have changed
+// (Android only)
+exports.subscribeToLocations = function(arg0, success, error, options) {
+    exec(success, error, 'JetBeepSDKPlugin', 'subscribeToLocations', options ? [arg0, options] : [arg0]);
 };
 
-exports.unsubscribeFromLocations = function(arg0, success, error) {
-    exec(success, error, 'JetBeepSDKPlugin', 'unsubscribeFromLocations', [arg0]);
+exports.unsubscribeFromLocations = function(arg0, success, error, options) {
+    exec(success, error, 'JetBeepSDKPlugin', 'unsubscribeFromLocations', options ? [arg0, options] : [arg0]);
 };
 
+// objects with stale: true are from the previous run, returned while the sdk syncs on cold start,
+// savedAt is the time they were current (Android only)
 exports.getEnteredShops = function(arg0, success, error) {
     exec(success, error, 'JetBeepSDKPlugin', 'getEnteredShops', [arg0]);
 };
 
+// arg0 may be { format: 'compact' }, devices with stale: true are from the previous run, see
+// getEnteredShops (Android only)
 exports.getNearbyDevices = function(arg0, success, error) {
-    exec(success, error, 'JetBeepSDKPlugin', 'getNearbyDevices', [arg0]);
+    exec(compactSuccess(success, arg0), error, 'JetBeepSDKPlugin', 'getNearbyDevices', [arg0]);
+};
+
+// arg0: deviceId, returns last known state from the active search (Android only)
+exports.getDevice = function(arg0, success, error) {
+    exec(success, error, 'JetBeepSDKPlugin', 'getDevice', [String(arg0)]);
+};
+
+// arg0: { connectableOnly, lockStatus, deviceIdPrefix, hasUserData, pageSize, cursor } (Android only)
+exports.queryNearbyDevices = function(arg0, success, error) {
+    exec(success, error, 'JetBeepSDKPlugin', 'queryNearbyDevices', [arg0]);
 };
 
 exports.bluetoothState = function(arg0, success, error) {
     exec(success, error, 'JetBeepSDKPlugin', 'bluetoothState', [arg0]);
 };
 
-exports.subscribeBluetoothEvents = function(arg0, success, error) {
-    exec(success, error, 'JetBeepSDKPlugin', 'subscribeBluetoothEvents', [arg0]);
+exports.subscribeBluetoothEvents = function(arg0, success, error, options) {
+    exec(success, error, 'JetBeepSDKPlugin', 'subscribeBluetoothEvents', options ? [arg0, options] : [arg0]);
 };
 
-exports.unsubscribeBluetoothEvents = function(arg0, success, error) {
-    exec(success, error, 'JetBeepSDKPlugin', 'unsubscribeBluetoothEvents', [arg0]);
+exports.unsubscribeBluetoothEvents = function(arg0, success, error, options) {
+    exec(success, error, 'JetBeepSDKPlugin', 'unsubscribeBluetoothEvents', options ? [arg0, options] : [arg0]);
 };
 
 exports.enableBluetooth = function(arg0, success, error) {
     exec(success, error, 'JetBeepSDKPlugin', 'enableBluetooth', [arg0]);
 };
 
-exports.subscribeLogEvents = function(arg0, success, error) {
-    exec(success, error, 'JetBeepSDKPlugin', 'subscribeLogEvents', [arg0]);
+// options: { minLevel, tags, batchSize, flushIntervalMs, remoteLogging, subscriptionId, credits }
+// sends lines in batches (Android only)
+exports.subscribeLogEvents = function(arg0, success, error, options) {
+    exec(success, error, 'JetBeepSDKPlugin', 'subscribeLogEvents', options ? [arg0, options] : [arg0]);
+};
+
+// arg0: number of lines, returns { lines, dropped } of the sdk log kept since init, also
+// without subscribeLogEvents, minLevel and tags of a subscriber do not filter them (Android only)
+exports.getRecentLogs = function(arg0, success, error) {
+    exec(success, error, 'JetBeepSDKPlugin', 'getRecentLogs', [arg0]);
+};
+
+exports.setRemoteLogging = function(arg0, success, error) {
+    exec(success, error, 'JetBeepSDKPlugin', 'setRemoteLogging', [arg0]);
+};
+
+exports.unsubscribeLogEvents = function(arg0, success, error, options) {
+    exec(success, error, 'JetBeepSDKPlugin', 'unsubscribeLogEvents', options ? [arg0, options] : [arg0]);
+};
+
+// { bluetooth, isGpsEnabled, isBtReady, isLocationGranted } from the cached state (Android only)
+exports.getEnvironmentState = function(arg0, success, error) {
+    exec(success, error, 'JetBeepSDKPlugin', 'getEnvironmentState', [arg0]);
+};
+
+// the same object with changed: ['bluetooth', ...] every time one of the fields changes (Android only)
+exports.subscribeEnvironmentEvents = function(arg0, success, error, options) {
+    exec(success, error, 'JetBeepSDKPlugin', 'subscribeEnvironmentEvents', options ? [arg0, options] : [arg0]);
 };
 
-exports.unsubscribeLogEvents = function(arg0, success, error) {
-    exec(success, error, 'JetBeepSDKPlugin', 'unsubscribeLogEvents', [arg0]);
+exports.unsubscribeEnvironmentEvents = function(arg0, success, error, options) {
+    exec(success, error, 'JetBeepSDKPlugin', 'unsubscribeEnvironmentEvents', options ? [arg0, options] : [arg0]);
 };
 
 exports.gpsState = function(arg0, success, error) {
     exec(success, error, 'JetBeepSDKPlugin', 'gpsState', [arg0]);
 };
 
-exports.subscribeGpsEvents = function(arg0, success, error) {
-    exec(success, error, 'JetBeepSDKPlugin', 'subscribeGpsEvents', [arg0]);
+exports.subscribeGpsEvents = function(arg0, success, error, options) {
+    exec(success, error, 'JetBeepSDKPlugin', 'subscribeGpsEvents', options ? [arg0, options] : [arg0]);
 };
 
-exports.unsubscribeGpsEvents = function(arg0, success, error) {
-    exec(success, error, 'JetBeepSDKPlugin', 'unsubscribeGpsEvents', [arg0]);
+exports.unsubscribeGpsEvents = function(arg0, success, error, options) {
+    exec(success, error, 'JetBeepSDKPlugin', 'unsubscribeGpsEvents', options ? [arg0, options] : [arg0]);
 };
\ No newline at end of file